@@ -16,11 +16,11 @@
 
 package org.ros.android.view;
 
+import org.ros.android.view.visualization.scan_utils.ScanGeometry;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.microedition.khronos.opengles.GL10;
 
@@ -32,12 +32,17 @@ import javax.microedition.khronos.opengles.GL10;
  */
 class DistancePoints {
 
-  // Members for displaying the range vertices and polygons.
-  private FloatBuffer rangeVertexBuffer;
-  private ByteBuffer rangeVertexByteBuffer;
-  private List<Float> rangeVertices = new ArrayList<Float>();
+  // Members for displaying the range vertices and polygons. Ranges are
+  // projected into the back buffer off the GL thread, which is then swapped
+  // with the pending buffer. The GL thread swaps the pending buffer with the
+  // front buffer that it draws, so no buffer is written while it's drawn.
+  private final Object rangeMutex = new Object();
+  private final ScanGeometry scanGeometry = new ScanGeometry();
   private float[] rangeVertexArray = new float[0];
-  private int rangeVertexCount;
+  private FloatBuffer backRangeVertexBuffer;
+  private FloatBuffer pendingRangeVertexBuffer;
+  private boolean rangePending;
+  private FloatBuffer rangeVertexBuffer;
   // Members for showing the robot shape.
   private FloatBuffer robotVertexBuffer;
   private int robotVertexCount;
@@ -51,57 +56,57 @@ class DistancePoints {
 
   /**
    * Updates the range buffer for displaying the polygons and the points based
-   * on incoming range data.
+   * on incoming range data. Must not be called on the GL thread, nor
+   * concurrently. The ranges are drawn after the next {@link #swapRange()}.
    */
-  public void updateRange(List<Float> range, float maxRange, float minRange, float minimumTheta,
+  public void updateRange(float[] range, float maxRange, float minRange, float minimumTheta,
       float thetaIncrement) {
-    // Clear the previous values.
-    rangeVertices.clear();
     // The 90 degrees need to be added to offset the orientation differences
     // between the ROS coordinate system and the one used by OpenGL.
-    minimumTheta += Math.toRadians(90.0);
-    // Adding the center coordinate since it's needed for GL10.GL_TRIANGLE_FAN
-    // to render the range polygons.
-    rangeVertices.add(0.0f);
-    rangeVertices.add(0.0f);
-    rangeVertices.add(0.0f);
-    // Calculate the coordinates for the range points. If the range is out of
-    // bounds then do not display them.
-    for (float rangeValue : range) {
-      // Display the point if it's within the min and max valid range.
-      if (rangeValue < maxRange && rangeValue > minRange) {
-        // x
-        rangeVertices.add((float) (rangeValue * Math.cos(minimumTheta)));
-        // y
-        rangeVertices.add((float) (rangeValue * Math.sin(minimumTheta)));
-        // z
-        rangeVertices.add(0.0f);
-      }
-      // Increment the theta for the next iteration.
-      minimumTheta += thetaIncrement;
+    scanGeometry.update((float) (minimumTheta + Math.toRadians(90.0)), thetaIncrement,
+        range.length, 1);
+    int size = (range.length + 1) * 3;
+    if (rangeVertexArray.length < size) {
+      rangeVertexArray = new float[size];
     }
-    if (rangeVertexArray.length != rangeVertices.size()) {
-      rangeVertexArray = new float[rangeVertices.size()];
+    // The first vertex is the center coordinate since it's needed for
+    // GL10.GL_TRIANGLE_FAN to render the range polygons. It is never
+    // overwritten. Ranges out of bounds are not displayed.
+    int rangeVertexCount =
+        1 + scanGeometry.project(range, minRange, maxRange, rangeVertexArray, 3);
+    if (backRangeVertexBuffer == null || backRangeVertexBuffer.capacity() < size) {
+      backRangeVertexBuffer = allocateRangeVertexBuffer(size);
     }
-    // Move the contents of the List to the array.
-    for (int i = 0; i < rangeVertices.size(); i++) {
-      rangeVertexArray[i] = rangeVertices.get(i);
+    backRangeVertexBuffer.clear();
+    backRangeVertexBuffer.put(rangeVertexArray, 0, rangeVertexCount * 3);
+    backRangeVertexBuffer.flip();
+    synchronized (rangeMutex) {
+      FloatBuffer tmp = pendingRangeVertexBuffer;
+      pendingRangeVertexBuffer = backRangeVertexBuffer;
+      backRangeVertexBuffer = tmp;
+      rangePending = true;
     }
-    rangeVertexCount = rangeVertexArray.length / 3;
-    // Update the buffers with the latest coordinates.
-    initRangeVertexBuffer();
-    rangeVertexBuffer.put(rangeVertexArray);
-    rangeVertexBuffer.position(0);
   }
 
-  private void initRangeVertexBuffer() {
-    int requiredVertexByteBufferCapacity = rangeVertices.size() * Float.SIZE / 8;
-    if (rangeVertexByteBuffer == null
-        || requiredVertexByteBufferCapacity > rangeVertexByteBuffer.capacity()) {
-      rangeVertexByteBuffer = ByteBuffer.allocateDirect(requiredVertexByteBufferCapacity);
-      rangeVertexByteBuffer.order(ByteOrder.nativeOrder());
+  /**
+   * Makes the ranges of the last {@link #updateRange} the ones that are drawn.
+   * Must be called on the GL thread.
+   */
+  public void swapRange() {
+    synchronized (rangeMutex) {
+      if (rangePending) {
+        FloatBuffer tmp = rangeVertexBuffer;
+        rangeVertexBuffer = pendingRangeVertexBuffer;
+        pendingRangeVertexBuffer = tmp;
+        rangePending = false;
+      }
     }
-    rangeVertexBuffer = rangeVertexByteBuffer.asFloatBuffer();
+  }
+
+  private static FloatBuffer allocateRangeVertexBuffer(int size) {
+    ByteBuffer rangeVertexByteBuffer = ByteBuffer.allocateDirect(size * Float.SIZE / 8);
+    rangeVertexByteBuffer.order(ByteOrder.nativeOrder());
+    return rangeVertexByteBuffer.asFloatBuffer();
   }
 
   /**
@@ -113,6 +118,7 @@ class DistancePoints {
    */
   public void drawRange(GL10 gl) {
     try {
+      int rangeVertexCount = rangeVertexBuffer.limit() / 3;
       gl.glDisable(GL10.GL_CULL_FACE);
       gl.glFrontFace(GL10.GL_CW);
       gl.glVertexPointer(3, GL10.GL_FLOAT, 0, rangeVertexBuffer);
@@ -22,8 +22,6 @@ import android.opengl.GLSurfaceView;
 import android.opengl.GLU;
 import android.preference.PreferenceManager;
 
-import java.util.List;
-
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -83,9 +81,10 @@ class DistanceRenderer implements GLSurfaceView.Renderer {
    */
   private static final String DISTANCE_VIEW_ZOOM_VALUE_KEY = "DISTANCE_VIEW_ZOOM_VALUE";
   /**
-   * Instance of the helper class that draws the sensor values.
+   * Instance of the helper class that draws the sensor values. It outlives the
+   * surface, since ranges are projected into it off the GL thread.
    */
-  private DistancePoints rangeLines;
+  private final DistancePoints rangeLines = new DistancePoints();
   /**
    * The amount of rotation (in degrees) applied to the camera.
    * 
@@ -123,7 +122,6 @@ class DistanceRenderer implements GLSurfaceView.Renderer {
   @Override
   public void onSurfaceCreated(GL10 gl, EGLConfig arg1) {
     gl.glClearColor(0.0f, 0.0f, 0.0f, 0.5f);
-    rangeLines = new DistancePoints();
   }
 
   @Override
@@ -199,9 +197,9 @@ class DistanceRenderer implements GLSurfaceView.Renderer {
   }
 
   /**
-   * The new range values are forwarded to {@link #rangeLines} and if
-   * {@link #zoomMode} is set to CLUTTER_ZOOM_MODE then {@link #zoom} is based
-   * on the distance to the closest object around the robot.
+   * The new range values are projected by {@link #rangeLines}. They are drawn
+   * after the next {@link #swapRange(float)}. Must not be called on the GL
+   * thread.
    * 
    * @param range
    *          New set of range values.
@@ -213,17 +211,28 @@ class DistanceRenderer implements GLSurfaceView.Renderer {
    *          The starting theta for the range values.
    * @param thIncrement
    *          The delta between incremental range scans.
+   */
+  public void updateRange(float[] range, float maxRange, float minRange, float minTh,
+      float thIncrement) {
+    // Update the distance ranges based on the incoming data.
+    rangeLines.updateRange(range, maxRange, minRange, minTh, thIncrement);
+  }
+
+  /**
+   * Shows the range values of the last {@link #updateRange} and if
+   * {@link #zoomMode} is set to CLUTTER_ZOOM_MODE then {@link #zoom} is based
+   * on the distance to the closest object around the robot. Must be called on
+   * the GL thread.
+   * 
    * @param minDistToObject
    *          The distance to the closest object.
    */
-  public void updateRange(List<Float> range, float maxRange, float minRange, float minTh,
-      float thIncrement, float minDistToObject) {
+  public void swapRange(float minDistToObject) {
     if (zoomMode == ZoomMode.CLUTTER_ZOOM_MODE) {
       // The closest object should be at the 80% of FOV mark.
       setZoom(minDistToObject * 1.25f);
     }
-    // Update the distance ranges based on the incoming data.
-    rangeLines.updateRange(range, maxRange, minRange, minTh, thIncrement);
+    rangeLines.swapRange();
   }
 
   /**
@@ -31,9 +31,6 @@ import org.ros.node.NodeMain;
 import org.ros.node.topic.Subscriber;
 import sensor_msgs.LaserScan;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * An OpenGL view that displayed data from a laser scanner (or similar sensors
  * like a kinect). This view can zoom in/out based in one of three modes. The
@@ -144,20 +141,20 @@ public class DistanceView extends GLSurfaceView implements OnTouchListener, Node
 
   @Override
   public void onNewMessage(final LaserScan message) {
+    float[] ranges = message.getRanges();
+    float minDistToObject = message.getRangeMax();
+    // Find the distance to the closest object.
+    for (float range : ranges) {
+      minDistToObject = (minDistToObject > range) ? range : minDistToObject;
+    }
+    // Project the ranges here, so that the GL thread only swaps buffers.
+    distanceRenderer.updateRange(ranges, message.getRangeMax(), message.getRangeMin(),
+        message.getAngleMin(), message.getAngleIncrement());
+    final float closestDistance = minDistToObject;
     queueEvent(new Runnable() {
       @Override
       public void run() {
-        List<Float> outRanges = new ArrayList<Float>();
-        float minDistToObject = message.getRangeMax();
-        // Find the distance to the closest object and also create an List
-        // for the ranges.
-        for (float range : message.getRanges()) {
-          outRanges.add(range);
-          minDistToObject = (minDistToObject > range) ? range : minDistToObject;
-        }
-        // Update the renderer with the latest range values.
-        distanceRenderer.updateRange(outRanges, message.getRangeMax(), message.getRangeMin(),
-            message.getAngleMin(), message.getAngleIncrement(), minDistToObject);
+        distanceRenderer.swapRange(closestDistance);
         // Request to render the surface.
         requestRender();
       }
@@ -18,18 +18,29 @@ package org.ros.android.view.visualization;
 
 import com.google.common.base.Preconditions;
 
-import android.graphics.Bitmap;
-import android.opengl.GLUtils;
-
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.ros.android.view.visualization.map_utils.DirtyRect;
 import org.ros.rosjava_geometry.Transform;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
 
 import javax.microedition.khronos.opengles.GL10;
 
 /**
  * Renders a texture.
+ * <p/>
+ * The texture's content is kept in client memory in the texture's own format. Updates mark the
+ * changed region, and only that region is uploaded with glTexSubImage2D on the next draw. The whole
+ * texture is only uploaded when it is new, e.g. after the GL context was recreated.
+ * <p/>
+ * A full size texture takes 4 MB of client memory (and as much GL memory) in {@link Format#RGBA},
+ * 2 MB in the 16 bit formats and 1 MB in {@link Format#LUMINANCE}. Smaller images get textures
+ * of the next powers of two, which take only as much memory as that.
  * 
  * @author moesenle@google.com (Lorenz Moesenlechner)
  * @author damonkohler@google.com (Damon Kohler)
@@ -46,13 +57,93 @@ public class TextureBitmap implements OpenGlDrawable {
    */
   public final static int STRIDE = 1024;
 
-  private final int[] pixels;
+  private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  /**
+   * Pixel formats of the texture. ARGB colors are converted to the format when
+   * they are written, so the compact formats lose color or alpha.
+   */
+  public enum Format {
+    /**
+     * 32 bits per pixel.
+     */
+    RGBA(GL10.GL_RGBA, GL10.GL_UNSIGNED_BYTE, 4),
+
+    /**
+     * 16 bits per pixel, without alpha.
+     */
+    RGB_565(GL10.GL_RGB, GL10.GL_UNSIGNED_SHORT_5_6_5, 2),
+
+    /**
+     * 16 bits per pixel, gray and alpha.
+     */
+    LUMINANCE_ALPHA(GL10.GL_LUMINANCE_ALPHA, GL10.GL_UNSIGNED_BYTE, 2),
+
+    /**
+     * 8 bits per pixel, gray only.
+     */
+    LUMINANCE(GL10.GL_LUMINANCE, GL10.GL_UNSIGNED_BYTE, 1);
+
+    private final int glFormat;
+    private final int glType;
+    private final int bytesPerTexel;
+
+    private Format(int glFormat, int glType, int bytesPerTexel) {
+      this.glFormat = glFormat;
+      this.glType = glType;
+      this.bytesPerTexel = bytesPerTexel;
+    }
+
+    public int getBytesPerTexel() {
+      return bytesPerTexel;
+    }
+
+    /**
+     * @return the texel of an Android ARGB color, in the low
+     *         {@link #getBytesPerTexel()} bytes of an int, as they are stored in
+     *         native order
+     */
+    public int toTexel(int argb) {
+      switch (this) {
+        case RGBA:
+          return TextureBitmap.toTexel(argb);
+        case RGB_565:
+          return ((argb >> 8) & 0xf800) | ((argb >> 5) & 0x07e0) | ((argb >> 3) & 0x001f);
+        case LUMINANCE_ALPHA:
+          final int alpha = argb >>> 24;
+          return LITTLE_ENDIAN ? (alpha << 8) | luminance(argb) : (luminance(argb) << 8) | alpha;
+        default:
+          return luminance(argb);
+      }
+    }
+
+    private static int luminance(int argb) {
+      return (((argb >> 16) & 0xff) * 77 + ((argb >> 8) & 0xff) * 150 + (argb & 0xff) * 29) >> 8;
+    }
+  }
+
+  private final Format format;
+
+  /**
+   * Size of the texture in texels, powers of two up to {@link #STRIDE} and
+   * {@link #HEIGHT}.
+   */
+  private final int width;
+  private final int height;
+
+  private final ByteBuffer texels;
+  private final IntBuffer intTexels;
+  private final ShortBuffer shortTexels;
+  private final ByteBuffer uploadSource;
   private final FloatBuffer surfaceVertices;
   private final FloatBuffer textureVertices;
   private final Object mutex;
+  private final DirtyRect dirtyRect;
+  private final int[] row;
+  private final short[] shortRow;
+  private final byte[] byteRow;
 
-  private Bitmap bitmapFront;
-  private Bitmap bitmapBack;
+  private ByteBuffer uploadBuffer;
   private int[] handle;
   private Transform origin;
   private double scaledWidth;
@@ -60,7 +151,28 @@ public class TextureBitmap implements OpenGlDrawable {
   private boolean reload;
 
   public TextureBitmap() {
-    pixels = new int[HEIGHT * STRIDE];
+    this(Format.RGBA);
+  }
+
+  public TextureBitmap(Format format) {
+    this(format, STRIDE, HEIGHT);
+  }
+
+  /**
+   * Creates a texture for an image of the given size. The texture is rounded
+   * up to powers of two, and only takes as much memory as that.
+   */
+  public TextureBitmap(Format format, int width, int height) {
+    Preconditions.checkArgument(width > 0 && width <= STRIDE && height > 0 && height <= HEIGHT);
+    this.format = format;
+    this.width = toPowerOfTwo(width);
+    this.height = toPowerOfTwo(height);
+    texels =
+        ByteBuffer.allocateDirect(this.width * this.height * format.bytesPerTexel).order(
+            ByteOrder.nativeOrder());
+    intTexels = texels.asIntBuffer();
+    shortTexels = texels.asShortBuffer();
+    uploadSource = texels.duplicate();
     surfaceVertices = Vertices.toFloatBuffer(new float[] {
         // Triangle strip
         0.0f, 0.0f, 0.0f, // Bottom left
@@ -75,69 +187,203 @@ public class TextureBitmap implements OpenGlDrawable {
         0.0f, 1.0f, // Top left
         1.0f, 1.0f, // Top right
     });
-    bitmapFront = Bitmap.createBitmap(STRIDE, HEIGHT, Bitmap.Config.ARGB_8888);
-    bitmapBack = Bitmap.createBitmap(STRIDE, HEIGHT, Bitmap.Config.ARGB_8888);
     mutex = new Object();
+    dirtyRect = new DirtyRect();
+    row = new int[this.width];
+    shortRow = format.bytesPerTexel == 2 ? new short[this.width] : null;
+    byteRow = format.bytesPerTexel == 1 ? new byte[this.width] : null;
     reload = true;
   }
 
+  private static int toPowerOfTwo(int size) {
+    int powerOfTwo = 1;
+    while (powerOfTwo < size) {
+      powerOfTwo *= 2;
+    }
+    return powerOfTwo;
+  }
+
+  /**
+   * @return The texel (a native order int holding r, g, b, a bytes) of an Android ARGB color.
+   */
+  public static int toTexel(int argb) {
+    if (LITTLE_ENDIAN) {
+      return (argb & 0xff00ff00) | ((argb >>> 16) & 0xff) | ((argb & 0xff) << 16);
+    }
+    return (argb << 8) | (argb >>> 24);
+  }
+
+  public Format getFormat() {
+    return format;
+  }
+
+  /**
+   * @return the width of the texture, in texels
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @return the height of the texture, in texels
+   */
+  public int getHeight() {
+    return height;
+  }
+
   public void updateFromPixelArray(int[] pixels, int stride, float resolution, Transform origin,
       int fillColor) {
     Preconditions.checkArgument(pixels.length % stride == 0);
     int height = pixels.length / stride;
-    for (int y = 0; y < HEIGHT; y++) {
-      for (int x = 0; x < STRIDE; x++) {
-        // If the pixel is within the bounds of the specified pixel array then
-        // we copy the specified value. Otherwise, we use the specified fill
-        // color.
-        int sourceIndex = y * stride + x;
-        int targetIndex = y * STRIDE + x;
-        if (x < stride && y < height) {
-          this.pixels[targetIndex] = pixels[sourceIndex];
-        } else {
-          this.pixels[targetIndex] = fillColor;
+    final int fillTexel = format.toTexel(fillColor);
+    synchronized (mutex) {
+      for (int y = 0; y < this.height; y++) {
+        for (int x = 0; x < width; x++) {
+          // If the pixel is within the bounds of the specified pixel array then
+          // we copy the specified value. Otherwise, we use the specified fill
+          // color.
+          if (x < stride && y < height) {
+            row[x] = format.toTexel(pixels[y * stride + x]);
+          } else {
+            row[x] = fillTexel;
+          }
         }
+        putRow(0, y, width);
       }
+      reload = true;
     }
-    update(origin, stride, resolution, fillColor);
+    setOrigin(origin, resolution);
   }
 
   public void updateFromPixelBuffer(ChannelBuffer pixels, int stride, float resolution,
       Transform origin, int fillColor) {
     Preconditions.checkNotNull(pixels);
     Preconditions.checkNotNull(origin);
-    for (int y = 0, i = 0; y < HEIGHT; y++) {
-      for (int x = 0; x < STRIDE; x++, i++) {
-        // If the pixel is within the bounds of the specified pixel array then
-        // we copy the specified value. Otherwise, we use the specified fill
-        // color.
-        if (x < stride && pixels.readable()) {
-          this.pixels[i] = pixels.readInt();
-        } else {
-          this.pixels[i] = fillColor;
+    final int fillTexel = format.toTexel(fillColor);
+    synchronized (mutex) {
+      for (int y = 0; y < this.height; y++) {
+        for (int x = 0; x < width; x++) {
+          // If the pixel is within the bounds of the specified pixel array then
+          // we copy the specified value. Otherwise, we use the specified fill
+          // color.
+          if (x < stride && pixels.readable()) {
+            row[x] = format.toTexel(pixels.readInt());
+          } else {
+            row[x] = fillTexel;
+          }
         }
+        putRow(0, y, width);
+      }
+      reload = true;
+    }
+    setOrigin(origin, resolution);
+  }
+
+  /**
+   * Sets every pixel to the given ARGB color.
+   */
+  public void fill(int color) {
+    synchronized (mutex) {
+      Arrays.fill(row, format.toTexel(color));
+      for (int y = 0; y < height; y++) {
+        putRow(0, y, width);
       }
+      reload = true;
+    }
+  }
+
+  /**
+   * Copies a rectangle of bytes into the texture, mapping each byte through a
+   * palette of 256 texels in this texture's format (see
+   * {@link Format#toTexel(int)}), indexed by {@code value & 0xff}. Only the
+   * changed rectangles are uploaded on the next draw.
+   * 
+   * @param values
+   *          the source values, row after row
+   * @param offset
+   *          the index of the rectangle's first value in {@code values}
+   * @param stride
+   *          the distance between rows in {@code values}
+   */
+  public void updateRegion(byte[] values, int offset, int stride, int[] palette, int x, int y,
+      int width, int height) {
+    Preconditions.checkArgument(palette.length == 256);
+    Preconditions.checkArgument(x >= 0 && y >= 0 && x + width <= this.width && y + height <= this.height);
+    synchronized (mutex) {
+      for (int i = 0; i < height; i++) {
+        final int source = offset + i * stride;
+        for (int column = 0; column < width; column++) {
+          row[column] = palette[values[source + column] & 0xff];
+        }
+        putRow(x, y + i, width);
+      }
+      dirtyRect.add(x, y, width, height);
+    }
+  }
+
+  /**
+   * Stores the first {@code width} texels of {@link #row}.
+   */
+  private void putRow(int x, int y, int width) {
+    final int index = y * this.width + x;
+    switch (format.bytesPerTexel) {
+      case 4:
+        intTexels.position(index);
+        intTexels.put(row, 0, width);
+        break;
+      case 2:
+        for (int i = 0; i < width; i++) {
+          shortRow[i] = (short) row[i];
+        }
+        shortTexels.position(index);
+        shortTexels.put(shortRow, 0, width);
+        break;
+      default:
+        for (int i = 0; i < width; i++) {
+          byteRow[i] = (byte) row[i];
+        }
+        texels.position(index);
+        texels.put(byteRow, 0, width);
+        texels.position(0);
+        break;
+    }
+  }
+
+  /**
+   * Places the texture: its bottom left corner at {@code origin}, each pixel
+   * {@code resolution} meters wide.
+   */
+  public void setOrigin(Transform origin, float resolution) {
+    Preconditions.checkNotNull(origin);
+    synchronized (mutex) {
+      this.origin = origin;
+      scaledWidth = width * resolution;
+      scaledHeight = height * resolution;
     }
-    update(origin, stride, resolution, fillColor);
   }
 
   public void clearHandle() {
     handle = null;
   }
 
-  private void update(Transform origin, int stride, float resolution, int fillColor) {
-    this.origin = origin;
-    scaledWidth = STRIDE * resolution;
-    scaledHeight = HEIGHT * resolution;
-    bitmapBack.setPixels(pixels, 0, STRIDE, 0, 0, STRIDE, HEIGHT);
-    synchronized (mutex) {
-      Bitmap tmp = bitmapFront;
-      bitmapFront = bitmapBack;
-      bitmapBack = tmp;
-      reload = true;
+  /**
+   * Frees the texture's GL memory. It is uploaded again from the client copy
+   * when the texture is drawn next.
+   */
+  public void deleteHandle(GL10 gl) {
+    if (handle != null) {
+      gl.glDeleteTextures(1, handle, 0);
+      handle = null;
     }
   }
 
+  /**
+   * @return the size of the texture in GL memory
+   */
+  public int getTextureBytes() {
+    return width * height * format.bytesPerTexel;
+  }
+
   private void bind(GL10 gl) {
     if (handle == null) {
       handle = new int[1];
@@ -147,16 +393,52 @@ public class TextureBitmap implements OpenGlDrawable {
     gl.glBindTexture(GL10.GL_TEXTURE_2D, handle[0]);
     gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_NEAREST);
     gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_NEAREST);
+    // Rows of the compact formats aren't 4 byte aligned.
+    gl.glPixelStorei(GL10.GL_UNPACK_ALIGNMENT, 1);
+    int width = 0;
+    int height = 0;
+    int x = 0;
+    int y = 0;
     synchronized (mutex) {
       if (reload) {
-        GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, bitmapFront, 0);
+        gl.glTexImage2D(GL10.GL_TEXTURE_2D, 0, format.glFormat, this.width, this.height, 0,
+            format.glFormat, format.glType, texels);
         reload = false;
+        dirtyRect.clear();
+      } else if (!dirtyRect.isEmpty()) {
+        // GL ES has no row length for unpacking, so the rectangle is packed
+        // into its own buffer.
+        x = dirtyRect.getX();
+        y = dirtyRect.getY();
+        width = dirtyRect.getWidth();
+        height = dirtyRect.getHeight();
+        final int rowBytes = width * format.bytesPerTexel;
+        if (uploadBuffer == null || uploadBuffer.capacity() < rowBytes * height) {
+          uploadBuffer = ByteBuffer.allocateDirect(rowBytes * height).order(ByteOrder.nativeOrder());
+        }
+        uploadBuffer.clear();
+        for (int i = 0; i < height; i++) {
+          final int start = ((y + i) * this.width + x) * format.bytesPerTexel;
+          uploadSource.clear();
+          uploadSource.position(start);
+          uploadSource.limit(start + rowBytes);
+          uploadBuffer.put(uploadSource);
+        }
+        uploadBuffer.flip();
+        dirtyRect.clear();
       }
     }
+    if (width > 0 && height > 0) {
+      gl.glTexSubImage2D(GL10.GL_TEXTURE_2D, 0, x, y, width, height, format.glFormat,
+          format.glType, uploadBuffer);
+    }
   }
 
   @Override
   public void draw(VisualizationView view, GL10 gl) {
+    if (origin == null) {
+      return;
+    }
     gl.glEnable(GL10.GL_TEXTURE_2D);
     bind(gl);
     gl.glPushMatrix();
@@ -16,15 +16,16 @@
 
 package org.ros.android.view.visualization;
 
-import android.opengl.Matrix;
-
 import com.google.common.base.Preconditions;
 
+import org.ros.android.view.visualization.gl_utils.VertexBufferObject;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
 import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
 
 /**
  * @author damonkohler@google.com (Damon Kohler)
@@ -43,6 +44,15 @@ public class Vertices {
 		return byteBuffer.asFloatBuffer();
 	}
 
+	/**
+	 * @return A buffer for numOfColors packed (r,g,b,a) unsigned byte colors, in native order.
+	 */
+	public static ByteBuffer allocateColorBuffer(int numOfColors) {
+		ByteBuffer byteBuffer = ByteBuffer.allocateDirect(numOfColors * 4);
+		byteBuffer.order(ByteOrder.nativeOrder());
+		return byteBuffer;
+	}
+
 	public static FloatBuffer toFloatBuffer(float[] floats) {
 		FloatBuffer floatBuffer = allocateBuffer(floats.length);
 		floatBuffer.put(floats);
@@ -64,48 +74,121 @@ public class Vertices {
 	/**
 	 * draw points with different colors for each.
 	 * The FloatBuffer of colors should be made of (r,g,b,a).
-	 * The model matrix will be set as identity matrix.
+	 * The current MODELVIEW matrix is used as is.
 	 */
 	public static void drawPointsWithColors(GL10 gl, FloatBuffer vertices, FloatBuffer colors, float pointSize) {
-		float identity[] = new float[16];
-		Matrix.setIdentityM(identity, 0);
-		drawPointsWithColors(gl, vertices, colors, pointSize, identity);
+		drawPointsWithColors(gl, vertices, colors, pointSize, null);
 	}
 
 	/**
-	 * draw points with different colors for each.
+	 * draw points with different colors for each, depth tested.
 	 * The FloatBuffer of colors should be made of (r,g,b,a).
+	 * The model matrix is multiplied into a pushed copy of the MODELVIEW matrix, which is popped when done.
+	 * Clearing the depth buffer is left to the renderer, so several point layers can share a frame.
 	 */
 	public static void drawPointsWithColors(GL10 gl, FloatBuffer vertices, FloatBuffer colors, float pointSize, float[] model) {
 		vertices.mark();
 		colors.mark();
 
+		beginPointsWithColors(gl, pointSize, model);
+		gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertices);
+		gl.glColorPointer(4, GL10.GL_FLOAT, 0, colors);
+		gl.glDrawArrays(GL10.GL_POINTS, 0, countVertices(vertices, 3));
+		endPointsWithColors(gl);
+
+		vertices.reset();
+		colors.reset();
+	}
+
+	/**
+	 * draw points with different colors for each.
+	 * The ByteBuffer of colors should be made of (r,g,b,a) unsigned bytes, 4 bytes per point.
+	 */
+	public static void drawPointsWithColors(GL10 gl, FloatBuffer vertices, ByteBuffer colors, float pointSize, float[] model) {
+		vertices.mark();
+		colors.mark();
+
+		beginPointsWithColors(gl, pointSize, model);
+		gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertices);
+		gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, colors);
+		gl.glDrawArrays(GL10.GL_POINTS, 0, countVertices(vertices, 3));
+		endPointsWithColors(gl);
+
+		vertices.reset();
+		colors.reset();
+	}
+
+	/**
+	 * draw ranges of points, with different colors for each.
+	 * The ByteBuffer of colors should be made of (r,g,b,a) unsigned bytes, 4 bytes per point.
+	 *
+	 * @param ranges      (first, count) pairs of the points to draw.
+	 * @param numOfRanges The number of pairs to use from ranges.
+	 */
+	public static void drawPointsWithColors(GL10 gl, FloatBuffer vertices, ByteBuffer colors, int[] ranges,
+	                                        int numOfRanges, float pointSize, float[] model) {
+		vertices.mark();
+		colors.mark();
+
+		beginPointsWithColors(gl, pointSize, model);
+		gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertices);
+		gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, colors);
+		drawRanges(gl, ranges, numOfRanges);
+		endPointsWithColors(gl);
+
+		vertices.reset();
+		colors.reset();
+	}
+
+	/**
+	 * draw ranges of points with different colors for each, from vertex buffer objects.
+	 * The colors buffer object should be made of (r,g,b,a) unsigned bytes.
+	 *
+	 * @param ranges      (first, count) pairs of the points to draw.
+	 * @param numOfRanges The number of pairs to use from ranges.
+	 */
+	public static void drawPointsWithColors(GL11 gl, VertexBufferObject vertices, VertexBufferObject colors,
+	                                        int[] ranges, int numOfRanges, float pointSize, float[] model) {
+		beginPointsWithColors(gl, pointSize, model);
+		vertices.bind(gl);
+		gl.glVertexPointer(3, GL10.GL_FLOAT, 0, 0);
+		colors.bind(gl);
+		gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, 0);
+		VertexBufferObject.unbind(gl);
+		drawRanges(gl, ranges, numOfRanges);
+		endPointsWithColors(gl);
+	}
+
+	private static void drawRanges(GL10 gl, int[] ranges, int numOfRanges) {
+		for (int i = 0; i < numOfRanges; i++) {
+			gl.glDrawArrays(GL10.GL_POINTS, ranges[i * 2], ranges[i * 2 + 1]);
+		}
+	}
+
+	private static void beginPointsWithColors(GL10 gl, float pointSize, float[] model) {
 		//set depth buffering
-		gl.glClear(GL10.GL_COLOR_BUFFER_BIT | GL10.GL_DEPTH_BUFFER_BIT);
 		gl.glEnable(GL10.GL_DEPTH_TEST);
 		gl.glDepthFunc(GL10.GL_LEQUAL);
 		gl.glDepthMask(true);
 
 		gl.glMatrixMode(GL10.GL_MODELVIEW);     //Select The Modelview Matrix
-		gl.glMultMatrixf(model, 0);
+		gl.glPushMatrix();
+		if (model != null) {
+			gl.glMultMatrixf(model, 0);
+		}
 
 		gl.glPointSize(pointSize);
 		gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-		gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertices);
 		gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-		gl.glColorPointer(4, GL10.GL_FLOAT, 0, colors);
-		gl.glDrawArrays(GL10.GL_POINTS, 0, countVertices(vertices, 3));
+	}
 
+	private static void endPointsWithColors(GL10 gl) {
 		gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
 		gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
 
-		//multiply by inverted matrix to return the MODEL_VIEW matrix to original state.
-		float invert[] = new float[16];
-		Matrix.invertM(invert, 0, model, 0);
-		gl.glMultMatrixf(invert, 0);
-
-		vertices.reset();
-		colors.reset();
+		//return the MODELVIEW matrix to its original state, and leave depth testing off for 2D layers.
+		gl.glPopMatrix();
+		gl.glDisable(GL10.GL_DEPTH_TEST);
 	}
 
 	public static void drawTriangleFan(GL10 gl, FloatBuffer vertices, Color color) {
@@ -140,6 +223,17 @@ public class Vertices {
 		vertices.reset();
 	}
 
+	public static void drawLineStrip(GL10 gl, FloatBuffer vertices, Color color, float width) {
+		vertices.mark();
+		color.apply(gl);
+		gl.glLineWidth(width);
+		gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
+		gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertices);
+		gl.glDrawArrays(GL10.GL_LINE_STRIP, 0, countVertices(vertices, 3));
+		gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
+		vertices.reset();
+	}
+
 	private static int countVertices(FloatBuffer vertices, int size) {
 		// FloatBuffer accounts for the size of each float when calling remaining().
 		Preconditions.checkArgument(vertices.remaining() % size == 0,
@@ -58,6 +58,17 @@ public class XYOrthographicCamera {
    */
   private static final float MAXIMUM_ZOOM_FACTOR = 5.f;
 
+  /**
+   * The zoom is divided into this many steps per doubling, for layers that
+   * only redo their zoom dependent work when the zoom changes by a step.
+   */
+  public static final int ZOOM_STEPS_PER_OCTAVE = 4;
+
+  /**
+   * A zoom step that no zoom is in.
+   */
+  public static final int NO_ZOOM_STEP = Integer.MIN_VALUE;
+
   private final FrameTransformTree frameTransformTree;
   private final Object mutex;
 
@@ -129,6 +140,27 @@ public class XYOrthographicCamera {
     return frameTransform.getTransform().multiply(getCameraToScreenTransform().invert());
   }
 
+  /**
+   * @param frame
+   *          the frame to transform from
+   * @return the {@link Transform} from {@code frame} to pixels, relative to
+   *         the center of the viewport with y pointing up, or {@code null} if
+   *         {@code frame} can't be transformed into the camera's frame
+   */
+  public Transform getFrameToScreenTransform(GraphName frame) {
+    Preconditions.checkNotNull(frame);
+    synchronized (mutex) {
+      if (this.frame == null) {
+        return null;
+      }
+      FrameTransform frameTransform = frameTransformTree.transform(frame, this.frame);
+      if (frameTransform == null) {
+        return null;
+      }
+      return getCameraToScreenTransform().multiply(frameTransform.getTransform());
+    }
+  }
+
   /**
    * Rotates the camera round the specified coordinates.
    *
@@ -169,6 +201,20 @@ public class XYOrthographicCamera {
     return cameraToRosTransform.getScale() * PIXELS_PER_METER;
   }
 
+  /**
+   * @return the step of the current zoom, see {@link #ZOOM_STEPS_PER_OCTAVE}
+   */
+  public int getZoomStep() {
+    return (int) Math.floor(Math.log(getZoom()) / Math.log(2) * ZOOM_STEPS_PER_OCTAVE);
+  }
+
+  /**
+   * @return the meters per pixel at the least zoom of {@code zoomStep}
+   */
+  public static double getMetersPerPixel(int zoomStep) {
+    return Math.pow(2, -zoomStep / (double) ZOOM_STEPS_PER_OCTAVE);
+  }
+
   /**
    * @return the provided pixel coordinates (where the origin is the top left
    * corner of the view) in the camera {@link #frame}
@@ -58,7 +58,8 @@ public class XYOrthographicRenderer implements GLSurfaceView.Renderer {
 
   @Override
   public void onDrawFrame(GL10 gl) {
-    gl.glClear(GL10.GL_COLOR_BUFFER_BIT);
+    // Layers which draw with depth testing rely on the depth buffer being cleared once per frame.
+    gl.glClear(GL10.GL_COLOR_BUFFER_BIT | GL10.GL_DEPTH_BUFFER_BIT);
     gl.glLoadIdentity();
     view.getCamera().apply(gl);
     drawLayers(gl);
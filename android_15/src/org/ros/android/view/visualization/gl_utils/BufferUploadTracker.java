@@ -0,0 +1,100 @@
+package org.ros.android.view.visualization.gl_utils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps track of what a GPU buffer holds, and decides how (and whether) client data should be uploaded to it.
+ * <p/>
+ * Has no GL dependencies - {@link VertexBufferObject} executes the decisions.
+ */
+public class BufferUploadTracker {
+	/**
+	 * The GPU buffer is up to date.
+	 */
+	public static final int UPLOAD_NONE = 0;
+	/**
+	 * The GPU buffer should be (re)allocated and filled - glBufferData.
+	 */
+	public static final int UPLOAD_DATA = 1;
+	/**
+	 * The GPU buffer is big enough, only its content should be replaced - glBufferSubData.
+	 */
+	public static final int UPLOAD_SUB_DATA = 2;
+
+	private boolean dirty;
+	private int allocatedBytes; //-1 if nothing is allocated on the GPU.
+	private int uploadedBytes;
+
+	public BufferUploadTracker() {
+		reset();
+	}
+
+	/**
+	 * Marks the client data as changed, e.g. after a front buffer swap.
+	 */
+	public void markDirty() {
+		dirty = true;
+	}
+
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Forgets the GPU buffer, e.g. after the GL context was lost. The next upload will allocate a new one.
+	 */
+	public void reset() {
+		dirty = true;
+		allocatedBytes = -1;
+		uploadedBytes = 0;
+	}
+
+	/**
+	 * @param dataBytes     The size of the client data that should be on the GPU.
+	 * @param capacityBytes The size to allocate if the GPU buffer has to grow. Should be at least dataBytes,
+	 *                      allocating the client buffer's capacity saves reallocations when clouds grow slowly.
+	 * @return One of UPLOAD_NONE, UPLOAD_DATA or UPLOAD_SUB_DATA.
+	 */
+	public int nextUpload(int dataBytes, int capacityBytes) {
+		Preconditions.checkArgument(dataBytes >= 0 && capacityBytes >= dataBytes);
+		if (!dirty) {
+			return UPLOAD_NONE;
+		}
+		if (allocatedBytes < dataBytes) {
+			return UPLOAD_DATA;
+		}
+		return UPLOAD_SUB_DATA;
+	}
+
+	/**
+	 * Should be called after the upload returned by {@link #nextUpload(int, int)} was done.
+	 */
+	public void onUploaded(int upload, int dataBytes, int capacityBytes) {
+		switch (upload) {
+			case UPLOAD_DATA:
+				allocatedBytes = capacityBytes;
+				break;
+			case UPLOAD_SUB_DATA:
+				Preconditions.checkState(allocatedBytes >= dataBytes);
+				break;
+			default:
+				return;
+		}
+		uploadedBytes = dataBytes;
+		dirty = false;
+	}
+
+	/**
+	 * @return The size of the data currently held by the GPU buffer.
+	 */
+	public int getUploadedBytes() {
+		return uploadedBytes;
+	}
+
+	/**
+	 * @return The size of the GPU buffer, or -1 if none is allocated.
+	 */
+	public int getAllocatedBytes() {
+		return allocatedBytes;
+	}
+}
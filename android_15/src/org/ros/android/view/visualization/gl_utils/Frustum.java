@@ -0,0 +1,128 @@
+package org.ros.android.view.visualization.gl_utils;
+
+/**
+ * The view frustum of a projection and model-view matrix pair, for culling boxes and unprojecting
+ * screen points.
+ * <p/>
+ * Matrices are column-major float[16], as used by OpenGL and android.opengl.Matrix. Only plain Java
+ * math is used, so it works off-device as well.
+ */
+public class Frustum {
+	private static final int NUM_OF_PLANES = 6;
+
+	//a, b, c, d of each plane, with a * x + b * y + c * z + d >= 0 inside.
+	private final float[] planes = new float[NUM_OF_PLANES * 4];
+	private final float[] modelViewProjection = new float[16];
+	private final float[] inverse = new float[16];
+	private boolean invertible;
+	//the inverse is only needed for picking, so it is computed on the first getRay after set.
+	private boolean inverseDirty = true;
+	private final float[] scratch = new float[8];
+
+	/**
+	 * Fills m with the same perspective projection as GLU.gluPerspective.
+	 */
+	public static void perspective(float[] m, float fovy, float aspect, float zNear, float zFar) {
+		final float f = 1f / (float) Math.tan(Math.toRadians(fovy) / 2);
+		final float depth = 1f / (zNear - zFar);
+		for (int i = 0; i < 16; i++) {
+			m[i] = 0;
+		}
+		m[0] = f / aspect;
+		m[5] = f;
+		m[10] = (zFar + zNear) * depth;
+		m[11] = -1f;
+		m[14] = 2 * zFar * zNear * depth;
+	}
+
+	/**
+	 * Sets the frustum of the given projection and model-view matrices. The planes are in the model's
+	 * frame, so boxes and points are given in model coordinates.
+	 */
+	public void set(float[] projection, float[] modelView) {
+		MatrixMath.multiply(modelViewProjection, projection, modelView);
+		final float[] m = modelViewProjection;
+		//each plane is the 4th row of the matrix plus or minus one of the others (Gribb & Hartmann).
+		for (int i = 0; i < 3; i++) {
+			setPlane(i * 2, m[3] + m[i], m[7] + m[4 + i], m[11] + m[8 + i], m[15] + m[12 + i]);
+			setPlane(i * 2 + 1, m[3] - m[i], m[7] - m[4 + i], m[11] - m[8 + i], m[15] - m[12 + i]);
+		}
+		inverseDirty = true;
+	}
+
+	private void setPlane(int plane, float a, float b, float c, float d) {
+		planes[plane * 4] = a;
+		planes[plane * 4 + 1] = b;
+		planes[plane * 4 + 2] = c;
+		planes[plane * 4 + 3] = d;
+	}
+
+	/**
+	 * @return false if the box is certainly outside of the frustum.
+	 */
+	public boolean intersectsBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		for (int plane = 0; plane < NUM_OF_PLANES; plane++) {
+			final float a = planes[plane * 4];
+			final float b = planes[plane * 4 + 1];
+			final float c = planes[plane * 4 + 2];
+			final float d = planes[plane * 4 + 3];
+			//the corner farthest along the plane's normal.
+			final float x = a >= 0 ? maxX : minX;
+			final float y = b >= 0 ? maxY : minY;
+			final float z = c >= 0 ? maxZ : minZ;
+			if (a * x + b * y + c * z + d < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean containsPoint(float x, float y, float z) {
+		return intersectsBox(x, y, z, x, y, z);
+	}
+
+	/**
+	 * Computes the ray going through a screen point, in the model's frame.
+	 *
+	 * @param screenX   In pixels, from the left.
+	 * @param screenY   In pixels, from the top (as in touch events).
+	 * @param origin    Receives the ray's origin, on the near plane.
+	 * @param direction Receives the ray's normalized direction.
+	 * @return false if the matrices can't be inverted.
+	 */
+	public boolean getRay(float screenX, float screenY, int width, int height, float[] origin, float[] direction) {
+		if (width <= 0 || height <= 0) {
+			return false;
+		}
+		if (inverseDirty) {
+			invertible = MatrixMath.invert(inverse, modelViewProjection);
+			inverseDirty = false;
+		}
+		if (!invertible) {
+			return false;
+		}
+		final float ndcX = 2 * screenX / width - 1;
+		final float ndcY = 1 - 2 * screenY / height;
+		unproject(ndcX, ndcY, -1, origin);
+		unproject(ndcX, ndcY, 1, scratch);
+		float dx = scratch[0] - origin[0];
+		float dy = scratch[1] - origin[1];
+		float dz = scratch[2] - origin[2];
+		final float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+		if (length == 0) {
+			return false;
+		}
+		direction[0] = dx / length;
+		direction[1] = dy / length;
+		direction[2] = dz / length;
+		return true;
+	}
+
+	private void unproject(float x, float y, float z, float[] result) {
+		final float[] m = inverse;
+		final float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+		result[0] = (m[0] * x + m[4] * y + m[8] * z + m[12]) / w;
+		result[1] = (m[1] * x + m[5] * y + m[9] * z + m[13]) / w;
+		result[2] = (m[2] * x + m[6] * y + m[10] * z + m[14]) / w;
+	}
+}
@@ -6,12 +6,18 @@ import org.ros.rosjava_geometry.Vector3;
 
 /**
  * A class used for holding model data for opengl 3D objects.
+ * <p/>
+ * The methods which take a result argument don't allocate, and should be preferred on the render thread
+ * and in gesture handling. They, and the identity, look at, translation and rotation setters, are plain
+ * Java, so they can be tested off-device.
  */
 public class ModelMatrix {
 	private float mModel[] = new float[16];
+	private final float scratch[] = new float[16];
+	private final float rotation[] = new float[16];
 
 	public ModelMatrix() {
-		Matrix.setIdentityM(mModel, 0);
+		setIdentity();
 	}
 
 	public ModelMatrix(float m[]) {
@@ -33,37 +39,71 @@ public class ModelMatrix {
 	}
 
 	public void translate(float dx, float dy, float dz) {
-		Matrix.translateM(this.mModel, 0, dx, dy, dz);
+		//as Matrix.translateM, in place.
+		for (int i = 0; i < 4; i++) {
+			mModel[12 + i] += mModel[i] * dx + mModel[4 + i] * dy + mModel[8 + i] * dz;
+		}
 	}
 
 	public void translate(Vector3 v) {
-		Matrix.translateM(this.mModel, 0, (float) v.getX(), (float) v.getY(), (float) v.getZ());
+		translate((float) v.getX(), (float) v.getY(), (float) v.getZ());
 	}
 
 	//angle in degrees
 	public void rotateX(float angle) {
-		Matrix.rotateM(this.mModel, 0, angle, 1.0f, 0, 0);
+		rotate(angle, 1.0f, 0, 0);
 	}
 
 	//angle in degrees
 	public void rotateY(float angle) {
-		Matrix.rotateM(this.mModel, 0, angle, 0, 1.0f, 0);
+		rotate(angle, 0, 1.0f, 0);
 	}
 
 	//angle in degrees
 	public void rotateZ(float angle) {
-		Matrix.rotateM(this.mModel, 0, angle, 0, 0, 1.0f);
+		rotate(angle, 0, 0, 1.0f);
 	}
 
 
-	//angle in degrees
+	/**
+	 * Rotates around the axis (x, y, z), as Matrix.rotateM but without allocating.
+	 *
+	 * @param angle in degrees
+	 */
 	public void rotate(float angle, float x, float y, float z) {
-		Matrix.rotateM(this.mModel, 0, angle, x, y, z);
+		final float radians = (float) Math.toRadians(angle);
+		final float s = (float) Math.sin(radians);
+		final float c = (float) Math.cos(radians);
+		final float length = (float) Math.sqrt(x * x + y * y + z * z);
+		if (length != 1f) {
+			x /= length;
+			y /= length;
+			z /= length;
+		}
+		final float nc = 1f - c;
+		rotation[0] = x * x * nc + c;
+		rotation[1] = x * y * nc + z * s;
+		rotation[2] = z * x * nc - y * s;
+		rotation[3] = 0f;
+		rotation[4] = x * y * nc - z * s;
+		rotation[5] = y * y * nc + c;
+		rotation[6] = y * z * nc + x * s;
+		rotation[7] = 0f;
+		rotation[8] = z * x * nc + y * s;
+		rotation[9] = y * z * nc - x * s;
+		rotation[10] = z * z * nc + c;
+		rotation[11] = 0f;
+		rotation[12] = 0f;
+		rotation[13] = 0f;
+		rotation[14] = 0f;
+		rotation[15] = 1f;
+		MatrixMath.multiply(scratch, mModel, rotation);
+		System.arraycopy(scratch, 0, mModel, 0, 16);
 	}
 
 	//angle in degrees
 	public void rotate(float angle, Vector3 v) {
-		Matrix.rotateM(this.mModel, 0, angle, (float)v.getX(), (float)v.getY(), (float)v.getZ());
+		rotate(angle, (float) v.getX(), (float) v.getY(), (float) v.getZ());
 	}
 
 	//Scales the object
@@ -99,6 +139,15 @@ public class ModelMatrix {
 		return new Vector3(getX(), getY(), getZ());
 	}
 
+	/**
+	 * Writes the position of this model to result[0..2].
+	 */
+	public void getPosition(float[] result) {
+		result[0] = getX();
+		result[1] = getY();
+		result[2] = getZ();
+	}
+
 	/**
 	 * @return A 3D point representing the X axis of this model.
 	 */
@@ -144,6 +193,34 @@ public class ModelMatrix {
 		return (new Vector3(mModel[8], mModel[9], mModel[10])).scale(1.f / getScaling());
 	}
 
+	/**
+	 * Writes the normalized X axis of this model to result[0..2].
+	 */
+	public void getAxisXNormalized(float[] result) {
+		getAxisNormalized(0, result);
+	}
+
+	/**
+	 * Writes the normalized Y axis of this model to result[0..2].
+	 */
+	public void getAxisYNormalized(float[] result) {
+		getAxisNormalized(4, result);
+	}
+
+	/**
+	 * Writes the normalized Z axis of this model to result[0..2].
+	 */
+	public void getAxisZNormalized(float[] result) {
+		getAxisNormalized(8, result);
+	}
+
+	private void getAxisNormalized(int column, float[] result) {
+		final float scaling = getScaling();
+		result[0] = mModel[column] / scaling;
+		result[1] = mModel[column + 1] / scaling;
+		result[2] = mModel[column + 2] / scaling;
+	}
+
 	public float getScaling() {
 		return (float) Math.sqrt(Math.pow(mModel[0], 2) + Math.pow(mModel[4], 2) + Math.pow(mModel[8], 2));
 	}
@@ -152,17 +229,86 @@ public class ModelMatrix {
 		return mModel;
 	}
 
+	/**
+	 * Inverts this model into result. result may be this model.
+	 *
+	 * @return false if this model can't be inverted, in which case result is not changed.
+	 */
+	public boolean invert(ModelMatrix result) {
+		if (!MatrixMath.invert(scratch, mModel)) {
+			return false;
+		}
+		System.arraycopy(scratch, 0, result.mModel, 0, 16);
+		return true;
+	}
+
 	public ModelMatrix getInvertedMat() {
 		ModelMatrix answer = new ModelMatrix();
 		Matrix.invertM(answer.mModel, 0, this.mModel, 0);
 		return answer;
 	}
 
+	/**
+	 * Copies the given model into this model.
+	 */
+	public void set(ModelMatrix m) {
+		System.arraycopy(m.mModel, 0, mModel, 0, 16);
+	}
+
+	/**
+	 * Sets this model to a viewing transformation, as in Matrix.setLookAtM.
+	 */
+	public void setLookAt(float eyeX, float eyeY, float eyeZ, float centerX, float centerY, float centerZ,
+	                      float upX, float upY, float upZ) {
+		//forward
+		float fx = centerX - eyeX;
+		float fy = centerY - eyeY;
+		float fz = centerZ - eyeZ;
+		final float rlf = 1f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+		fx *= rlf;
+		fy *= rlf;
+		fz *= rlf;
+
+		//side = forward x up
+		float sx = fy * upZ - fz * upY;
+		float sy = fz * upX - fx * upZ;
+		float sz = fx * upY - fy * upX;
+		final float rls = 1f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+		sx *= rls;
+		sy *= rls;
+		sz *= rls;
+
+		//up = side x forward
+		final float ux = sy * fz - sz * fy;
+		final float uy = sz * fx - sx * fz;
+		final float uz = sx * fy - sy * fx;
+
+		mModel[0] = sx;
+		mModel[1] = ux;
+		mModel[2] = -fx;
+		mModel[3] = 0f;
+		mModel[4] = sy;
+		mModel[5] = uy;
+		mModel[6] = -fy;
+		mModel[7] = 0f;
+		mModel[8] = sz;
+		mModel[9] = uz;
+		mModel[10] = -fz;
+		mModel[11] = 0f;
+		//the rotation applied to the negated eye.
+		mModel[12] = -(sx * eyeX + sy * eyeY + sz * eyeZ);
+		mModel[13] = -(ux * eyeX + uy * eyeY + uz * eyeZ);
+		mModel[14] = fx * eyeX + fy * eyeY + fz * eyeZ;
+		mModel[15] = 1f;
+	}
+
 	/**
 	 * Sets this model to the identity matrix ("resets" the model).
 	 */
 	public void setIdentity() {
-		Matrix.setIdentityM(mModel, 0);
+		for (int i = 0; i < 16; i++) {
+			mModel[i] = i % 5 == 0 ? 1f : 0f;
+		}
 	}
 
 
@@ -176,6 +322,30 @@ public class ModelMatrix {
 		return new ModelMatrix(a);
 	}
 
+	/**
+	 * Multiplies by matrix m into result, as followed:
+	 * result = this.matrix * m
+	 * result may be this model or m.
+	 */
+	public void mult(ModelMatrix m, ModelMatrix result) {
+		MatrixMath.multiply(scratch, mModel, m.mModel);
+		System.arraycopy(scratch, 0, result.mModel, 0, 16);
+	}
+
+	/**
+	 * Multiplies the point (x, y, z) by this matrix, as followed:
+	 * result = this.matrix * (x, y, z, 1)
+	 * The result's x, y, z are written to result, starting at offset.
+	 */
+	public void mult(float x, float y, float z, float[] result, int offset) {
+		final float rx = mModel[0] * x + mModel[4] * y + mModel[8] * z + mModel[12];
+		final float ry = mModel[1] * x + mModel[5] * y + mModel[9] * z + mModel[13];
+		final float rz = mModel[2] * x + mModel[6] * y + mModel[10] * z + mModel[14];
+		result[offset] = rx;
+		result[offset + 1] = ry;
+		result[offset + 2] = rz;
+	}
+
 	/**
 	 * Multiplies by vector v and returns the result, as followed:
 	 * result = this.matrix * v
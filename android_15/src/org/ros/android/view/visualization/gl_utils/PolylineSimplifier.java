@@ -0,0 +1,92 @@
+package org.ros.android.view.visualization.gl_utils;
+
+/**
+ * Ramer-Douglas-Peucker simplification of polylines given as x, y, z triples. Distances are measured
+ * in the xy plane. Not thread safe.
+ */
+public class PolylineSimplifier {
+	private boolean[] keep = new boolean[0];
+	private int[] stack = new int[0];
+
+	/**
+	 * Keeps the points needed for the simplified polyline to stay within tolerance of the original.
+	 *
+	 * @param result Receives the kept triples from offset on. May be points, with offset 0.
+	 * @return The number of points kept.
+	 */
+	public int simplify(float[] points, int numPoints, float tolerance, float[] result, int offset) {
+		if (keep.length < numPoints) {
+			keep = new boolean[numPoints];
+		}
+		mark(points, numPoints, tolerance, keep);
+		int numKept = 0;
+		for (int i = 0; i < numPoints; i++) {
+			if (keep[i]) {
+				final int index = offset + numKept * 3;
+				result[index] = points[i * 3];
+				result[index + 1] = points[i * 3 + 1];
+				result[index + 2] = points[i * 3 + 2];
+				numKept++;
+			}
+		}
+		return numKept;
+	}
+
+	/**
+	 * Sets keep[i] for the points that the simplified polyline keeps, and clears it for the others.
+	 */
+	public void mark(float[] points, int numPoints, float tolerance, boolean[] keep) {
+		for (int i = 0; i < numPoints; i++) {
+			keep[i] = false;
+		}
+		if (numPoints == 0) {
+			return;
+		}
+		if (stack.length < 2 * numPoints) {
+			stack = new int[2 * numPoints];
+		}
+		keep[0] = true;
+		keep[numPoints - 1] = true;
+		final float toleranceSquared = tolerance * tolerance;
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = numPoints - 1;
+		while (top > 0) {
+			final int last = stack[--top];
+			final int first = stack[--top];
+			final float ax = points[first * 3];
+			final float ay = points[first * 3 + 1];
+			final float dx = points[last * 3] - ax;
+			final float dy = points[last * 3 + 1] - ay;
+			final float lengthSquared = dx * dx + dy * dy;
+			float maximumDistanceSquared = toleranceSquared;
+			int farthest = -1;
+			for (int i = first + 1; i < last; i++) {
+				final float px = points[i * 3] - ax;
+				final float py = points[i * 3 + 1] - ay;
+				//squared distance to the segment from first to last, so that a polyline that doubles back on
+				//itself keeps its turning point.
+				float t = lengthSquared == 0 ? 0 : (px * dx + py * dy) / lengthSquared;
+				if (t < 0) {
+					t = 0;
+				} else if (t > 1) {
+					t = 1;
+				}
+				final float ex = px - t * dx;
+				final float ey = py - t * dy;
+				final float distanceSquared = ex * ex + ey * ey;
+				if (distanceSquared > maximumDistanceSquared) {
+					maximumDistanceSquared = distanceSquared;
+					farthest = i;
+				}
+			}
+			if (farthest >= 0) {
+				keep[farthest] = true;
+				stack[top++] = first;
+				stack[top++] = farthest;
+				stack[top++] = farthest;
+				stack[top++] = last;
+			}
+		}
+	}
+}
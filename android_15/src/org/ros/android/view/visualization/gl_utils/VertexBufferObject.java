@@ -0,0 +1,119 @@
+package org.ros.android.view.visualization.gl_utils;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+/**
+ * A GL_ARRAY_BUFFER holding a copy of a client side buffer on the GPU.
+ * <p/>
+ * The data is only uploaded after {@link #markDirty()}, so drawing the same data on every frame
+ * doesn't copy it to the GPU again.
+ */
+public class VertexBufferObject {
+	private final BufferUploadTracker tracker;
+	private int[] handle;
+
+	public VertexBufferObject() {
+		tracker = new BufferUploadTracker();
+	}
+
+	/**
+	 * @return true if the given context can hold vertex buffer objects.
+	 */
+	public static boolean isSupported(GL10 gl) {
+		if (!(gl instanceof GL11)) {
+			return false;
+		}
+		//VBOs are core in OpenGL ES 1.1, and an extension in 1.0.
+		String version = gl.glGetString(GL10.GL_VERSION);
+		String extensions = gl.glGetString(GL10.GL_EXTENSIONS);
+		return (version != null && version.contains("1.1"))
+				|| (extensions != null && extensions.contains("vertex_buffer_object"));
+	}
+
+	/**
+	 * Marks the client data as changed. It will be uploaded on the next {@link #update(GL11, Buffer)}.
+	 */
+	public void markDirty() {
+		tracker.markDirty();
+	}
+
+	/**
+	 * Forgets the GPU buffer without deleting it, e.g. when the GL context was lost together with it.
+	 */
+	public void clearHandle() {
+		handle = null;
+		tracker.reset();
+	}
+
+	/**
+	 * Uploads the data between the buffer's position and its limit, if it was marked as dirty.
+	 * Leaves the buffer object bound.
+	 */
+	public void update(GL11 gl, Buffer data) {
+		if (handle == null) {
+			handle = new int[1];
+			gl.glGenBuffers(1, handle, 0);
+			tracker.reset();
+		}
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, handle[0]);
+
+		final int elementSize = elementSize(data);
+		final int dataBytes = data.remaining() * elementSize;
+		final int capacityBytes = (data.capacity() - data.position()) * elementSize;
+		final int upload = tracker.nextUpload(dataBytes, capacityBytes);
+		switch (upload) {
+			case BufferUploadTracker.UPLOAD_DATA:
+				//allocate the whole capacity, so slightly bigger data next time doesn't reallocate.
+				gl.glBufferData(GL11.GL_ARRAY_BUFFER, capacityBytes, null, GL11.GL_STATIC_DRAW);
+				gl.glBufferSubData(GL11.GL_ARRAY_BUFFER, 0, dataBytes, data);
+				break;
+			case BufferUploadTracker.UPLOAD_SUB_DATA:
+				gl.glBufferSubData(GL11.GL_ARRAY_BUFFER, 0, dataBytes, data);
+				break;
+		}
+		tracker.onUploaded(upload, dataBytes, capacityBytes);
+	}
+
+	public void bind(GL11 gl) {
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, handle[0]);
+	}
+
+	public static void unbind(GL11 gl) {
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Deletes the GPU buffer. Must be called on the GL thread.
+	 */
+	public void delete(GL11 gl) {
+		if (handle != null) {
+			gl.glDeleteBuffers(1, handle, 0);
+		}
+		clearHandle();
+	}
+
+	/**
+	 * @return The size in bytes of the data currently held by the GPU buffer.
+	 */
+	public int getUploadedBytes() {
+		return tracker.getUploadedBytes();
+	}
+
+	private static int elementSize(Buffer data) {
+		if (data instanceof ByteBuffer) {
+			return 1;
+		} else if (data instanceof ShortBuffer) {
+			return 2;
+		} else if (data instanceof FloatBuffer || data instanceof IntBuffer) {
+			return 4;
+		}
+		throw new IllegalArgumentException("Unsupported buffer type: " + data.getClass().getName());
+	}
+}
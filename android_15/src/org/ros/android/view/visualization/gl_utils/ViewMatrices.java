@@ -0,0 +1,152 @@
+package org.ros.android.view.visualization.gl_utils;
+
+/**
+ * The camera, eye and model matrices of a 3D view, and the math done on them on every frame and in
+ * gesture handling. None of the methods allocate, and all are plain Java, so they can be tested off-device.
+ * <p/>
+ * Not thread safe: the owner guards it, e.g. with the lock its frames are drawn under.
+ */
+public class ViewMatrices {
+	public static final int X_AXIS = 0x00;
+	public static final int Y_AXIS = 0x01;
+	public static final int Z_AXIS = 0x02;
+
+	private final ModelMatrix cameraMatrix;
+	private final ModelMatrix eyeMatrix; //according to LookAt
+	private final ModelMatrix modelMatrix;
+	private final float[] lastEyeMatrix; //eye and model matrices of the last updateLastMatrices.
+	private final float[] lastModelMatrix;
+
+	private final ModelMatrix eyeModelScratch;
+	private final float[] lookAtScratch;
+	private final float[] upScratch;
+	private final float[] pointScratch;
+
+	public ViewMatrices() {
+		cameraMatrix = new ModelMatrix();
+		eyeMatrix = new ModelMatrix();
+		modelMatrix = new ModelMatrix();
+		lastEyeMatrix = new float[16];
+		lastModelMatrix = new float[16];
+		eyeModelScratch = new ModelMatrix();
+		lookAtScratch = new float[3];
+		upScratch = new float[3];
+		pointScratch = new float[6];
+	}
+
+	/**
+	 * @return The camera's pose. Moving it moves the view on the next updateEye.
+	 */
+	public ModelMatrix getCameraMatrix() {
+		return cameraMatrix;
+	}
+
+	/**
+	 * @return The viewing transformation, as of the last updateEye.
+	 */
+	public ModelMatrix getEyeMatrix() {
+		return eyeMatrix;
+	}
+
+	/**
+	 * @return The transformation of the drawn model, e.g. a point cloud.
+	 */
+	public ModelMatrix getModelMatrix() {
+		return modelMatrix;
+	}
+
+	/**
+	 * Sets the eye matrix to look from the camera's position along its z axis, with its y axis up.
+	 */
+	public void updateEye() {
+		cameraMatrix.getAxisZNormalized(lookAtScratch);
+		cameraMatrix.getAxisYNormalized(upScratch);
+		final float cameraX = cameraMatrix.getX();
+		final float cameraY = cameraMatrix.getY();
+		final float cameraZ = cameraMatrix.getZ();
+		eyeMatrix.setLookAt(cameraX, cameraY, cameraZ,
+				cameraX + lookAtScratch[0], cameraY + lookAtScratch[1], cameraZ + lookAtScratch[2],
+				upScratch[0], upScratch[1], upScratch[2]);
+	}
+
+	/**
+	 * Keeps a copy of the eye and model matrices, e.g. as drawn on this frame.
+	 *
+	 * @return true if either changed since the last call.
+	 */
+	public boolean updateLastMatrices() {
+		boolean changed = false;
+		final float[] eye = eyeMatrix.getMat();
+		final float[] model = modelMatrix.getMat();
+		for (int i = 0; i < 16; i++) {
+			if (lastEyeMatrix[i] != eye[i] || lastModelMatrix[i] != model[i]) {
+				changed = true;
+				lastEyeMatrix[i] = eye[i];
+				lastModelMatrix[i] = model[i];
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Writes eye * model to result.
+	 */
+	public void getModelView(float[] result) {
+		MatrixMath.multiply(result, eyeMatrix.getMat(), modelMatrix.getMat());
+	}
+
+	/**
+	 * Writes eye * model, as of the last updateLastMatrices, to result.
+	 */
+	public void getLastModelView(float[] result) {
+		MatrixMath.multiply(result, lastEyeMatrix, lastModelMatrix);
+	}
+
+	/**
+	 * @return The distance between the eye and the point (x, y, z) in the model's frame.
+	 */
+	public float getDistance(float x, float y, float z) {
+		//move the point to the eye frame, where the eye is at the origin.
+		modelMatrix.mult(x, y, z, pointScratch, 0);
+		eyeMatrix.mult(pointScratch[0], pointScratch[1], pointScratch[2], pointScratch, 0);
+		return (float) Math.sqrt(pointScratch[0] * pointScratch[0] + pointScratch[1] * pointScratch[1]
+				+ pointScratch[2] * pointScratch[2]);
+	}
+
+	/**
+	 * Rotates the model in place around one of the eye's axes.
+	 *
+	 * @param delta Angle in degrees
+	 * @param axis  X_AXIS, Y_AXIS or Z_AXIS.
+	 * @return false if the view is degenerate, in which case the model is not rotated.
+	 */
+	public boolean rotateModelOnEyeAxis(float delta, int axis) {
+		//calculate the axis of the eye, in the model's frame.
+		eyeMatrix.mult(modelMatrix, eyeModelScratch); //represents: model_frame  -->  eye_frame
+		if (!eyeModelScratch.invert(eyeModelScratch)) { // represents:  eye_frame  -->  model_frame
+			return false;
+		}
+
+		//the eye's axis in the model's frame goes from the eye's origin to the eye's unit point on that axis.
+		eyeModelScratch.mult(0, 0, 0, pointScratch, 0);
+		switch (axis) {
+			case X_AXIS:
+				eyeModelScratch.mult(1, 0, 0, pointScratch, 3);
+				break;
+			case Y_AXIS:
+				eyeModelScratch.mult(0, 1, 0, pointScratch, 3);
+				break;
+			case Z_AXIS:
+				eyeModelScratch.mult(0, 0, 1, pointScratch, 3);
+				break;
+			default:
+				return false;
+		}
+
+		modelMatrix.rotate(delta,
+				pointScratch[3] - pointScratch[0],
+				pointScratch[4] - pointScratch[1],
+				pointScratch[5] - pointScratch[2]);
+		return true;
+	}
+}
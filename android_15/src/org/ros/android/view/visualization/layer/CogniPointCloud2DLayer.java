@@ -18,7 +18,6 @@ package org.ros.android.view.visualization.layer;
 
 import android.content.Context;
 import android.opengl.GLU;
-import android.opengl.Matrix;
 import android.support.v4.view.GestureDetectorCompat;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -30,24 +29,36 @@ import android.view.WindowManager;
 
 import com.google.common.base.Preconditions;
 
-import org.jboss.netty.buffer.ChannelBuffer;
 import org.ros.android.view.visualization.RotateGestureDetector;
 import org.ros.android.view.visualization.Vertices;
 import org.ros.android.view.visualization.VisualizationView;
+import org.ros.android.view.visualization.gl_utils.Frustum;
 import org.ros.android.view.visualization.gl_utils.ModelMatrix;
+import org.ros.android.view.visualization.gl_utils.VertexBufferObject;
+import org.ros.android.view.visualization.gl_utils.ViewMatrices;
+import org.ros.android.view.visualization.pcd_utils.ColorMap;
+import org.ros.android.view.visualization.pcd_utils.MortonOrder;
+import org.ros.android.view.visualization.pcd_utils.ParallelPointCloud2Decoder;
+import org.ros.android.view.visualization.pcd_utils.PointBudget;
+import org.ros.android.view.visualization.pcd_utils.PointCloud2Decoder;
+import org.ros.android.view.visualization.pcd_utils.PointGrid;
+import org.ros.android.view.visualization.pcd_utils.VoxelGridFilter;
 import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
-import org.ros.node.topic.Subscriber;
+import org.ros.node.Node;
+import org.ros.node.NodeMainExecutor;
 import org.ros.rosjava_geometry.Vector3;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
 
+import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
 
 import sensor_msgs.PointCloud2;
-import sensor_msgs.PointField;
 
 /**
  * A {@link SubscriberLayer} that visualizes
@@ -58,6 +69,8 @@ import sensor_msgs.PointField;
  * @author damonkohler@google.com (Damon Kohler)
  */
 public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> implements TfLayer {
+	private static final String TAG = "CogniPointCloud2DLayer";
+
 	private GraphName frame;
 
 	private static final int BACKGRUND_COLOR = 0x377dfaFF;
@@ -66,20 +79,70 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 	private final static float MAX_INTENSITY = 3700f;
 	private final static float MIN_INTENSITY = 0f;
 
+	//voxel grid downsampling is off by default, when on it keeps at most this many points.
+	private static final float DEFAULT_VOXEL_LEAF_SIZE = 0f;
+	private static final int DEFAULT_MAX_POINTS = 200000;
+
+	//level of detail - the range of points drawn while the view is changing.
+	private static final int MIN_POINTS_BUDGET = 20000;
+	private static final int MAX_POINTS_BUDGET = 500000;
+	private static final float TARGET_FPS = 60f;
+	private static final float FULL_DETAIL_DISTANCE = 10f;
+
+	//the perspective projection.
+	private static final float FIELD_OF_VIEW = 45.0f;
+	private static final float Z_NEAR = 0.1f;
+	private static final float Z_FAR = 100.0f;
+
+	//picked points must be within this angle (as its tangent, about 2 degrees) from the tapped ray.
+	private static final float PICK_MAX_TAN_ANGLE = 0.035f;
+
 	//keep a mutex for reading/writing to buffers.
 	private final Object mutex;
 
 	private FloatBuffer vertexFrontBuffer;
-	private FloatBuffer colorsFrontBuffer;
+	private ByteBuffer colorsFrontBuffer;
 	private FloatBuffer vertexBackBuffer;
-	private FloatBuffer colorsBackBuffer;
+	private ByteBuffer colorsBackBuffer;
+	private FloatBuffer intensitiesBuffer;
+
+	//GPU copies of the front buffers, used when the context supports them.
+	private final VertexBufferObject vertexBufferObject;
+	private final VertexBufferObject colorsBufferObject;
+	private boolean useVertexBufferObjects;
+	//set on shutdown, the buffer objects are then deleted on the next frame, on the GL thread.
+	private volatile boolean shutdown;
+
+	private final ParallelPointCloud2Decoder pointCloudDecoder;
+	private final double[] pointCloudSums;
+	private final VoxelGridFilter voxelGridFilter;
+	private volatile ColorMap colorMap;
+
+	private final MortonOrder mortonOrder;
+	private final PointBudget pointBudget;
+	private volatile boolean levelOfDetail;
+	private boolean frontBufferOrdered; //true if the front buffer was ordered for level of detail.
+	private long lastFrameTimeNanos;
+
+	//spatial index over the front and back buffers, swapped with them.
+	private PointGrid frontGrid;
+	private PointGrid backGrid;
+	private final Frustum frustum;
+	private final float[] projectionMatrix;
+	private final float[] modelViewScratch;
+	private final float[] rayOrigin;
+	private final float[] rayDirection;
+	private final int[] fullRange;
+	private int viewportWidth;
+	private int viewportHeight;
 
 	private Vector3 pointCloudCenterOfGravity; //For rotation around the object.
 
 	//Models - used to hold easy-to-access data about the different objects
-	private ModelMatrix eyeMatrix; //according to LookAt
-	private ModelMatrix cameraMatrix;
-	private ModelMatrix pcdMatrix;
+	private final ViewMatrices viewMatrices;
+	private final ModelMatrix eyeMatrix; //according to LookAt
+	private final ModelMatrix cameraMatrix;
+	private final ModelMatrix pcdMatrix;
 
 	private PointCloudController pcdController;
 	private GesturesController gesturesController;
@@ -261,9 +324,6 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 	 * A class used to control movements of a pointcloud layer, such as camera and pcd translations.
 	 */
 	public class PointCloudController {
-		private static final int X_AXIS = 0x00;
-		private static final int Y_AXIS = 0x01;
-		private static final int Z_AXIS = 0x02;
 		Vector3 origin;
 		float maxSpeed;
 		Vector3 cameraSpeed;
@@ -296,17 +356,21 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 		 * Sets the origin for the world.
 		 */
 		public void setOrigin(Vector3 origin) {
-			//cancel the translation of current origin, and move to the new origin.
-			pcdMatrix.translate(this.origin);
-			this.origin = origin;
-			pcdMatrix.translate(this.origin.scale(-1f));
+			synchronized (mutex) {
+				//cancel the translation of current origin, and move to the new origin.
+				pcdMatrix.translate(this.origin);
+				this.origin = origin;
+				pcdMatrix.translate(this.origin.scale(-1f));
+			}
 		}
 
 		/**
 		 * Moves the camera on it's axes.
 		 */
 		public void translateCameraOnAxes(Vector3 delta) {
-			cameraMatrix.translate(delta);
+			synchronized (mutex) {
+				cameraMatrix.translate(delta);
+			}
 		}
 
 		/**
@@ -343,7 +407,9 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 		 * @param delta: the angle in degrees.
 		 */
 		public void rotateOnCameraX(float delta) {
-			cameraMatrix.rotateX(delta);
+			synchronized (mutex) {
+				cameraMatrix.rotateX(delta);
+			}
 		}
 
 		/**
@@ -352,7 +418,9 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 		 * @param delta: the angle in degrees.
 		 */
 		public void rotateOnCameraY(float delta) {
-			cameraMatrix.rotateY(delta);
+			synchronized (mutex) {
+				cameraMatrix.rotateY(delta);
+			}
 		}
 
 		/**
@@ -361,7 +429,9 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 		 * @param delta: the angle in degrees.
 		 */
 		public void rotateOnCameraZ(float delta) {
-			cameraMatrix.rotateZ(delta);
+			synchronized (mutex) {
+				cameraMatrix.rotateZ(delta);
+			}
 		}
 
 		/**
@@ -370,7 +440,7 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 		 * @param delta: Angle in degrees
 		 */
 		public void rotatePcdInPlaceOnCameraAxisX(float delta) {
-			rotatePcdInPlaceOnCameraAxis(delta, X_AXIS);
+			rotatePcdInPlaceOnCameraAxis(delta, ViewMatrices.X_AXIS);
 		}
 
 		/**
@@ -379,7 +449,7 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 		 * @param delta: Angle in degrees
 		 */
 		public void rotatePcdInPlaceOnCameraAxisY(float delta) {
-			rotatePcdInPlaceOnCameraAxis(delta, Y_AXIS);
+			rotatePcdInPlaceOnCameraAxis(delta, ViewMatrices.Y_AXIS);
 		}
 
 		/**
@@ -388,7 +458,7 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 		 * @param delta: Angle in degrees
 		 */
 		public void rotatePcdInPlaceOnCameraAxisZ(float delta) {
-			rotatePcdInPlaceOnCameraAxis(delta, Z_AXIS);
+			rotatePcdInPlaceOnCameraAxis(delta, ViewMatrices.Z_AXIS);
 		}
 
 		/**
@@ -398,41 +468,21 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 		 * @param AXIS   : The axis's code (X_AXIS, Y_AXIS or Z_AXIS).
 		 */
 		private void rotatePcdInPlaceOnCameraAxis(float delta, int AXIS) {
-			//calculate the axis of the camera, in pcd's frame.
-			ModelMatrix m_eye_pcd = eyeMatrix.mult(pcdMatrix); //represents: pcd_frame  -->  eye_frame
-			ModelMatrix m_eye_pcd_inverted = m_eye_pcd.getInvertedMat(); // represents:  eye_frame  -->  pcd_frame
-
-			Vector3 camera_x_in_pcd_frame = m_eye_pcd_inverted.mult(new Vector3(1, 0, 0));
-			Vector3 camera_y_in_pcd_frame = m_eye_pcd_inverted.mult(new Vector3(0, 1, 0));
-			Vector3 camera_z_in_pcd_frame = m_eye_pcd_inverted.mult(new Vector3(0, 0, 1));
-
-			Vector3 camera_0_in_pcd_frame = m_eye_pcd_inverted.mult(new Vector3(0, 0, 0));
-
-			Vector3 camera_xAxis_in_pcd_frame = camera_x_in_pcd_frame.subtract(camera_0_in_pcd_frame);
-			Vector3 camera_yAxis_in_pcd_frame = camera_y_in_pcd_frame.subtract(camera_0_in_pcd_frame);
-			Vector3 camera_zAxis_in_pcd_frame = camera_z_in_pcd_frame.subtract(camera_0_in_pcd_frame);
-
-			switch (AXIS) {
-				case X_AXIS:
-					pcdMatrix.rotate(delta, camera_xAxis_in_pcd_frame);
-					break;
-				case Y_AXIS:
-					pcdMatrix.rotate(delta, camera_yAxis_in_pcd_frame);
-					break;
-				case Z_AXIS:
-					pcdMatrix.rotate(delta, camera_zAxis_in_pcd_frame);
-					break;
+			//the GL thread updates the eye matrix in place, and draws with the pcd matrix, under the mutex.
+			synchronized (mutex) {
+				viewMatrices.rotateModelOnEyeAxis(delta, AXIS);
 			}
-
 		}
 
 		/**
 		 * Moves the camera and PCD to the origin.
 		 */
 		public void resetView() {
-			cameraMatrix.setIdentity();
-			pcdMatrix.setIdentity();
-			pcdMatrix.translate(origin.scale(-1));
+			synchronized (mutex) {
+				cameraMatrix.setIdentity();
+				pcdMatrix.setIdentity();
+				pcdMatrix.translate(origin.scale(-1));
+			}
 		}
 	}
 
@@ -443,18 +493,62 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 	public CogniPointCloud2DLayer(Context context, GraphName topicName) {
 		super(topicName, PointCloud2._TYPE);
 		mutex = new Object();
+		//Decoding is expensive, skip clouds that are already stale.
+		setLatestOnly(true);
 
 		drawListeners = new ArrayList<PcdDrawListener>();
 
-		eyeMatrix = new ModelMatrix();
-		cameraMatrix = new ModelMatrix();
+		viewMatrices = new ViewMatrices();
+		eyeMatrix = viewMatrices.getEyeMatrix();
+		cameraMatrix = viewMatrices.getCameraMatrix();
 		cameraMatrix.translate(0, 0, -10);
 
-		pcdMatrix = new ModelMatrix();
+		pcdMatrix = viewMatrices.getModelMatrix();
 		pcdController = new PointCloudController(MAX_SPEED_PER_FRAME);
 
 		pointCloudCenterOfGravity = new Vector3(0, 0, 0);
 
+		vertexBufferObject = new VertexBufferObject();
+		colorsBufferObject = new VertexBufferObject();
+		useVertexBufferObjects = false;
+
+		pointCloudDecoder = new ParallelPointCloud2Decoder();
+		pointCloudSums = new double[PointCloud2Decoder.SUMS_SIZE];
+		voxelGridFilter = new VoxelGridFilter(DEFAULT_VOXEL_LEAF_SIZE, DEFAULT_MAX_POINTS);
+		colorMap = ColorMap.GRAY;
+
+		mortonOrder = new MortonOrder();
+		pointBudget = new PointBudget(MIN_POINTS_BUDGET, MAX_POINTS_BUDGET, TARGET_FPS, FULL_DETAIL_DISTANCE);
+		levelOfDetail = false;
+		frontBufferOrdered = false;
+		lastFrameTimeNanos = 0;
+
+		frontGrid = new PointGrid();
+		backGrid = new PointGrid();
+		frustum = new Frustum();
+		projectionMatrix = new float[16];
+		modelViewScratch = new float[16];
+		rayOrigin = new float[3];
+		rayDirection = new float[3];
+		fullRange = new int[2];
+	}
+
+	@Override
+	public void init(NodeMainExecutor nodeMainExecutor) {
+		super.init(nodeMainExecutor);
+		//decode big clouds in chunks, on the node's thread pool.
+		pointCloudDecoder.setExecutorService(nodeMainExecutor.getScheduledExecutorService());
+	}
+
+	@Override
+	public void onSurfaceCreated(VisualizationView view, GL10 gl, EGLConfig config) {
+		super.onSurfaceCreated(view, gl, config);
+		//a new context - the old buffer objects are gone with the old one.
+		synchronized (mutex) {
+			vertexBufferObject.clearHandle();
+			colorsBufferObject.clearHandle();
+		}
+		useVertexBufferObjects = VertexBufferObject.isSupported(gl);
 	}
 
 	@Override
@@ -463,8 +557,15 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 		gl.glViewport(0, 0, width, height);
 		gl.glMatrixMode(GL10.GL_PROJECTION);
 		gl.glLoadIdentity();
-		GLU.gluPerspective(gl, 45.0f, (float) width / (float) height, 0.1f, 100.0f);
+		GLU.gluPerspective(gl, FIELD_OF_VIEW, (float) width / (float) height, Z_NEAR, Z_FAR);
 		gl.glMatrixMode(GL10.GL_MODELVIEW);
+
+		//keep a copy for culling and picking.
+		synchronized (mutex) {
+			Frustum.perspective(projectionMatrix, FIELD_OF_VIEW, (float) width / (float) height, Z_NEAR, Z_FAR);
+			viewportWidth = width;
+			viewportHeight = height;
+		}
 	}
 
 	/**
@@ -491,23 +592,90 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 
 	@Override
 	public void draw(VisualizationView view, GL10 gl) {
+		if (shutdown) {
+			deleteBufferObjects(gl);
+			return;
+		}
 
 		if (null != vertexFrontBuffer) {
 			synchronized (mutex) {
 				notifyDrawListeners();
 				setCamera(gl);
 
-				Vertices.drawPointsWithColors(gl, vertexFrontBuffer, colorsFrontBuffer, POINT_SIZE, pcdMatrix.getMat());
+				final int count = getDrawCount();
+				final int[] ranges;
+				final int numOfRanges;
+				if (frontGrid.isOrdered()) {
+					//the points are in grid cell order, draw only the cells in view.
+					viewMatrices.getModelView(modelViewScratch);
+					frustum.set(projectionMatrix, modelViewScratch);
+					numOfRanges = frontGrid.cull(frustum);
+					ranges = frontGrid.getRanges();
+				} else {
+					fullRange[0] = 0;
+					fullRange[1] = count;
+					numOfRanges = 1;
+					ranges = fullRange;
+				}
+
+				if (useVertexBufferObjects) {
+					//upload only if the front buffers were swapped since the last frame.
+					GL11 gl11 = (GL11) gl;
+					vertexBufferObject.update(gl11, vertexFrontBuffer);
+					colorsBufferObject.update(gl11, colorsFrontBuffer);
+					Vertices.drawPointsWithColors(gl11, vertexBufferObject, colorsBufferObject,
+							ranges, numOfRanges, POINT_SIZE, pcdMatrix.getMat());
+				} else {
+					Vertices.drawPointsWithColors(gl, vertexFrontBuffer, colorsFrontBuffer, ranges, numOfRanges,
+							POINT_SIZE, pcdMatrix.getMat());
+				}
 			}
 		}
 	}
 
+	private void deleteBufferObjects(GL10 gl) {
+		if (!useVertexBufferObjects) return;
+
+		synchronized (mutex) {
+			//deleting twice is harmless, the handles are cleared on the first delete.
+			GL11 gl11 = (GL11) gl;
+			vertexBufferObject.delete(gl11);
+			colorsBufferObject.delete(gl11);
+		}
+	}
+
 	private void notifyDrawListeners() {
 		if (drawListeners == null) return;
 
-		for (PcdDrawListener listener : drawListeners) {
-			listener.onPcdDraw();
+		//indexed, so drawing a frame doesn't allocate an iterator.
+		for (int i = 0; i < drawListeners.size(); i++) {
+			drawListeners.get(i).onPcdDraw();
+		}
+	}
+
+	/**
+	 * @return The number of front buffer points to draw on this frame. All of them, unless the front buffer
+	 * is ordered for level of detail.
+	 */
+	private int getDrawCount() {
+		final long now = System.nanoTime();
+		final long frameTime = lastFrameTimeNanos == 0 ? 0 : now - lastFrameTimeNanos;
+		lastFrameTimeNanos = now;
+		pointBudget.onFrame(frameTime, viewMatrices.updateLastMatrices());
+
+		final int numOfPoints = vertexFrontBuffer.remaining() / 3;
+		if (!frontBufferOrdered) {
+			return numOfPoints;
 		}
+		return pointBudget.getDrawCount(numOfPoints, getCameraDistance());
+	}
+
+	/**
+	 * @return The distance between the camera and the point cloud's center of gravity.
+	 */
+	private float getCameraDistance() {
+		final Vector3 center = pointCloudCenterOfGravity;
+		return viewMatrices.getDistance((float) center.getX(), (float) center.getY(), (float) center.getZ());
 	}
 
 	/**
@@ -517,16 +685,7 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 	private void setCamera(GL10 gl) {
 		gl.glMatrixMode(GL10.GL_MODELVIEW);     //Select The Modelview Matrix
 		gl.glLoadIdentity();
-		Vector3 lookAtPoint = cameraMatrix.getAxisZNormalized();/*Z axis of the "lookAt" is the place we should look*/
-
-		//add the movement of the camera, to get relative point and not absolute.
-		lookAtPoint = lookAtPoint.add(cameraMatrix.getPosition());
-
-		float[] scratch = new float[16];
-		Matrix.setLookAtM(scratch, 0, cameraMatrix.getX(), cameraMatrix.getY(), cameraMatrix.getZ(), /* look from camera XYZ */
-				(float) lookAtPoint.getX(), (float) lookAtPoint.getY(), (float) lookAtPoint.getZ(),
-				(float) cameraMatrix.getAxisYNormalized().getX(), (float) cameraMatrix.getAxisYNormalized().getY(), (float) cameraMatrix.getAxisYNormalized().getZ());
-		eyeMatrix = new ModelMatrix(scratch);
+		viewMatrices.updateEye();
 		gl.glMultMatrixf(eyeMatrix.getMat(), 0);
 	}
 
@@ -538,8 +697,9 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 	@Override
 	public void onStart(VisualizationView view, ConnectedNode connectedNode) {
 		super.onStart(view, connectedNode);
-		Subscriber<PointCloud2> subscriber = getSubscriber();
-		subscriber.addMessageListener(new MessageListener<PointCloud2>() {
+		//the buffer objects are recreated from the front buffers on the next frame.
+		shutdown = false;
+		addMessageListener(new MessageListener<PointCloud2>() {
 			@Override
 			public void onNewMessage(PointCloud2 pointCloud) {
 				//Keep the PCD's frame for any case.
@@ -553,84 +713,162 @@ public class CogniPointCloud2DLayer extends SubscriberLayer<PointCloud2> impleme
 		gesturesController = new GesturesController(view);
 	}
 
+	@Override
+	public void onShutdown(VisualizationView view, Node node) {
+		//the GL thread deletes the buffer objects, the node's thread has no context.
+		shutdown = true;
+		super.onShutdown(view, node);
+	}
+
 
 	private void updateVertexBuffer(final PointCloud2 pointCloud) {
-		// We expect an unordered, XYZ point cloud of 32-bit floats (i.e. the result of pcl::toROSMsg()).
-		Preconditions.checkArgument(pointCloud.getHeight() == 1);
-		Preconditions.checkArgument(pointCloud.getFields().get(0).getDatatype() == PointField.FLOAT32);
-		Preconditions.checkArgument(pointCloud.getFields().get(1).getDatatype() == PointField.FLOAT32);
-		Preconditions.checkArgument(pointCloud.getFields().get(2).getDatatype() == PointField.FLOAT32);
+		final int numOfDecodedPoints = PointCloud2Decoder.getNumOfPoints(pointCloud);
+		if (vertexBackBuffer == null || vertexBackBuffer.capacity() < numOfDecodedPoints * 3 /* x, y, z*/) {
+			vertexBackBuffer = Vertices.allocateBuffer(numOfDecodedPoints * 3);
+		}
 
-		final int numOfPoints = (pointCloud.getRowStep() / pointCloud.getPointStep());
-		final int vertexSize = numOfPoints * 3 /* x, y, z*/;
-		if (vertexBackBuffer == null || vertexBackBuffer.capacity() < vertexSize) {
-			vertexBackBuffer = Vertices.allocateBuffer(vertexSize);
+		//intensities are only used here, so they don't need a direct buffer.
+		if (intensitiesBuffer == null || intensitiesBuffer.capacity() < numOfDecodedPoints) {
+			intensitiesBuffer = FloatBuffer.allocate(numOfDecodedPoints);
 		}
+		//the back buffers are reused with the limits of an earlier cloud, and everything below writes by index.
 		vertexBackBuffer.clear();
+		intensitiesBuffer.clear();
+
+		final boolean debug = Log.isLoggable(TAG, Log.DEBUG);
+		final long startTime = debug ? System.currentTimeMillis() : 0;
 
-		final int colorSize = numOfPoints * 4 /* r,g,b,a */;
+		pointCloudDecoder.decode(pointCloud, vertexBackBuffer, intensitiesBuffer, pointCloudSums);
+
+		//the center of gravity is taken from all the decoded points, only the drawing is downsampled.
+		final int numOfPoints = voxelGridFilter.filter(vertexBackBuffer, intensitiesBuffer, numOfDecodedPoints);
+		final boolean ordered = levelOfDetail;
+		if (ordered) {
+			mortonOrder.sort(vertexBackBuffer, intensitiesBuffer, numOfPoints);
+		}
+		//without level of detail the points can be moved into grid cell order, for culling.
+		backGrid.build(vertexBackBuffer, intensitiesBuffer, numOfPoints, !ordered);
+		final int vertexSize = numOfPoints * 3;
+
+		final int colorSize = numOfPoints * 4 /* r,g,b,a bytes */;
 		if (colorsBackBuffer == null || colorsBackBuffer.capacity() < colorSize) {
-			colorsBackBuffer = Vertices.allocateBuffer(colorSize);
+			colorsBackBuffer = Vertices.allocateColorBuffer(numOfPoints);
 		}
+		colorsBackBuffer.clear();
+		colorMap.map(intensitiesBuffer, numOfPoints, MIN_INTENSITY, MAX_INTENSITY, colorsBackBuffer);
 
-		Vector3 centerOfGravity = new Vector3(0, 0, 0);
-		final ChannelBuffer buffer = pointCloud.getData();
-		long startTime = System.currentTimeMillis();
-		Log.i("PointCloud", "Starting PointCloud processing...");
+		if (debug) {
+			Log.d(TAG, "Processing " + numOfDecodedPoints + " points took "
+					+ (System.currentTimeMillis() - startTime) + "ms");
+		}
 
-		while (buffer.readable()) {
-			int pointBegin = buffer.readerIndex();
+		vertexBackBuffer.position(0);
+		vertexBackBuffer.limit(vertexSize);
+		colorsBackBuffer.position(0);
+		colorsBackBuffer.limit(colorSize);
+
+		final double count = pointCloudSums[PointCloud2Decoder.SUM_COUNT];
+		if (count > 0) {
+			this.pointCloudCenterOfGravity = new Vector3(
+					pointCloudSums[PointCloud2Decoder.SUM_X] / count,
+					pointCloudSums[PointCloud2Decoder.SUM_Y] / count,
+					pointCloudSums[PointCloud2Decoder.SUM_Z] / count);
+		}
 
-			float x = buffer.readFloat();
-			vertexBackBuffer.put(x);
+		synchronized (mutex) {
+			//the origin moves with the cloud that is swapped in.
+			pcdController.setOrigin(pointCloudCenterOfGravity);
 
-			float y = buffer.readFloat();
-			vertexBackBuffer.put(y);
+			FloatBuffer tmpVertice = vertexFrontBuffer;
+			vertexFrontBuffer = vertexBackBuffer;
+			vertexBackBuffer = tmpVertice;
 
-			float z = buffer.readFloat();
-			vertexBackBuffer.put(z);
+			ByteBuffer tmpColors = colorsFrontBuffer;
+			colorsFrontBuffer = colorsBackBuffer;
+			colorsBackBuffer = tmpColors;
 
-			//add the relative part of this point to the center of gravity
-			centerOfGravity = centerOfGravity.add(new Vector3(x / numOfPoints, y / numOfPoints, z / numOfPoints));
+			frontBufferOrdered = ordered;
 
+			PointGrid tmpGrid = frontGrid;
+			frontGrid = backGrid;
+			backGrid = tmpGrid;
 
-			//discard index
-			buffer.readFloat();
+			vertexBufferObject.markDirty();
+			colorsBufferObject.markDirty();
+		}
+	}
 
-			// intensities
-			float intensity = buffer.readFloat();
-			intensity = (intensity - MIN_INTENSITY) / (MAX_INTENSITY - MIN_INTENSITY);
-			intensity = Math.min(Math.max(intensity, 0f), 1f);
-			colorsBackBuffer.put(intensity); //r
-			colorsBackBuffer.put(intensity); //g
-			colorsBackBuffer.put(intensity); //b
-			colorsBackBuffer.put(1f); //a
+	/**
+	 * Sets the edge length of the voxels used for downsampling, in meters. Every voxel keeps a single point.
+	 * 0 disables downsampling. Takes effect from the next point cloud.
+	 */
+	public void setVoxelLeafSize(float leafSize) {
+		voxelGridFilter.setLeafSize(leafSize);
+	}
 
-			//discard leftovers
-			int totalRead = buffer.readerIndex() - pointBegin;
-			buffer.readBytes(pointCloud.getPointStep() - totalRead);
-		}
-		long endTime = System.currentTimeMillis();
-		long totalTime = endTime - startTime;
-		Log.i("Cogni", "Time PointCloud processing took: " + totalTime + "ms");
+	public float getVoxelLeafSize() {
+		return voxelGridFilter.getLeafSize();
+	}
 
-		vertexBackBuffer.position(0);
-		colorsBackBuffer.position(0);
+	/**
+	 * Sets the maximum number of points kept by downsampling. Clouds which occupy more voxels than that
+	 * are downsampled with a bigger leaf size.
+	 */
+	public void setMaxPoints(int maxPoints) {
+		voxelGridFilter.setMaxPoints(maxPoints);
+	}
 
+	/**
+	 * Finds the point drawn under a screen point, e.g. a tap, as of the last drawn frame.
+	 *
+	 * @param result Receives x, y, z of the point, in the point cloud's frame.
+	 * @return false if there is no point near the screen point.
+	 */
+	public boolean pickPoint(float screenX, float screenY, float[] result) {
+		synchronized (mutex) {
+			if (vertexFrontBuffer == null) {
+				return false;
+			}
+			viewMatrices.getLastModelView(modelViewScratch);
+			frustum.set(projectionMatrix, modelViewScratch);
+			if (!frustum.getRay(screenX, screenY, viewportWidth, viewportHeight, rayOrigin, rayDirection)) {
+				return false;
+			}
+			final int point = frontGrid.pick(rayOrigin, rayDirection, PICK_MAX_TAN_ANGLE);
+			if (point < 0) {
+				return false;
+			}
+			result[0] = vertexFrontBuffer.get(point * 3);
+			result[1] = vertexFrontBuffer.get(point * 3 + 1);
+			result[2] = vertexFrontBuffer.get(point * 3 + 2);
+			return true;
+		}
+	}
 
-		this.pointCloudCenterOfGravity = centerOfGravity;
-		pcdController.setOrigin(pointCloudCenterOfGravity);
+	/**
+	 * Enables adaptive level of detail: while the view is changing, only as many points as keep the frame
+	 * rate smooth are drawn, fewer when the cloud is far away. The whole cloud is drawn once the view stops
+	 * changing. Takes effect from the next point cloud, which is reordered so any prefix of it is a uniform
+	 * subsample.
+	 */
+	public void setLevelOfDetail(boolean levelOfDetail) {
+		this.levelOfDetail = levelOfDetail;
+	}
 
+	public boolean isLevelOfDetail() {
+		return levelOfDetail;
+	}
 
-		synchronized (mutex) {
-			FloatBuffer tmpVertice = vertexFrontBuffer;
-			vertexFrontBuffer = vertexBackBuffer;
-			vertexBackBuffer = tmpVertice;
+	/**
+	 * Sets the mapping from intensity to color. Takes effect from the next point cloud.
+	 */
+	public void setColorMap(ColorMap colorMap) {
+		Preconditions.checkNotNull(colorMap);
+		this.colorMap = colorMap;
+	}
 
-			FloatBuffer tmpColors = colorsFrontBuffer;
-			colorsFrontBuffer = colorsBackBuffer;
-			colorsBackBuffer = tmpColors;
-		}
+	public ColorMap getColorMap() {
+		return colorMap;
 	}
 
 	/**
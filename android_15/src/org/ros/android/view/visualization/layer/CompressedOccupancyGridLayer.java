@@ -16,26 +16,25 @@
 
 package org.ros.android.view.visualization.layer;
 
-import com.google.common.base.Preconditions;
-
-import org.ros.android.view.visualization.VisualizationView;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.ros.android.view.visualization.TextureBitmap;
-import org.ros.message.MessageListener;
+import org.ros.android.view.visualization.map_utils.CellColorMap;
 import org.ros.namespace.GraphName;
-import org.ros.node.ConnectedNode;
-import org.ros.rosjava_geometry.Transform;
-
-import javax.microedition.khronos.opengles.GL10;
 
 /**
+ * Draws maps relayed by the compressed map transport, which carry a PNG image
+ * of the map instead of its cells.
+ * <p/>
+ * The image is decoded into a reused bitmap, converted back to cells, and
+ * drawn like any other map by {@link OccupancyGridLayer}, so maps of any size
+ * are split into tiles.
+ * 
  * @author damonkohler@google.com (Damon Kohler)
  * @author moesenle@google.com (Lorenz Moesenlechner)
  */
-public class CompressedOccupancyGridLayer extends SubscriberLayer<nav_msgs.OccupancyGrid> implements
-    TfLayer {
+public class CompressedOccupancyGridLayer extends OccupancyGridLayer {
 
   /**
    * Color of occupied cells in the map.
@@ -52,68 +51,105 @@ public class CompressedOccupancyGridLayer extends SubscriberLayer<nav_msgs.Occup
    */
   private static final int COLOR_UNKNOWN = 0xff000000;
 
-  private final TextureBitmap textureBitmap;
+  /**
+   * Cells by the gray value of their pixel. The transport writes the cells as
+   * gray values, so unknown (-1) is white and free (0) is black. Everything in
+   * between is occupied, including the gray values blended by scaling.
+   */
+  private static final byte[] GRAY_TO_CELL = new byte[256];
+
+  static {
+    for (int i = 0; i < GRAY_TO_CELL.length; i++) {
+      GRAY_TO_CELL[i] = (byte) CellColorMap.MAX_COST;
+    }
+    GRAY_TO_CELL[0xff] = CellColorMap.UNKNOWN;
+    GRAY_TO_CELL[0] = 0;
+  }
+
+  private final BitmapFactory.Options decodeOptions;
 
-  private boolean ready;
-  private GraphName frame;
+  /**
+   * The last decoded map, which the next map is decoded into if it has the
+   * same size.
+   */
+  private Bitmap bitmap;
+  private int[] row;
+  private byte[] compressedData;
 
   public CompressedOccupancyGridLayer(String topic) {
     this(GraphName.of(topic));
   }
 
   public CompressedOccupancyGridLayer(GraphName topic) {
-    super(topic, nav_msgs.OccupancyGrid._TYPE);
-    textureBitmap = new TextureBitmap();
-    ready = false;
+    super(topic, null);
+    decodeOptions = new BitmapFactory.Options();
+    decodeOptions.inMutable = true;
+    decodeOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    row = new int[0];
+    compressedData = new byte[0];
+    setColorMap(CellColorMap.threeColors(COLOR_FREE, COLOR_OCCUPIED, COLOR_UNKNOWN, 1));
   }
 
   @Override
-  public void draw(VisualizationView view, GL10 gl) {
-    if (ready) {
-      textureBitmap.draw(view, gl);
+  protected int readCells(nav_msgs.OccupancyGrid message, byte[] cells) {
+    if (!decode(message.getData())) {
+      // Maps that can't be decoded are drawn as unknown.
+      return 0;
     }
-  }
-
-  @Override
-  public GraphName getFrame() {
-    return frame;
-  }
-
-  @Override
-  public void onStart(VisualizationView view, ConnectedNode connectedNode) {
-    super.onStart(view, connectedNode);
-    getSubscriber().addMessageListener(new MessageListener<nav_msgs.OccupancyGrid>() {
-      @Override
-      public void onNewMessage(nav_msgs.OccupancyGrid message) {
-        update(message);
+    final int mapWidth = message.getInfo().getWidth();
+    final int width = Math.min(bitmap.getWidth(), mapWidth);
+    final int height = Math.min(bitmap.getHeight(), message.getInfo().getHeight());
+    if (row.length < width) {
+      row = new int[width];
+    }
+    for (int y = 0; y < height; y++) {
+      bitmap.getPixels(row, 0, width, 0, y, width, 1);
+      final int rowStart = y * mapWidth;
+      for (int x = 0; x < width; x++) {
+        // Pixels are ARGB packed ints, and gray, so any channel will do.
+        cells[rowStart + x] = GRAY_TO_CELL[row[x] & 0xff];
       }
-    });
+      for (int x = width; x < mapWidth; x++) {
+        cells[rowStart + x] = CellColorMap.UNKNOWN;
+      }
+    }
+    return height * mapWidth;
   }
 
-  void update(nav_msgs.OccupancyGrid message) {
-    ChannelBuffer buffer = message.getData();
-    Bitmap bitmap =
-        BitmapFactory.decodeByteArray(buffer.array(), buffer.arrayOffset(), buffer.readableBytes());
-    int stride = bitmap.getWidth();
-    int height = bitmap.getHeight();
-    Preconditions.checkArgument(stride <= 1024);
-    Preconditions.checkArgument(height <= 1024);
-    int[] pixels = new int[stride * height];
-    bitmap.getPixels(pixels, 0, stride, 0, 0, stride, height);
-    for (int i = 0; i < pixels.length; i++) {
-      // Pixels are ARGB packed ints.
-      if (pixels[i] == 0xffffffff) {
-        pixels[i] = COLOR_UNKNOWN;
-      } else if (pixels[i] == 0xff000000) {
-        pixels[i] = COLOR_FREE;
-      } else {
-        pixels[i] = COLOR_OCCUPIED;
+  /**
+   * Decodes the image into {@link #bitmap}, reusing it if possible.
+   * 
+   * @return {@code true} on success
+   */
+  private boolean decode(ChannelBuffer buffer) {
+    final int length = buffer.readableBytes();
+    final byte[] data;
+    final int offset;
+    if (buffer.hasArray()) {
+      data = buffer.array();
+      offset = buffer.arrayOffset() + buffer.readerIndex();
+    } else {
+      if (compressedData.length < length) {
+        compressedData = new byte[length];
       }
+      buffer.getBytes(buffer.readerIndex(), compressedData, 0, length);
+      data = compressedData;
+      offset = 0;
+    }
+    decodeOptions.inBitmap = bitmap;
+    Bitmap decoded;
+    try {
+      decoded = BitmapFactory.decodeByteArray(data, offset, length, decodeOptions);
+    } catch (IllegalArgumentException e) {
+      // The map's size changed, so the bitmap can't be reused.
+      decodeOptions.inBitmap = null;
+      decoded = BitmapFactory.decodeByteArray(data, offset, length, decodeOptions);
+    }
+    decodeOptions.inBitmap = null;
+    if (decoded == null) {
+      return false;
     }
-    float resolution = message.getInfo().getResolution();
-    Transform origin = Transform.fromPoseMessage(message.getInfo().getOrigin());
-    textureBitmap.updateFromPixelArray(pixels, stride, resolution, origin, COLOR_UNKNOWN);
-    frame = GraphName.of(message.getHeader().getFrameId());
-    ready = true;
+    bitmap = decoded;
+    return true;
   }
 }
@@ -52,6 +52,7 @@ public class GridCellsLayer extends SubscriberLayer<nav_msgs.GridCells> implemen
     frame = null;
     lock = new ReentrantLock();
     ready = false;
+    setLatestOnly(true);
   }
 
   @Override
@@ -83,16 +84,17 @@ public class GridCellsLayer extends SubscriberLayer<nav_msgs.GridCells> implemen
   @Override
   public void onStart(final VisualizationView view, ConnectedNode connectedNode) {
     super.onStart(view, connectedNode);
-    getSubscriber().addMessageListener(new MessageListener<nav_msgs.GridCells>() {
+    addMessageListener(new MessageListener<nav_msgs.GridCells>() {
       @Override
       public void onNewMessage(nav_msgs.GridCells data) {
         frame = GraphName.of(data.getHeader().getFrameId());
         if (view.getFrameTransformTree().lookUp(frame) != null) {
-          if (lock.tryLock()) {
-            message = data;
-            ready = true;
-            lock.unlock();
-          }
+          // Superseded messages are already dropped before they get here, so
+          // it is fine to wait for the renderer.
+          lock.lock();
+          message = data;
+          ready = true;
+          lock.unlock();
         }
       }
     });
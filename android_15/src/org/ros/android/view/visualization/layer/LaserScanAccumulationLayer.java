@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.visualization.layer;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.android.view.visualization.Color;
+import org.ros.android.view.visualization.Vertices;
+import org.ros.android.view.visualization.VisualizationView;
+import org.ros.android.view.visualization.scan_utils.ScanGeometry;
+import org.ros.message.MessageListener;
+import org.ros.message.Time;
+import org.ros.namespace.GraphName;
+import org.ros.node.ConnectedNode;
+import org.ros.rosjava_geometry.FrameTransform;
+import org.ros.rosjava_geometry.FrameTransformTree;
+import org.ros.rosjava_geometry.Transform;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import sensor_msgs.LaserScan;
+
+/**
+ * Draws the laser scans of the last few seconds in a fixed frame, e.g. to
+ * spot transient obstacles. Older scans fade out.
+ * <p/>
+ * Each scan is transformed into the fixed frame once, at its time stamp, and
+ * stored in a ring of slots in one preallocated vertex buffer. The rest of a
+ * slot repeats the scan's last point, fully transparent, so the scans which
+ * haven't expired are drawn in one batch: one call, or two when they wrap
+ * around the end of the ring. Memory doesn't depend on the scan rate: scans
+ * are spread over the retained time, and ones with more beams than a slot
+ * holds are thinned out. Scans fade and expire by the node's current time, so
+ * they disappear even when no new scans arrive.
+ */
+public class LaserScanAccumulationLayer extends SubscriberLayer<sensor_msgs.LaserScan> implements
+    TfLayer {
+
+  private static final Color COLOR = Color.fromHexAndAlpha("377dfa", 0.6f);
+  private static final float POINT_SIZE = 4.f;
+
+  public static final int DEFAULT_CAPACITY = 100;
+  public static final int DEFAULT_MAXIMUM_POINTS_PER_SCAN = 1024;
+  public static final double DEFAULT_MAXIMUM_AGE = 10.0;
+
+  /**
+   * Bounds the walk up the frame tree, in case it has a cycle.
+   */
+  private static final int MAXIMUM_FRAME_DEPTH = 32;
+
+  /**
+   * How often the scans' alpha is updated while drawing, in seconds.
+   */
+  private static final double FADE_PERIOD = 0.1;
+
+  private final GraphName fixedFrame;
+  private final int capacity;
+  private final int maximumPointsPerScan;
+  private final double maximumAge;
+  private final Object mutex;
+  private final ScanGeometry scanGeometry;
+  private final float[] points;
+
+  private final FloatBuffer vertexBuffer;
+  private final ByteBuffer colorBuffer;
+  private final IntBuffer colors;
+
+  /**
+   * Time stamps in seconds and number of points of the scans in the slots.
+   */
+  private final double[] stamps;
+  private final int[] counts;
+  private int numSlots;
+  private int nextSlot;
+  /**
+   * (first, count) pairs of the points of the slots that haven't expired yet.
+   * The slots are contiguous in the ring, so there are two pairs at most.
+   */
+  private final int[] ranges;
+  private int numRanges;
+  /**
+   * The current time of the last fade, or NaN if the slots changed since.
+   */
+  private double fadeTime;
+  private FrameTransformTree frameTransformTree;
+  private ConnectedNode connectedNode;
+
+  public LaserScanAccumulationLayer(String topicName, String fixedFrame) {
+    this(GraphName.of(topicName), GraphName.of(fixedFrame));
+  }
+
+  public LaserScanAccumulationLayer(GraphName topicName, GraphName fixedFrame) {
+    this(topicName, fixedFrame, DEFAULT_CAPACITY, DEFAULT_MAXIMUM_POINTS_PER_SCAN,
+        DEFAULT_MAXIMUM_AGE);
+  }
+
+  /**
+   * @param fixedFrame
+   *          the frame that scans are accumulated in, e.g. "map"
+   * @param capacity
+   *          the number of scans retained at most
+   * @param maximumPointsPerScan
+   *          the number of points retained per scan at most
+   * @param maximumAge
+   *          how many seconds scans are retained for
+   */
+  public LaserScanAccumulationLayer(GraphName topicName, GraphName fixedFrame, int capacity,
+      int maximumPointsPerScan, double maximumAge) {
+    super(topicName, sensor_msgs.LaserScan._TYPE);
+    Preconditions.checkArgument(capacity > 0);
+    Preconditions.checkArgument(maximumPointsPerScan > 0);
+    Preconditions.checkArgument(maximumAge > 0);
+    this.fixedFrame = fixedFrame;
+    this.capacity = capacity;
+    this.maximumPointsPerScan = maximumPointsPerScan;
+    this.maximumAge = maximumAge;
+    mutex = new Object();
+    scanGeometry = new ScanGeometry();
+    points = new float[maximumPointsPerScan * 3];
+    vertexBuffer = Vertices.allocateBuffer(capacity * maximumPointsPerScan * 3);
+    colorBuffer = Vertices.allocateColorBuffer(capacity * maximumPointsPerScan);
+    colors = colorBuffer.asIntBuffer();
+    stamps = new double[capacity];
+    counts = new int[capacity];
+    ranges = new int[4];
+    fadeTime = Double.NaN;
+  }
+
+  @Override
+  public void draw(VisualizationView view, GL10 gl) {
+    if (connectedNode == null) {
+      return;
+    }
+    final double now = connectedNode.getCurrentTime().toSeconds();
+    synchronized (mutex) {
+      if (numSlots == 0) {
+        return;
+      }
+      if (Double.isNaN(fadeTime) || Math.abs(now - fadeTime) >= FADE_PERIOD) {
+        fade(now);
+      }
+      if (numRanges == 0) {
+        return;
+      }
+      vertexBuffer.clear();
+      colorBuffer.position(0);
+      Vertices.drawPointsWithColors(gl, vertexBuffer, colorBuffer, ranges, numRanges, POINT_SIZE,
+          null);
+    }
+  }
+
+  @Override
+  public void onStart(VisualizationView view, ConnectedNode connectedNode) {
+    super.onStart(view, connectedNode);
+    this.connectedNode = connectedNode;
+    frameTransformTree = view.getFrameTransformTree();
+    addMessageListener(new MessageListener<LaserScan>() {
+      @Override
+      public void onNewMessage(LaserScan laserScan) {
+        accumulate(laserScan);
+      }
+    });
+  }
+
+  /**
+   * Forgets all scans.
+   */
+  public void clear() {
+    synchronized (mutex) {
+      numSlots = 0;
+      nextSlot = 0;
+      numRanges = 0;
+      fadeTime = Double.NaN;
+    }
+  }
+
+  private void accumulate(LaserScan laserScan) {
+    final Time time = laserScan.getHeader().getStamp();
+    final double stamp = time.toSeconds();
+    synchronized (mutex) {
+      if (numSlots > 0) {
+        final double newestStamp = stamps[(nextSlot + capacity - 1) % capacity];
+        if (stamp < newestStamp) {
+          // Time went backwards, e.g. a bag was restarted.
+          clear();
+        } else if (stamp - newestStamp < maximumAge / capacity) {
+          // Spread the slots over the retained time.
+          return;
+        }
+      }
+    }
+    final Transform transform =
+        transform(GraphName.of(laserScan.getHeader().getFrameId()), fixedFrame, time);
+    if (transform == null) {
+      return;
+    }
+    final float[] ranges = laserScan.getRanges();
+    final int stride =
+        Math.max(1, (ranges.length + maximumPointsPerScan - 1) / maximumPointsPerScan);
+    scanGeometry.update(laserScan.getAngleMin(), laserScan.getAngleIncrement(), ranges.length,
+        stride);
+    final int numPoints =
+        scanGeometry.project(ranges, laserScan.getRangeMin(), laserScan.getRangeMax(), points, 0);
+    final double[] m = transform.toMatrix();
+    for (int i = 0; i < numPoints * 3; i += 3) {
+      final float x = points[i];
+      final float y = points[i + 1];
+      points[i] = (float) (m[0] * x + m[4] * y + m[12]);
+      points[i + 1] = (float) (m[1] * x + m[5] * y + m[13]);
+      points[i + 2] = (float) (m[2] * x + m[6] * y + m[14]);
+    }
+    synchronized (mutex) {
+      final int slot = nextSlot;
+      nextSlot = (nextSlot + 1) % capacity;
+      numSlots = Math.max(numSlots, slot + 1);
+      vertexBuffer.clear();
+      vertexBuffer.position(slot * maximumPointsPerScan * 3);
+      vertexBuffer.put(points, 0, numPoints * 3);
+      // Pad the slot with transparent copies of the last point (or of the
+      // sensor's position), which don't show and don't cover anything.
+      final float padX = numPoints > 0 ? points[numPoints * 3 - 3] : (float) m[12];
+      final float padY = numPoints > 0 ? points[numPoints * 3 - 2] : (float) m[13];
+      final float padZ = numPoints > 0 ? points[numPoints * 3 - 1] : (float) m[14];
+      colors.position(slot * maximumPointsPerScan + numPoints);
+      for (int i = numPoints; i < maximumPointsPerScan; i++) {
+        vertexBuffer.put(padX);
+        vertexBuffer.put(padY);
+        vertexBuffer.put(padZ);
+        colors.put(0);
+      }
+      stamps[slot] = stamp;
+      counts[slot] = numPoints;
+      // Colored on the next draw.
+      fadeTime = Double.NaN;
+    }
+  }
+
+  /**
+   * Sets the alpha of every scan by its age at the given time, and collects
+   * the ranges of the scans which haven't expired.
+   */
+  private void fade(double now) {
+    // The slots are stamped in ring order, so the expired ones are the oldest.
+    final int oldestSlot = numSlots < capacity ? 0 : nextSlot;
+    int firstLiveSlot = -1;
+    for (int i = 0; i < numSlots; i++) {
+      final int slot = (oldestSlot + i) % capacity;
+      // Scans stamped ahead of the clock, e.g. from another host, are new.
+      final double age = Math.max(0, now - stamps[slot]);
+      if (age > maximumAge) {
+        continue;
+      }
+      if (firstLiveSlot < 0) {
+        firstLiveSlot = slot;
+      }
+      final int color = toRgba(COLOR.getAlpha() * (float) (1 - age / maximumAge));
+      colors.position(slot * maximumPointsPerScan);
+      for (int j = 0; j < counts[slot]; j++) {
+        colors.put(color);
+      }
+    }
+    numRanges = 0;
+    if (firstLiveSlot >= 0) {
+      // From the first live slot up to the newest one, nextSlot - 1.
+      final int endSlot = nextSlot == 0 ? capacity : nextSlot;
+      if (firstLiveSlot < endSlot) {
+        addRange(firstLiveSlot, endSlot);
+      } else {
+        addRange(firstLiveSlot, capacity);
+        addRange(0, endSlot);
+      }
+    }
+    fadeTime = now;
+  }
+
+  private void addRange(int firstSlot, int endSlot) {
+    ranges[numRanges * 2] = firstSlot * maximumPointsPerScan;
+    ranges[numRanges * 2 + 1] = (endSlot - firstSlot) * maximumPointsPerScan;
+    numRanges++;
+  }
+
+  /**
+   * @return {@link #COLOR} with the given alpha, as the int whose bytes are
+   *         r, g, b, a in memory
+   */
+  private static int toRgba(float alpha) {
+    final int r = Math.round(COLOR.getRed() * 255);
+    final int g = Math.round(COLOR.getGreen() * 255);
+    final int b = Math.round(COLOR.getBlue() * 255);
+    final int a = Math.round(alpha * 255);
+    if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+      return a << 24 | b << 16 | g << 8 | r;
+    }
+    return r << 24 | g << 16 | b << 8 | a;
+  }
+
+  /**
+   * @return the {@link Transform} from {@code source} to {@code target} at
+   *         {@code time}, or {@code null} if the frames aren't connected
+   */
+  private Transform transform(GraphName source, GraphName target, Time time) {
+    // The transforms from source to each of its ancestors.
+    final Map<GraphName, Transform> sourceAncestors = new HashMap<GraphName, Transform>();
+    Transform sourceToFrame = Transform.identity();
+    GraphName frame = source;
+    for (int depth = 0; frame != null && depth < MAXIMUM_FRAME_DEPTH; depth++) {
+      sourceAncestors.put(frame, sourceToFrame);
+      final FrameTransform frameTransform = frameTransformTree.get(frame, time);
+      if (frameTransform == null) {
+        break;
+      }
+      sourceToFrame = frameTransform.getTransform().multiply(sourceToFrame);
+      frame = frameTransform.getTargetFrame();
+    }
+    // Up from target to the first common ancestor.
+    Transform targetToFrame = Transform.identity();
+    frame = target;
+    for (int depth = 0; frame != null && depth < MAXIMUM_FRAME_DEPTH; depth++) {
+      final Transform common = sourceAncestors.get(frame);
+      if (common != null) {
+        return targetToFrame.invert().multiply(common);
+      }
+      final FrameTransform frameTransform = frameTransformTree.get(frame, time);
+      if (frameTransform == null) {
+        break;
+      }
+      targetToFrame = frameTransform.getTransform().multiply(targetToFrame);
+      frame = frameTransform.getTargetFrame();
+    }
+    return null;
+  }
+
+  @Override
+  public GraphName getFrame() {
+    return fixedFrame;
+  }
+}
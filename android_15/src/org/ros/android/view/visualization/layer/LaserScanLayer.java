@@ -19,10 +19,12 @@ package org.ros.android.view.visualization.layer;
 import org.ros.android.view.visualization.Color;
 import org.ros.android.view.visualization.Vertices;
 import org.ros.android.view.visualization.VisualizationView;
+import org.ros.android.view.visualization.XYOrthographicCamera;
+import org.ros.android.view.visualization.scan_utils.ScanDecimator;
+import org.ros.android.view.visualization.scan_utils.ScanGeometry;
 import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
-import org.ros.node.topic.Subscriber;
 
 import java.nio.FloatBuffer;
 
@@ -32,6 +34,11 @@ import sensor_msgs.LaserScan;
 
 /**
  * A {@link SubscriberLayer} that visualizes sensor_msgs/LaserScan messages.
+ * <p/>
+ * Scans are thinned out so that their points are a few pixels apart at the
+ * current zoom, see {@link ScanDecimator}. Scans are thinned out on the
+ * layer's worker thread, so the GL thread only waits for buffers to be
+ * swapped.
  * 
  * @author munjaldesai@google.com (Munjal Desai)
  * @author damonkohler@google.com (Damon Kohler)
@@ -41,13 +48,44 @@ public class LaserScanLayer extends SubscriberLayer<sensor_msgs.LaserScan> imple
   private static final Color FREE_SPACE_COLOR = Color.fromHexAndAlpha("377dfa", 0.1f);
   private static final Color OCCUPIED_SPACE_COLOR = Color.fromHexAndAlpha("377dfa", 0.3f);
   private static final float LASER_SCAN_POINT_SIZE = 10.f;
-  private static final int LASER_SCAN_STRIDE = 15;
+
+  /**
+   * Default distance in pixels between consecutive points of the scan.
+   */
+  private static final float DEFAULT_MINIMUM_POINT_DISTANCE = 5.f;
+
+  /**
+   * Distance in pixels by which decimation may move the outline of the scan.
+   */
+  private static final float OUTLINE_TOLERANCE = 0.5f;
 
   private final Object mutex;
+  private final ScanGeometry scanGeometry;
+  private final ScanDecimator scanDecimator;
+  private final Runnable decimateTask;
 
   private GraphName frame;
-  private FloatBuffer vertexFrontBuffer;
-  private FloatBuffer vertexBackBuffer;
+  private volatile float minimumPointDistance;
+
+  /**
+   * The zoom step that the scan is thinned out for. Set by the GL thread.
+   */
+  private volatile int zoomStep;
+
+  /**
+   * The projected points of the last scan, of which {@link #numPoints} are
+   * valid. Only used on the worker thread.
+   */
+  private float[] points;
+  private int numPoints;
+  private float[] vertices;
+
+  /**
+   * The thinned out scan that is drawn, and the one that the next scan is
+   * written to. They are swapped with {@link #mutex} held.
+   */
+  private FloatBuffer vertexBuffer;
+  private FloatBuffer nextVertexBuffer;
 
   public LaserScanLayer(String topicName) {
     this(GraphName.of(topicName));
@@ -56,16 +94,47 @@ public class LaserScanLayer extends SubscriberLayer<sensor_msgs.LaserScan> imple
   public LaserScanLayer(GraphName topicName) {
     super(topicName, sensor_msgs.LaserScan._TYPE);
     mutex = new Object();
+    scanGeometry = new ScanGeometry();
+    scanDecimator = new ScanDecimator();
+    decimateTask = new Runnable() {
+      @Override
+      public void run() {
+        decimate();
+      }
+    };
+    minimumPointDistance = DEFAULT_MINIMUM_POINT_DISTANCE;
+    zoomStep = XYOrthographicCamera.NO_ZOOM_STEP;
+    points = new float[0];
+    vertices = new float[0];
+    setLatestOnly(true);
+  }
+
+  /**
+   * Sets the distance in pixels that consecutive points of the scan are kept
+   * apart, apart from the points needed to keep the scan's shape.
+   */
+  public void setMinimumPointDistance(float minimumPointDistance) {
+    this.minimumPointDistance = minimumPointDistance;
+    executeAfterMessages(decimateTask);
+  }
+
+  public float getMinimumPointDistance() {
+    return minimumPointDistance;
   }
 
   @Override
   public void draw(VisualizationView view, GL10 gl) {
-    if (vertexFrontBuffer != null) {
-      synchronized (mutex) {
-        Vertices.drawTriangleFan(gl, vertexFrontBuffer, FREE_SPACE_COLOR);
+    final int step = view.getCamera().getZoomStep();
+    if (step != zoomStep) {
+      zoomStep = step;
+      executeAfterMessages(decimateTask);
+    }
+    synchronized (mutex) {
+      if (vertexBuffer != null) {
+        Vertices.drawTriangleFan(gl, vertexBuffer, FREE_SPACE_COLOR);
         // Drop the first point which is required for the triangle fan but is
         // not a range reading.
-        FloatBuffer pointVertices = vertexFrontBuffer.duplicate();
+        FloatBuffer pointVertices = vertexBuffer.duplicate();
         pointVertices.position(3);
         Vertices.drawPoints(gl, pointVertices, OCCUPIED_SPACE_COLOR, LASER_SCAN_POINT_SIZE);
       }
@@ -75,50 +144,62 @@ public class LaserScanLayer extends SubscriberLayer<sensor_msgs.LaserScan> imple
   @Override
   public void onStart(VisualizationView view, ConnectedNode connectedNode) {
     super.onStart(view, connectedNode);
-    Subscriber<LaserScan> subscriber = getSubscriber();
-    subscriber.addMessageListener(new MessageListener<LaserScan>() {
+    addMessageListener(new MessageListener<LaserScan>() {
       @Override
       public void onNewMessage(LaserScan laserScan) {
         frame = GraphName.of(laserScan.getHeader().getFrameId());
-        updateVertexBuffer(laserScan, LASER_SCAN_STRIDE);
+        updatePoints(laserScan);
+        decimate();
       }
     });
   }
 
-  private void updateVertexBuffer(LaserScan laserScan, int stride) {
+  private void updatePoints(LaserScan laserScan) {
     float[] ranges = laserScan.getRanges();
-    int size = ((ranges.length / stride) + 2) * 3;
-    if (vertexBackBuffer == null || vertexBackBuffer.capacity() < size) {
-      vertexBackBuffer = Vertices.allocateBuffer(size);
+    scanGeometry.update(laserScan.getAngleMin(), laserScan.getAngleIncrement(), ranges.length, 1);
+    if (points.length < ranges.length * 3) {
+      points = new float[ranges.length * 3];
     }
-    vertexBackBuffer.clear();
-    // We start with the origin of the triangle fan.
-    vertexBackBuffer.put(0);
-    vertexBackBuffer.put(0);
-    vertexBackBuffer.put(0);
-    float minimumRange = laserScan.getRangeMin();
-    float maximumRange = laserScan.getRangeMax();
-    float angle = laserScan.getAngleMin();
-    float angleIncrement = laserScan.getAngleIncrement();
-    // Calculate the coordinates of the laser range values.
-    for (int i = 0; i < ranges.length; i += stride) {
-      float range = ranges[i];
-      // Ignore ranges that are outside the defined range. We are not overly
-      // concerned about the accuracy of the visualization and this is makes it
-      // look a lot nicer.
-      if (minimumRange < range && range < maximumRange) {
-        // x, y, z
-        vertexBackBuffer.put((float) (range * Math.cos(angle)));
-        vertexBackBuffer.put((float) (range * Math.sin(angle)));
-        vertexBackBuffer.put(0);
-      }
-      angle += angleIncrement * stride;
+    // Ignore ranges that are outside the defined range. We are not overly
+    // concerned about the accuracy of the visualization and this makes it
+    // look a lot nicer.
+    numPoints =
+        scanGeometry.project(ranges, laserScan.getRangeMin(), laserScan.getRangeMax(), points, 0);
+  }
+
+  /**
+   * Thins out the points of the last scan for the current zoom step into the
+   * next vertex buffer, and swaps it in. Only called on the worker thread.
+   */
+  private void decimate() {
+    final int step = zoomStep;
+    int size = (numPoints + 1) * 3;
+    if (vertices.length < size) {
+      vertices = new float[size];
+    }
+    // We start with the origin of the triangle fan, which is never
+    // overwritten.
+    int numVertices = 1;
+    if (step == XYOrthographicCamera.NO_ZOOM_STEP) {
+      // The zoom is unknown until the layer is drawn.
+      System.arraycopy(points, 0, vertices, 3, numPoints * 3);
+      numVertices += numPoints;
+    } else {
+      double metersPerPixel = XYOrthographicCamera.getMetersPerPixel(step);
+      numVertices +=
+          scanDecimator.decimate(points, numPoints, (float) (minimumPointDistance * metersPerPixel),
+              (float) (OUTLINE_TOLERANCE * metersPerPixel), vertices, 3);
+    }
+    if (nextVertexBuffer == null || nextVertexBuffer.capacity() < numVertices * 3) {
+      nextVertexBuffer = Vertices.allocateBuffer(size);
     }
-    vertexBackBuffer.position(0);
+    nextVertexBuffer.clear();
+    nextVertexBuffer.put(vertices, 0, numVertices * 3);
+    nextVertexBuffer.flip();
     synchronized (mutex) {
-      FloatBuffer tmp = vertexFrontBuffer;
-      vertexFrontBuffer = vertexBackBuffer;
-      vertexBackBuffer = tmp;
+      final FloatBuffer tmp = vertexBuffer;
+      vertexBuffer = nextVertexBuffer;
+      nextVertexBuffer = tmp;
     }
   }
 
@@ -16,213 +16,846 @@
 
 package org.ros.android.view.visualization.layer;
 
+import android.util.Log;
+
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.ros.android.view.visualization.TextureBitmap;
+import org.ros.android.view.visualization.Viewport;
 import org.ros.android.view.visualization.VisualizationView;
-import org.ros.internal.message.MessageBuffers;
+import org.ros.android.view.visualization.XYOrthographicCamera;
+import org.ros.android.view.visualization.map_utils.CellColorMap;
+import org.ros.android.view.visualization.map_utils.DirtyRect;
+import org.ros.android.view.visualization.map_utils.GridDownsampler;
+import org.ros.exception.RosRuntimeException;
 import org.ros.message.MessageListener;
+import org.ros.message.Time;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
+import org.ros.node.NodeMainExecutor;
+import org.ros.node.topic.Subscriber;
 import org.ros.rosjava_geometry.Quaternion;
 import org.ros.rosjava_geometry.Transform;
 import org.ros.rosjava_geometry.Vector3;
 
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.microedition.khronos.opengles.GL10;
 
 /**
+ * Draws a {@link nav_msgs.OccupancyGrid}, optionally patched by
+ * {@link map_msgs.OccupancyGridUpdate}s.
+ * <p/>
+ * Large maps are kept at several resolutions. Each level halves the previous
+ * one's resolution with max-pooling, until a level fits into a single tile.
+ * Every frame, the coarsest level that still has a cell per pixel is drawn,
+ * and only its tiles that are in the viewport.
+ * <p/>
+ * A tile's texture is only uploaded once the tile is first drawn. When the
+ * uploaded textures exceed the texture memory budget, the textures of the
+ * least recently drawn tiles are deleted.
+ * 
  * @author moesenle@google.com (Lorenz Moesenlechner)
  */
 public class OccupancyGridLayer extends SubscriberLayer<nav_msgs.OccupancyGrid> implements TfLayer {
 
-  /**
-   * Color of occupied cells in the map.
-   */
-  private static final int COLOR_OCCUPIED = 0xff111111;
-
-  /**
-   * Color of free cells in the map.
-   */
-  private static final int COLOR_FREE = 0xffffffff;
-
-  /**
-   * Color of unknown cells in the map.
-   */
-  private static final int COLOR_UNKNOWN = 0xffdddddd;
-
   /**
    * In order to draw maps with a size outside the maximum size of a texture,
    * we split the map into multiple tiles and draw one texture per tile.
    */
   private class Tile {
 
-    private final ChannelBuffer pixelBuffer = MessageBuffers.dynamicBuffer();
-    private final TextureBitmap textureBitmap = new TextureBitmap();
+    private final TextureBitmap textureBitmap;
 
     /**
-     * Resolution of the {@link nav_msgs.OccupancyGrid}.
+     * Offset of the {@link Tile} in the map, in cells.
      */
-    private final float resolution;
+    private final int x;
+    private final int y;
+
+    /**
+     * Size of the {@link Tile}, in cells.
+     */
+    private final int width;
+    private final int height;
+
+    /**
+     * The {@link Tile}'s corners in the map's frame, x, y and z for each.
+     */
+    private final double[] corners = new double[12];
 
     /**
-     * Points to the top left of the {@link Tile}.
+     * Changed part of the {@link Tile}, in cells relative to the tile.
      */
-    private Transform origin;
+    private final DirtyRect dirtyRect = new DirtyRect();
 
     /**
-     * Width of the {@link Tile}.
+     * Part of the map changed by the last update, in cells of the map.
      */
-    private int stride;
+    private final DirtyRect updatedRect = new DirtyRect();
 
     /**
      * {@code true} when the {@link Tile} is ready to be drawn.
      */
-    private boolean ready;
+    private volatile boolean ready;
 
-    public Tile(float resolution) {
-      this.resolution = resolution;
+    /**
+     * {@code true} once the {@link Tile}'s map was replaced. Its texture is
+     * then deleted on the GL thread.
+     */
+    private volatile boolean discarded;
+
+    /**
+     * Places the {@link Tile} in the map, and marks it as completely changed.
+     */
+    public Tile(int x, int y, int width, int height, float resolution, Transform mapOrigin) {
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+      // Edge tiles and the tiles of coarse levels get smaller textures.
+      textureBitmap = new TextureBitmap(textureFormat, width, height);
       ready = false;
+      final Transform origin =
+          mapOrigin.multiply(new Transform(new Vector3(x * resolution, y * resolution, 0.),
+              Quaternion.identity()));
+      textureBitmap.setOrigin(origin, resolution);
+      for (int i = 0; i < 4; i++) {
+        final Vector3 corner =
+            origin.apply(new Vector3((i & 1) * width * resolution, (i >> 1) * height * resolution,
+                0.));
+        corners[i * 3] = corner.getX();
+        corners[i * 3 + 1] = corner.getY();
+        corners[i * 3 + 2] = corner.getZ();
+      }
+      repaint();
     }
 
-    public void draw(VisualizationView view, GL10 gl) {
+    /**
+     * @return {@code true} if the {@link Tile} was drawn, and so has a
+     *         texture
+     */
+    public boolean draw(VisualizationView view, GL10 gl) {
       if (ready) {
         textureBitmap.draw(view, gl);
       }
+      return ready;
     }
 
     public void clearHandle() {
       textureBitmap.clearHandle();
     }
 
-    public void writeInt(int value) {
-      pixelBuffer.writeInt(value);
+    public void deleteTexture(GL10 gl) {
+      textureBitmap.deleteHandle(gl);
     }
 
-    public void update() {
-      Preconditions.checkNotNull(origin);
-      Preconditions.checkNotNull(stride);
-      textureBitmap.updateFromPixelBuffer(pixelBuffer, stride, resolution, origin, COLOR_UNKNOWN);
-      pixelBuffer.clear();
+    public int getTextureBytes() {
+      return textureBitmap.getTextureBytes();
+    }
+
+    /**
+     * @param screenMatrix
+     *          the column major transform from the map's frame to pixels,
+     *          relative to the center of the viewport
+     * @return {@code true} if the {@link Tile} overlaps the viewport
+     */
+    public boolean isVisible(double[] screenMatrix, double halfWidth, double halfHeight) {
+      double minX = Double.MAX_VALUE;
+      double minY = Double.MAX_VALUE;
+      double maxX = -Double.MAX_VALUE;
+      double maxY = -Double.MAX_VALUE;
+      final double[] m = screenMatrix;
+      for (int i = 0; i < 12; i += 3) {
+        final double screenX = m[0] * corners[i] + m[4] * corners[i + 1] + m[8] * corners[i + 2] + m[12];
+        final double screenY = m[1] * corners[i] + m[5] * corners[i + 1] + m[9] * corners[i + 2] + m[13];
+        minX = Math.min(minX, screenX);
+        minY = Math.min(minY, screenY);
+        maxX = Math.max(maxX, screenX);
+        maxY = Math.max(maxY, screenY);
+      }
+      return maxX >= -halfWidth && minX <= halfWidth && maxY >= -halfHeight && minY <= halfHeight;
+    }
+
+    /**
+     * Marks the cells of the {@link Tile} which differ between the two maps.
+     */
+    public void compare(byte[] previous, byte[] current, int mapWidth) {
+      for (int row = 0; row < height; row++) {
+        final int rowStart = (y + row) * mapWidth + x;
+        int first = 0;
+        while (first < width && previous[rowStart + first] == current[rowStart + first]) {
+          first++;
+        }
+        if (first == width) {
+          continue;
+        }
+        int last = width - 1;
+        while (previous[rowStart + last] == current[rowStart + last]) {
+          last--;
+        }
+        dirtyRect.add(first, row, last - first + 1, 1);
+      }
+    }
+
+    /**
+     * Marks the cells of the {@link Tile} which lie in the given rectangle of
+     * the map.
+     */
+    public void invalidate(int mapX, int mapY, int mapWidth, int mapHeight) {
+      final int minX = Math.max(mapX, x);
+      final int minY = Math.max(mapY, y);
+      final int maxX = Math.min(mapX + mapWidth, x + width);
+      final int maxY = Math.min(mapY + mapHeight, y + height);
+      dirtyRect.add(minX - x, minY - y, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * Fills the texture, including the part outside the map, with the
+     * unknown color and marks all of the {@link Tile}'s cells as changed.
+     */
+    public void repaint() {
+      textureBitmap.fill(colorMap.getColor(CellColorMap.UNKNOWN));
+      dirtyRect.clear();
+      dirtyRect.add(0, 0, width, height);
+    }
+
+    /**
+     * Colors the changed cells straight into the texture.
+     */
+    public void update(byte[] cells, int mapWidth) {
+      updatedRect.clear();
+      if (!dirtyRect.isEmpty()) {
+        final int rectX = dirtyRect.getX();
+        final int rectY = dirtyRect.getY();
+        final int rectWidth = dirtyRect.getWidth();
+        final int rectHeight = dirtyRect.getHeight();
+        textureBitmap.updateRegion(cells, (y + rectY) * mapWidth + x + rectX, mapWidth,
+            colorMap.getTexels(textureBitmap.getFormat()), rectX, rectY, rectWidth, rectHeight);
+        updatedRect.add(x + rectX, y + rectY, rectWidth, rectHeight);
+        dirtyRect.clear();
+      }
       ready = true;
     }
 
-    public void setOrigin(Transform origin) {
-      this.origin = origin;
+    public DirtyRect getUpdatedRect() {
+      return updatedRect;
+    }
+  }
+
+  /**
+   * The map at one resolution, split into {@link Tile}s.
+   */
+  private class Level {
+
+    /**
+     * Fixed once the {@link Level} is created, so the GL thread can draw them
+     * while the next map is converted.
+     */
+    private final List<Tile> tiles;
+
+    private byte[] cells;
+    private final int width;
+    private final int height;
+    private final float resolution;
+    private final int numTilesWide;
+    private final int numTilesHigh;
+
+    /**
+     * Sizes the {@link Level} for a new map, with all of its tiles marked as
+     * changed.
+     */
+    public Level(int width, int height, float resolution, Transform origin) {
+      this.width = width;
+      this.height = height;
+      this.resolution = resolution;
+      cells = new byte[width * height];
+      numTilesWide = (int) Math.ceil(width / (float) TextureBitmap.STRIDE);
+      numTilesHigh = (int) Math.ceil(height / (float) TextureBitmap.HEIGHT);
+      tiles = Lists.newArrayListWithCapacity(numTilesWide * numTilesHigh);
+      for (int y = 0; y < numTilesHigh; ++y) {
+        for (int x = 0; x < numTilesWide; ++x) {
+          final int tileX = x * TextureBitmap.STRIDE;
+          final int tileY = y * TextureBitmap.HEIGHT;
+          tiles.add(new Tile(tileX, tileY, Math.min(TextureBitmap.STRIDE, width - tileX),
+              Math.min(TextureBitmap.HEIGHT, height - tileY), resolution, origin));
+        }
+      }
+    }
+
+    public void invalidate(int x, int y, int width, int height) {
+      for (Tile tile : tiles) {
+        tile.invalidate(x, y, width, height);
+      }
+    }
+
+    public void repaint() {
+      for (Tile tile : tiles) {
+        tile.repaint();
+      }
+    }
+
+    public void update() {
+      for (Tile tile : tiles) {
+        tile.update(cells, width);
+      }
+    }
+
+    public void clearHandles() {
+      for (Tile tile : tiles) {
+        tile.clearHandle();
+      }
+    }
+
+    /**
+     * Marks all tiles as dropped, when the {@link Level}'s map is replaced.
+     */
+    public void discard() {
+      for (Tile tile : tiles) {
+        tile.discarded = true;
+      }
+    }
+
+    /**
+     * Draws the visible tiles, and moves them to the end of
+     * {@link #residentTiles}.
+     * 
+     * @param screenMatrix
+     *          see {@link Tile#isVisible(double[], double, double)}, or
+     *          {@code null} to draw all tiles
+     * @return the number of tiles drawn
+     */
+    public int draw(VisualizationView view, GL10 gl, double[] screenMatrix, double halfWidth,
+        double halfHeight) {
+      int numDrawn = 0;
+      for (Tile tile : tiles) {
+        if (!tile.discarded
+            && (screenMatrix == null || tile.isVisible(screenMatrix, halfWidth, halfHeight))
+            && tile.draw(view, gl)) {
+          residentTiles.put(tile, tile);
+          numDrawn++;
+        }
+      }
+      return numDrawn;
     }
+  }
+
+  /**
+   * The levels and the frame of the last converted map, as drawn by the GL
+   * thread. Replaced as a whole at the end of every update.
+   */
+  private static class Snapshot {
+
+    private final Level[] levels;
+    private final GraphName frame;
 
-    public void setStride(int stride) {
-      this.stride = stride;
+    /**
+     * The resolution of the first level.
+     */
+    private final float resolution;
+
+    public Snapshot(Level[] levels, GraphName frame, float resolution) {
+      this.levels = levels;
+      this.frame = frame;
+      this.resolution = resolution;
     }
   }
 
-  private final List<Tile> tiles;
+  /**
+   * The default budget for tile textures, e.g. 16 full size RGBA tiles.
+   */
+  private static final long DEFAULT_MAX_TEXTURE_BYTES = 64L * 1024 * 1024;
+
+  private static final String TAG = "OccupancyGridLayer";
 
+  /**
+   * The levels being converted. Only used with the mutex held; the GL thread
+   * draws the published {@link #snapshot}.
+   */
+  private final List<Level> levels;
+
+  /**
+   * The tiles which have a texture in GL memory, least recently drawn first.
+   * Only used on the GL thread.
+   */
+  private final LinkedHashMap<Tile, Tile> residentTiles;
+  private volatile long maxTextureBytes;
+  private final GraphName updatesTopic;
+  private final Object mutex;
+
+  private Subscriber<map_msgs.OccupancyGridUpdate> updatesSubscriber;
   private boolean ready;
-  private GraphName frame;
   private GL10 previousGl;
 
+  /**
+   * What the GL thread draws, or {@code null} before the first map.
+   */
+  private volatile Snapshot snapshot;
+
+  /**
+   * When the current map was published. Older patches are dropped.
+   */
+  private Time mapStamp;
+
+  /**
+   * The next map, which is compared against the current one (the first
+   * level's cells) so that only changed tiles are converted and uploaded. Map
+   * updates are written to the current map in place.
+   */
+  private byte[] nextCells;
+  private int width;
+  private int height;
+  private float resolution;
+  private final double[] originPose;
+
+  private volatile CellColorMap colorMap;
+  private TextureBitmap.Format textureFormat;
+
+  /**
+   * Converts bands of tiles in parallel. May be {@code null}.
+   */
+  private ExecutorService executorService;
+  private Future<?>[] bandFutures;
+
   public OccupancyGridLayer(String topic) {
     this(GraphName.of(topic));
   }
 
   public OccupancyGridLayer(GraphName topic) {
+    this(topic, null);
+  }
+
+  public OccupancyGridLayer(String topic, String updatesTopic) {
+    this(GraphName.of(topic), GraphName.of(updatesTopic));
+  }
+
+  /**
+   * @param updatesTopic
+   *          the {@link map_msgs.OccupancyGridUpdate} topic that patches the
+   *          map on {@code topic} (e.g. "map_updates"), or {@code null}
+   */
+  public OccupancyGridLayer(GraphName topic, GraphName updatesTopic) {
     super(topic, nav_msgs.OccupancyGrid._TYPE);
-    tiles = Lists.newCopyOnWriteArrayList();
+    this.updatesTopic = updatesTopic;
+    mutex = new Object();
+    levels = Lists.newArrayList();
+    residentTiles = new LinkedHashMap<Tile, Tile>(16, 0.75f, true);
+    maxTextureBytes = DEFAULT_MAX_TEXTURE_BYTES;
     ready = false;
+    nextCells = new byte[0];
+    originPose = new double[7];
+    colorMap = CellColorMap.THREE_COLORS;
+    textureFormat = TextureBitmap.Format.RGBA;
+    bandFutures = new Future<?>[0];
+    // Converting a large map takes a while. Skip maps that have already been
+    // superseded instead of queuing them up.
+    setLatestOnly(true);
   }
 
   @Override
   public void draw(VisualizationView view, GL10 gl) {
+    final Snapshot snapshot = this.snapshot;
     if (previousGl != gl) {
-      for (Tile tile : tiles) {
-        tile.clearHandle();
+      if (snapshot != null) {
+        for (Level level : snapshot.levels) {
+          level.clearHandles();
+        }
       }
+      residentTiles.clear();
       previousGl = gl;
     }
-    if (ready) {
-      for (Tile tile : tiles) {
-        tile.draw(view, gl);
+    if (snapshot == null) {
+      return;
+    }
+    final XYOrthographicCamera camera = view.getCamera();
+    final Level level = selectLevel(snapshot, camera.getZoom());
+    final Transform frameToScreen = camera.getFrameToScreenTransform(snapshot.frame);
+    final Viewport viewport = camera.getViewport();
+    final int numDrawn =
+        level.draw(view, gl, frameToScreen == null ? null : frameToScreen.toMatrix(),
+            viewport.getWidth() / 2.0, viewport.getHeight() / 2.0);
+    evictTextures(gl, numDrawn);
+  }
+
+  /**
+   * Deletes the textures of the tiles dropped from their levels, then those of
+   * the least recently drawn tiles until the textures fit into the budget. The
+   * tiles drawn in this frame are the most recent ones, and are never evicted.
+   */
+  private void evictTextures(GL10 gl, int numDrawn) {
+    long textureBytes = 0;
+    Iterator<Tile> iterator = residentTiles.keySet().iterator();
+    while (iterator.hasNext()) {
+      final Tile tile = iterator.next();
+      if (tile.discarded) {
+        tile.deleteTexture(gl);
+        iterator.remove();
+      } else {
+        textureBytes += tile.getTextureBytes();
       }
     }
+    iterator = residentTiles.keySet().iterator();
+    while (textureBytes > maxTextureBytes && residentTiles.size() > numDrawn) {
+      final Tile tile = iterator.next();
+      textureBytes -= tile.getTextureBytes();
+      tile.deleteTexture(gl);
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Sets the GL memory budget for tile textures. The tiles on screen are
+   * always drawn, even if their textures exceed the budget.
+   */
+  public void setMaxTextureBytes(long maxTextureBytes) {
+    Preconditions.checkArgument(maxTextureBytes >= 0);
+    this.maxTextureBytes = maxTextureBytes;
+  }
+
+  public long getMaxTextureBytes() {
+    return maxTextureBytes;
+  }
+
+  /**
+   * @param zoom
+   *          pixels per meter
+   * @return the coarsest {@link Level} that still has a cell per pixel
+   */
+  private static Level selectLevel(Snapshot snapshot, double zoom) {
+    final double cellPixels = zoom * snapshot.resolution;
+    int level = 0;
+    while (level < snapshot.levels.length - 1 && cellPixels * (2 << level) <= 1.0) {
+      level++;
+    }
+    return snapshot.levels[level];
+  }
+
+  @Override
+  public void init(NodeMainExecutor nodeMainExecutor) {
+    super.init(nodeMainExecutor);
+    executorService = nodeMainExecutor.getScheduledExecutorService();
   }
 
   @Override
   public GraphName getFrame() {
-    return frame;
+    final Snapshot snapshot = this.snapshot;
+    return snapshot == null ? null : snapshot.frame;
   }
 
   @Override
   public void onStart(VisualizationView view, ConnectedNode connectedNode) {
     super.onStart(view, connectedNode);
     previousGl = null;
-    getSubscriber().addMessageListener(new MessageListener<nav_msgs.OccupancyGrid>() {
+    addMessageListener(new MessageListener<nav_msgs.OccupancyGrid>() {
       @Override
       public void onNewMessage(nav_msgs.OccupancyGrid message) {
         update(message);
       }
     });
+    if (updatesTopic != null) {
+      updatesSubscriber =
+          connectedNode.newSubscriber(updatesTopic, map_msgs.OccupancyGridUpdate._TYPE);
+      // Every patch is needed to keep the map consistent, so updates are never
+      // dropped. They are small and cheap to apply. They are applied after the
+      // maps received before them, so they aren't overwritten by older maps.
+      updatesSubscriber.addMessageListener(new MessageListener<map_msgs.OccupancyGridUpdate>() {
+        @Override
+        public void onNewMessage(final map_msgs.OccupancyGridUpdate message) {
+          executeAfterMessages(new Runnable() {
+            @Override
+            public void run() {
+              update(message);
+            }
+          });
+        }
+      });
+    }
+  }
+
+  @Override
+  public void onShutdown(VisualizationView view, Node node) {
+    if (updatesSubscriber != null) {
+      updatesSubscriber.shutdown();
+      updatesSubscriber = null;
+    }
+    super.onShutdown(view, node);
+  }
+
+  /**
+   * Sets the colors of the cells, and re-colors the current map.
+   */
+  public void setColorMap(CellColorMap colorMap) {
+    Preconditions.checkNotNull(colorMap);
+    synchronized (mutex) {
+      this.colorMap = colorMap;
+      if (ready) {
+        for (Level level : levels) {
+          level.repaint();
+          level.update();
+        }
+      }
+    }
+  }
+
+  public CellColorMap getColorMap() {
+    return colorMap;
+  }
+
+  /**
+   * Sets the format of the tile textures. {@link TextureBitmap.Format#LUMINANCE}
+   * takes a quarter of the memory of the default RGBA, and is enough for gray
+   * color maps like {@link CellColorMap#THREE_COLORS}. Must be called before
+   * the first map is received.
+   */
+  public void setTextureFormat(TextureBitmap.Format textureFormat) {
+    Preconditions.checkNotNull(textureFormat);
+    synchronized (mutex) {
+      Preconditions.checkState(levels.isEmpty(), "A map has already been received.");
+      this.textureFormat = textureFormat;
+    }
+  }
+
+  public TextureBitmap.Format getTextureFormat() {
+    return textureFormat;
+  }
+
+  /**
+   * @return {@code true} if the map's size, resolution or origin differ from
+   *         the last map's.
+   */
+  private boolean updateGeometry(nav_msgs.MapMetaData info) {
+    final geometry_msgs.Pose pose = info.getOrigin();
+    final double[] newPose = new double[] {
+        pose.getPosition().getX(), pose.getPosition().getY(), pose.getPosition().getZ(),
+        pose.getOrientation().getX(), pose.getOrientation().getY(), pose.getOrientation().getZ(),
+        pose.getOrientation().getW() };
+    boolean changed =
+        info.getWidth() != width || info.getHeight() != height || info.getResolution() != resolution;
+    for (int i = 0; i < newPose.length; i++) {
+      changed |= newPose[i] != originPose[i];
+      originPose[i] = newPose[i];
+    }
+    width = info.getWidth();
+    height = info.getHeight();
+    resolution = info.getResolution();
+    return changed;
   }
 
   private void update(nav_msgs.OccupancyGrid message) {
-    final float resolution = message.getInfo().getResolution();
-    final int width = message.getInfo().getWidth();
-    final int height = message.getInfo().getHeight();
-    final int numTilesWide = (int) Math.ceil(width / (float) TextureBitmap.STRIDE);
-    final int numTilesHigh = (int) Math.ceil(height / (float) TextureBitmap.STRIDE);
-    final int numTiles = numTilesWide * numTilesHigh;
-    final Transform origin = Transform.fromPoseMessage(message.getInfo().getOrigin());
-
-    while (tiles.size() < numTiles) {
-      tiles.add(new Tile(resolution));
-    }
-
-    for (int y = 0; y < numTilesHigh; ++y) {
-      for (int x = 0; x < numTilesWide; ++x) {
-        final int tileIndex = y * numTilesWide + x;
-        tiles.get(tileIndex).setOrigin(origin.multiply(new Transform(new Vector3(x *
-            resolution * TextureBitmap.STRIDE,
-            y * resolution * TextureBitmap.HEIGHT, 0.), Quaternion.identity())));
-        if (x < numTilesWide - 1) {
-          tiles.get(tileIndex).setStride(TextureBitmap.STRIDE);
-        } else {
-          tiles.get(tileIndex).setStride(width % TextureBitmap.STRIDE);
+    synchronized (mutex) {
+      updateMap(message);
+    }
+  }
+
+  private void updateMap(nav_msgs.OccupancyGrid message) {
+    final boolean geometryChanged = updateGeometry(message.getInfo());
+    final int size = width * height;
+    if (nextCells.length != size) {
+      nextCells = new byte[size];
+    }
+    final int readable = readCells(message, nextCells);
+    // Cells missing from the message are unknown.
+    Arrays.fill(nextCells, readable, size, (byte) -1);
+
+    final boolean newMap = geometryChanged || levels.isEmpty();
+    if (newMap) {
+      resetLevels(Transform.fromPoseMessage(message.getInfo().getOrigin()));
+    }
+    final Level base = levels.get(0);
+    updateTiles(base, !newMap);
+    final byte[] previousCells = base.cells;
+    base.cells = nextCells;
+    nextCells = previousCells;
+
+    if (newMap) {
+      downsample(0, 0, width, height);
+    } else {
+      for (Tile tile : base.tiles) {
+        final DirtyRect rect = tile.getUpdatedRect();
+        if (!rect.isEmpty()) {
+          downsample(rect.getX(), rect.getY(), rect.getWidth(), rect.getHeight());
         }
       }
     }
+    for (int i = 1; i < levels.size(); i++) {
+      levels.get(i).update();
+    }
+
+    mapStamp = message.getHeader().getStamp();
+    ready = true;
+    // The GL thread kept drawing the previous levels until now.
+    final Snapshot previous = snapshot;
+    snapshot =
+        new Snapshot(levels.toArray(new Level[levels.size()]),
+            GraphName.of(message.getHeader().getFrameId()), resolution);
+    if (previous != null && previous.levels[0] != levels.get(0)) {
+      for (Level level : previous.levels) {
+        level.discard();
+      }
+    }
+  }
 
-    int x = 0;
-    int y = 0;
+  /**
+   * Reads the cells of a map into {@code cells}, which has room for exactly
+   * the map's width times height cells.
+   * 
+   * @return the number of cells read, the cells after them are unknown
+   */
+  protected int readCells(nav_msgs.OccupancyGrid message, byte[] cells) {
     final ChannelBuffer buffer = message.getData();
-    while (buffer.readable()) {
-      Preconditions.checkState(y < height);
-      final int tileIndex = (y / TextureBitmap.STRIDE) * numTilesWide + x / TextureBitmap.STRIDE;
-      final byte pixel = buffer.readByte();
-      if (pixel == -1) {
-        tiles.get(tileIndex).writeInt(COLOR_UNKNOWN);
-      } else {
-        if (pixel < 50) {
-          tiles.get(tileIndex).writeInt(COLOR_FREE);
-        } else {
-          tiles.get(tileIndex).writeInt(COLOR_OCCUPIED);
+    final int readable = Math.min(buffer.readableBytes(), cells.length);
+    buffer.getBytes(buffer.readerIndex(), cells, 0, readable);
+    return readable;
+  }
+
+  /**
+   * Replaces the levels with new ones for a map of the current size. The
+   * previous levels may still be drawn, so they are left untouched.
+   */
+  private void resetLevels(Transform origin) {
+    levels.clear();
+    int levelWidth = width;
+    int levelHeight = height;
+    float levelResolution = resolution;
+    while (true) {
+      levels.add(new Level(levelWidth, levelHeight, levelResolution, origin));
+      if (levelWidth <= TextureBitmap.STRIDE && levelHeight <= TextureBitmap.HEIGHT) {
+        break;
+      }
+      levelWidth = GridDownsampler.halve(levelWidth);
+      levelHeight = GridDownsampler.halve(levelHeight);
+      levelResolution *= 2;
+    }
+  }
+
+  /**
+   * Recomputes the coarser levels from a changed rectangle of the first
+   * level, and marks the affected tiles.
+   */
+  private void downsample(int x, int y, int width, int height) {
+    for (int i = 1; i < levels.size(); i++) {
+      final Level level = levels.get(i);
+      final int maxX = Math.min(GridDownsampler.halve(x + width), level.width);
+      final int maxY = Math.min(GridDownsampler.halve(y + height), level.height);
+      x /= 2;
+      y /= 2;
+      width = maxX - x;
+      height = maxY - y;
+      final Level finer = levels.get(i - 1);
+      GridDownsampler.maxPool(finer.cells, finer.width, finer.height, level.cells, level.width, x,
+          y, width, height);
+      level.invalidate(x, y, width, height);
+    }
+  }
+
+  /**
+   * Converts the tiles of the next map, one horizontal band of tiles per
+   * task. Each tile is only written to by its own band, and all bands are
+   * done before this returns.
+   */
+  private void updateTiles(final Level base, final boolean compare) {
+    final int numTilesHigh = base.numTilesHigh;
+    if (executorService == null || numTilesHigh < 2) {
+      for (int band = 0; band < numTilesHigh; band++) {
+        updateBand(base, band, compare);
+      }
+      return;
+    }
+    if (bandFutures.length < numTilesHigh) {
+      bandFutures = new Future<?>[numTilesHigh];
+    }
+    for (int band = 1; band < numTilesHigh; band++) {
+      final int bandIndex = band;
+      bandFutures[band] = executorService.submit(new Runnable() {
+        @Override
+        public void run() {
+          updateBand(base, bandIndex, compare);
         }
+      });
+    }
+    // Convert the first band on this thread while the others are converted.
+    updateBand(base, 0, compare);
+    try {
+      for (int band = 1; band < numTilesHigh; band++) {
+        bandFutures[band].get();
+        bandFutures[band] = null;
       }
+    } catch (InterruptedException e) {
+      cancelBands(numTilesHigh);
+      Thread.currentThread().interrupt();
+      throw new RosRuntimeException(e);
+    } catch (ExecutionException e) {
+      cancelBands(numTilesHigh);
+      throw new RosRuntimeException(e.getCause());
+    }
+  }
 
-      ++x;
-      if (x == width) {
-        x = 0;
-        ++y;
+  private void updateBand(Level base, int band, boolean compare) {
+    for (int x = 0; x < base.numTilesWide; x++) {
+      final Tile tile = base.tiles.get(band * base.numTilesWide + x);
+      if (compare) {
+        tile.compare(base.cells, nextCells, width);
       }
+      tile.update(nextCells, width);
     }
+  }
 
-    for (Tile tile : tiles) {
-      tile.update();
+  private void cancelBands(int numTilesHigh) {
+    for (int band = 1; band < numTilesHigh; band++) {
+      if (bandFutures[band] != null) {
+        bandFutures[band].cancel(true);
+        bandFutures[band] = null;
+      }
     }
+  }
 
-    frame = GraphName.of(message.getHeader().getFrameId());
-    ready = true;
+  /**
+   * Copies the patch into the current map and updates the tiles it touches.
+   */
+  private void update(map_msgs.OccupancyGridUpdate message) {
+    synchronized (mutex) {
+      if (!ready) {
+        // Patches only make sense on top of a full map.
+        return;
+      }
+      if (message.getHeader().getStamp().compareTo(mapStamp) < 0) {
+        // The current map was published after the patch, so it already
+        // contains the patch or newer cells.
+        return;
+      }
+      final int patchWidth = message.getWidth();
+      final int minX = Math.max(message.getX(), 0);
+      final int minY = Math.max(message.getY(), 0);
+      final int maxX = Math.min(message.getX() + patchWidth, width);
+      final int maxY = Math.min(message.getY() + message.getHeight(), height);
+      if (maxX <= minX || maxY <= minY) {
+        return;
+      }
+      final ChannelBuffer buffer = message.getData();
+      if (buffer.readableBytes() < patchWidth * message.getHeight()) {
+        Log.w(TAG, "Dropping a patch with fewer cells than its size.");
+        return;
+      }
+      final int start = buffer.readerIndex();
+      final Level base = levels.get(0);
+      for (int y = minY; y < maxY; y++) {
+        buffer.getBytes(start + (y - message.getY()) * patchWidth + minX - message.getX(),
+            base.cells, y * width + minX, maxX - minX);
+      }
+      base.invalidate(minX, minY, maxX - minX, maxY - minY);
+      downsample(minX, minY, maxX - minX, maxY - minY);
+      for (Level level : levels) {
+        level.update();
+      }
+    }
   }
 }
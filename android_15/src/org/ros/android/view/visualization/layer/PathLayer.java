@@ -17,20 +17,27 @@
 package org.ros.android.view.visualization.layer;
 
 import org.ros.android.view.visualization.VisualizationView;
+import org.ros.android.view.visualization.XYOrthographicCamera;
 import org.ros.android.view.visualization.Color;
+import org.ros.android.view.visualization.Vertices;
+import org.ros.android.view.visualization.gl_utils.PolylineSimplifier;
 import geometry_msgs.PoseStamped;
 import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.List;
 
 import javax.microedition.khronos.opengles.GL10;
 
 /**
- * Renders a nav_msgs/Path as a dotted line.
+ * Renders a nav_msgs/Path as a line.
+ * <p/>
+ * The path is simplified so that it stays within a pixel of the original at
+ * the current zoom. The simplified path is kept until the path changes or the
+ * zoom crosses into another step. Paths are simplified on the layer's worker
+ * thread, so the GL thread only waits for buffers to be swapped.
  * 
  * @author moesenle@google.com (Lorenz Moesenlechner)
  * @author damonkohler@google.com (Damon Kohler)
@@ -38,68 +45,137 @@ import javax.microedition.khronos.opengles.GL10;
 public class PathLayer extends SubscriberLayer<nav_msgs.Path> implements TfLayer {
 
   private static final Color COLOR = Color.fromHexAndAlpha("03dfc9", 0.3f);
-  private static final float POINT_SIZE = 5.0f;
+  private static final float LINE_WIDTH = 5.0f;
+
+  /**
+   * Distance in pixels by which simplification may move the path.
+   */
+  private static final float TOLERANCE = 1.f;
+
+  private final Object mutex;
+  private final PolylineSimplifier simplifier;
+  private final Runnable simplifyTask;
 
-  private FloatBuffer vertexBuffer;
-  private boolean ready;
   private GraphName frame;
 
+  /**
+   * The zoom step that the path is simplified for. Set by the GL thread.
+   */
+  private volatile int zoomStep;
+
+  /**
+   * The positions of the last path's poses, of which {@link #numPoints} are
+   * valid, and its frame. Only used on the worker thread.
+   */
+  private float[] points;
+  private int numPoints;
+  private GraphName pathFrame;
+  private float[] vertices;
+
+  /**
+   * The simplified path that is drawn, and the one that the next
+   * simplification is written to. They are swapped with {@link #mutex} held.
+   */
+  private FloatBuffer vertexBuffer;
+  private FloatBuffer nextVertexBuffer;
+
   public PathLayer(String topic) {
     this(GraphName.of(topic));
   }
 
   public PathLayer(GraphName topic) {
     super(topic, "nav_msgs/Path");
-    ready = false;
+    mutex = new Object();
+    simplifier = new PolylineSimplifier();
+    simplifyTask = new Runnable() {
+      @Override
+      public void run() {
+        simplify();
+      }
+    };
+    zoomStep = XYOrthographicCamera.NO_ZOOM_STEP;
+    points = new float[0];
+    vertices = new float[0];
+    // Only the latest plan matters, and older ones needn't be simplified.
+    setLatestOnly(true);
   }
 
   @Override
   public void draw(VisualizationView view, GL10 gl) {
-    if (ready) {
-      gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-      gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertexBuffer);
-      COLOR.apply(gl);
-      gl.glPointSize(POINT_SIZE);
-      gl.glDrawArrays(GL10.GL_POINTS, 0, vertexBuffer.limit() / 3);
-      gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
+    final int step = view.getCamera().getZoomStep();
+    if (step != zoomStep) {
+      zoomStep = step;
+      executeAfterMessages(simplifyTask);
+    }
+    synchronized (mutex) {
+      if (vertexBuffer != null && vertexBuffer.limit() > 0) {
+        Vertices.drawLineStrip(gl, vertexBuffer, COLOR, LINE_WIDTH);
+      }
     }
   }
 
   @Override
   public void onStart(VisualizationView view, ConnectedNode connectedNode) {
     super.onStart(view, connectedNode);
-    getSubscriber().addMessageListener(new MessageListener<nav_msgs.Path>() {
+    addMessageListener(new MessageListener<nav_msgs.Path>() {
       @Override
       public void onNewMessage(nav_msgs.Path path) {
-        updateVertexBuffer(path);
-        ready = true;
+        updatePoints(path);
+        simplify();
       }
     });
   }
 
-  private void updateVertexBuffer(nav_msgs.Path path) {
-    ByteBuffer goalVertexByteBuffer =
-        ByteBuffer.allocateDirect(path.getPoses().size() * 3 * Float.SIZE / 8);
-    goalVertexByteBuffer.order(ByteOrder.nativeOrder());
-    vertexBuffer = goalVertexByteBuffer.asFloatBuffer();
-    if (path.getPoses().size() > 0) {
-      frame = GraphName.of(path.getPoses().get(0).getHeader().getFrameId());
-      // Path poses are densely packed and will make the path look like a solid
-      // line even if it is drawn as points. Skipping poses provides the visual
-      // point separation were looking for.
-      int i = 0;
-      for (PoseStamped pose : path.getPoses()) {
-        // TODO(damonkohler): Choose the separation between points as a pixel
-        // value. This will require inspecting the zoom level from the camera.
-        if (i % 15 == 0) {
-          vertexBuffer.put((float) pose.getPose().getPosition().getX());
-          vertexBuffer.put((float) pose.getPose().getPosition().getY());
-          vertexBuffer.put((float) pose.getPose().getPosition().getZ());
-        }
-        i++;
-      }
+  private void updatePoints(nav_msgs.Path path) {
+    final List<PoseStamped> poses = path.getPoses();
+    if (points.length < poses.size() * 3) {
+      points = new float[poses.size() * 3];
+    }
+    int i = 0;
+    for (PoseStamped pose : poses) {
+      geometry_msgs.Point position = pose.getPose().getPosition();
+      points[i++] = (float) position.getX();
+      points[i++] = (float) position.getY();
+      points[i++] = (float) position.getZ();
+    }
+    numPoints = poses.size();
+    if (numPoints > 0) {
+      pathFrame = GraphName.of(poses.get(0).getHeader().getFrameId());
+    }
+  }
+
+  /**
+   * Simplifies the last path for the current zoom step into the next vertex
+   * buffer, and swaps it in. Only called on the worker thread.
+   */
+  private void simplify() {
+    final int step = zoomStep;
+    final int size = numPoints * 3;
+    if (vertices.length < size) {
+      vertices = new float[size];
+    }
+    int numVertices;
+    if (step == XYOrthographicCamera.NO_ZOOM_STEP) {
+      // The zoom is unknown until the layer is drawn.
+      System.arraycopy(points, 0, vertices, 0, size);
+      numVertices = numPoints;
+    } else {
+      double metersPerPixel = XYOrthographicCamera.getMetersPerPixel(step);
+      numVertices =
+          simplifier.simplify(points, numPoints, (float) (TOLERANCE * metersPerPixel), vertices, 0);
+    }
+    if (nextVertexBuffer == null || nextVertexBuffer.capacity() < numVertices * 3) {
+      nextVertexBuffer = Vertices.allocateBuffer(size);
+    }
+    nextVertexBuffer.clear();
+    nextVertexBuffer.put(vertices, 0, numVertices * 3);
+    nextVertexBuffer.flip();
+    synchronized (mutex) {
+      final FloatBuffer tmp = vertexBuffer;
+      vertexBuffer = nextVertexBuffer;
+      nextVertexBuffer = tmp;
+      frame = pathFrame;
     }
-    vertexBuffer.position(0);
   }
 
   @Override
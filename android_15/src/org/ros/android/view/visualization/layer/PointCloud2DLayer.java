@@ -16,24 +16,22 @@
 
 package org.ros.android.view.visualization.layer;
 
-import com.google.common.base.Preconditions;
-
-import org.jboss.netty.buffer.ChannelBuffer;
 import org.ros.android.view.visualization.Color;
 import org.ros.android.view.visualization.Vertices;
 import org.ros.android.view.visualization.VisualizationView;
+import org.ros.android.view.visualization.pcd_utils.ParallelPointCloud2Decoder;
+import org.ros.android.view.visualization.pcd_utils.PointCloud2Decoder;
 import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
+import org.ros.node.NodeMainExecutor;
 import org.ros.node.topic.Subscriber;
 
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
 import javax.microedition.khronos.opengles.GL10;
 
 import sensor_msgs.PointCloud2;
-import sensor_msgs.PointField;
 
 /**
  * A {@link org.ros.android.view.visualization.layer.SubscriberLayer} that visualizes
@@ -48,6 +46,8 @@ public class PointCloud2DLayer extends SubscriberLayer<PointCloud2> implements T
   private static final float POINT_SIZE = 10.f;
 
   private final Object mutex;
+  private final ParallelPointCloud2Decoder decoder;
+  private final double[] sums;
 
   private GraphName frame;
   private FloatBuffer vertexFrontBuffer;
@@ -60,6 +60,14 @@ public class PointCloud2DLayer extends SubscriberLayer<PointCloud2> implements T
   public PointCloud2DLayer(GraphName topicName) {
     super(topicName, PointCloud2._TYPE);
     mutex = new Object();
+    decoder = new ParallelPointCloud2Decoder();
+    sums = new double[PointCloud2Decoder.SUMS_SIZE];
+  }
+
+  @Override
+  public void init(NodeMainExecutor nodeMainExecutor) {
+    super.init(nodeMainExecutor);
+    decoder.setExecutorService(nodeMainExecutor.getScheduledExecutorService());
   }
 
   @Override
@@ -90,19 +98,8 @@ public class PointCloud2DLayer extends SubscriberLayer<PointCloud2> implements T
   }
 
   private void updateVertexBuffer(final PointCloud2 pointCloud) {
-    // We expect an unordered, XYZ point cloud of 32-bit floats (i.e. the result of
-    // pcl::toROSMsg()).
-    // TODO(damonkohler): Make this more generic.
-    Preconditions.checkArgument(pointCloud.getHeight() == 1);
-    Preconditions.checkArgument(pointCloud.getIsDense());
-    Preconditions.checkArgument(pointCloud.getFields().size() == 3);
-    Preconditions.checkArgument(pointCloud.getFields().get(0).getDatatype() == PointField.FLOAT32);
-    Preconditions.checkArgument(pointCloud.getFields().get(1).getDatatype() == PointField.FLOAT32);
-    Preconditions.checkArgument(pointCloud.getFields().get(2).getDatatype() == PointField.FLOAT32);
-    Preconditions.checkArgument(pointCloud.getPointStep() == 16);
-    Preconditions.checkArgument(pointCloud.getData().order().equals(ByteOrder.LITTLE_ENDIAN));
-    final int size = (pointCloud.getRowStep() / pointCloud.getPointStep() +
-        1 /* triangle fan origin */) * 3 /* x, y, z */;
+    final int numPoints = PointCloud2Decoder.getNumOfPoints(pointCloud);
+    final int size = (numPoints + 1 /* triangle fan origin */) * 3 /* x, y, z */;
     if (vertexBackBuffer == null || vertexBackBuffer.capacity() < size) {
       vertexBackBuffer = Vertices.allocateBuffer(size);
     }
@@ -112,17 +109,15 @@ public class PointCloud2DLayer extends SubscriberLayer<PointCloud2> implements T
     vertexBackBuffer.put(0.f);
     vertexBackBuffer.put(0.f);
 
-    final ChannelBuffer buffer = pointCloud.getData();
-    while (buffer.readable()) {
-      vertexBackBuffer.put(buffer.readFloat());
-      vertexBackBuffer.put(buffer.readFloat());
-      vertexBackBuffer.put(0.f);
-      // Discard z data.
-      buffer.readFloat();
-      // Discard intensity.
-      buffer.readFloat();
+    // The points are decoded right after the triangle fan origin.
+    final FloatBuffer points = vertexBackBuffer.slice();
+    decoder.decode(pointCloud, points, null, sums);
+    // Discard z data.
+    for (int i = 2; i < numPoints * 3; i += 3) {
+      points.put(i, 0.f);
     }
     vertexBackBuffer.position(0);
+    vertexBackBuffer.limit(size);
     synchronized (mutex) {
       FloatBuffer tmp = vertexFrontBuffer;
       vertexFrontBuffer = vertexBackBuffer;
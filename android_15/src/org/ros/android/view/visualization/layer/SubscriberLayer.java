@@ -19,40 +19,163 @@ package org.ros.android.view.visualization.layer;
 import com.google.common.base.Preconditions;
 
 import org.ros.android.view.visualization.VisualizationView;
+import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.Node;
 import org.ros.node.topic.Subscriber;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * @author damonkohler@google.com (Damon Kohler)
  */
 public class SubscriberLayer<T> extends DefaultLayer {
 
+  /**
+   * Hands only the most recent message to the wrapped listener. Messages that
+   * arrive while the worker is busy replace the pending one, which is dropped
+   * without being processed.
+   */
+  private final class LatestMessageListener implements MessageListener<T> {
+
+    private final MessageListener<T> listener;
+    private final ExecutorService executorService;
+    private final AtomicReference<T> mailbox;
+    private final Runnable worker;
+
+    public LatestMessageListener(MessageListener<T> listener, ExecutorService executorService) {
+      this.listener = listener;
+      this.executorService = executorService;
+      mailbox = new AtomicReference<T>();
+      worker = new Runnable() {
+        @Override
+        public void run() {
+          T message = mailbox.getAndSet(null);
+          if (message != null) {
+            LatestMessageListener.this.listener.onNewMessage(message);
+          }
+        }
+      };
+    }
+
+    @Override
+    public void onNewMessage(T message) {
+      if (mailbox.getAndSet(message) == null) {
+        try {
+          executorService.execute(worker);
+        } catch (RejectedExecutionException e) {
+          // The layer is shutting down.
+        }
+      } else {
+        droppedMessageCount.incrementAndGet();
+      }
+    }
+  }
+
   private final GraphName topicName;
   private final String messageType;
+  private final AtomicLong droppedMessageCount;
 
   private Subscriber<T> subscriber;
+  private volatile boolean latestOnly;
+  private volatile ExecutorService latestOnlyExecutorService;
 
   public SubscriberLayer(GraphName topicName, String messageType) {
     this.topicName = topicName;
     this.messageType = messageType;
+    droppedMessageCount = new AtomicLong();
+    latestOnly = false;
   }
 
   @Override
   public void onStart(VisualizationView view, ConnectedNode connectedNode) {
     super.onStart(view, connectedNode);
+    if (latestOnly) {
+      latestOnlyExecutorService = Executors.newSingleThreadExecutor();
+    }
     subscriber = connectedNode.newSubscriber(topicName, messageType);
   }
 
   @Override
   public void onShutdown(VisualizationView view, Node node) {
     subscriber.shutdown();
+    if (latestOnlyExecutorService != null) {
+      latestOnlyExecutorService.shutdownNow();
+      latestOnlyExecutorService = null;
+    }
     super.onShutdown(view, node);
   }
 
+  /**
+   * Runs {@code runnable} after the messages that were handed to the layer's
+   * listeners so far. In latest-only mode, it is run on the worker thread,
+   * after the pending message if there is one, and dropped if the layer isn't
+   * running, so that it never runs alongside the worker. Otherwise it is run
+   * right away.
+   */
+  protected void executeAfterMessages(Runnable runnable) {
+    if (!latestOnly) {
+      runnable.run();
+      return;
+    }
+    final ExecutorService executorService = latestOnlyExecutorService;
+    if (executorService == null) {
+      return;
+    }
+    try {
+      executorService.execute(runnable);
+    } catch (RejectedExecutionException e) {
+      // The layer is shutting down.
+    }
+  }
+
   public Subscriber<T> getSubscriber() {
     Preconditions.checkNotNull(subscriber);
     return subscriber;
   }
+
+  /**
+   * Adds a listener to the layer's {@link Subscriber}.
+   * <p/>
+   * In latest-only mode, the listener is called on a dedicated worker thread
+   * and only ever sees the most recent message; messages that are superseded
+   * before the worker gets to them are dropped.
+   *
+   * @see #setLatestOnly(boolean)
+   */
+  protected void addMessageListener(MessageListener<T> listener) {
+    if (latestOnly) {
+      getSubscriber().addMessageListener(new LatestMessageListener(listener, latestOnlyExecutorService));
+    } else {
+      getSubscriber().addMessageListener(listener);
+    }
+  }
+
+  /**
+   * Enables or disables latest-only mode. Must be called before the layer is
+   * started.
+   *
+   * @see #addMessageListener(MessageListener)
+   */
+  public void setLatestOnly(boolean latestOnly) {
+    Preconditions.checkState(subscriber == null, "The layer has already been started.");
+    this.latestOnly = latestOnly;
+  }
+
+  public boolean isLatestOnly() {
+    return latestOnly;
+  }
+
+  /**
+   * @return the number of messages dropped in latest-only mode because a newer
+   *         message arrived before they were processed
+   */
+  public long getDroppedMessageCount() {
+    return droppedMessageCount.get();
+  }
 }
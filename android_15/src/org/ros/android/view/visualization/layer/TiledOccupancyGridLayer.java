@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.visualization.layer;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.ros.android.view.visualization.map_utils.CellColorMap;
+import org.ros.android.view.visualization.map_utils.TiledMapStitcher;
+import org.ros.namespace.GraphName;
+
+import java.util.Arrays;
+
+/**
+ * Draws maps relayed by the tiled map transport, whose messages only carry the
+ * tiles of the map that changed.
+ * <p/>
+ * The tiles are stitched into a copy of the whole map, which is then drawn
+ * like any other map by {@link OccupancyGridLayer}. Tiles are lossless, so
+ * the map is drawn at full resolution.
+ * <p/>
+ * Each message names the codec of its tiles, PNG images, runs of cells or
+ * deflated cells, so whichever the transport uses is decoded, see
+ * {@link TiledMapStitcher}.
+ */
+public class TiledOccupancyGridLayer extends OccupancyGridLayer {
+
+  private static final String TAG = "TiledOccupancyGridLayer";
+
+  private final BitmapFactory.Options decodeOptions;
+  private final TiledMapStitcher stitcher;
+
+  /**
+   * The stitched map.
+   */
+  private byte[] map;
+  private int mapWidth;
+  private int mapHeight;
+
+  private byte[] data;
+  private int[] row;
+
+  /**
+   * The last decoded tile, which the next tile is decoded into if it has the
+   * same size.
+   */
+  private Bitmap bitmap;
+
+  public TiledOccupancyGridLayer(String topic) {
+    this(GraphName.of(topic));
+  }
+
+  public TiledOccupancyGridLayer(GraphName topic) {
+    super(topic, null);
+    decodeOptions = new BitmapFactory.Options();
+    decodeOptions.inMutable = true;
+    decodeOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    stitcher = new TiledMapStitcher(new TiledMapStitcher.TileDecoder() {
+      @Override
+      public boolean decode(byte[] data, int offset, int length, byte[] map, int mapWidth, int x,
+          int y, int width, int height) {
+        return decodePng(data, offset, length, map, mapWidth, x, y, width, height);
+      }
+    });
+    map = new byte[0];
+    data = new byte[0];
+    row = new int[0];
+    // Every message only carries the tiles that changed since the previous
+    // one, so none should be skipped. Lost ones are found by the stitcher,
+    // which marks the tiles stale until the next key frame.
+    setLatestOnly(false);
+  }
+
+  @Override
+  protected int readCells(nav_msgs.OccupancyGrid message, byte[] cells) {
+    final int width = message.getInfo().getWidth();
+    final int height = message.getInfo().getHeight();
+    if (width != mapWidth || height != mapHeight) {
+      // The transport sends all tiles after the map's size changed.
+      mapWidth = width;
+      mapHeight = height;
+      map = new byte[width * height];
+      Arrays.fill(map, CellColorMap.UNKNOWN);
+    }
+    final ChannelBuffer buffer = message.getData();
+    final int length = buffer.readableBytes();
+    if (data.length < length) {
+      data = new byte[length];
+    }
+    buffer.getBytes(buffer.readerIndex(), data, 0, length);
+    if (!stitcher.stitch(data, length, map, mapWidth, mapHeight)) {
+      Log.w(TAG, "Dropping malformed tiles.");
+    }
+    System.arraycopy(map, 0, cells, 0, map.length);
+    // The map keeps the stale cells, as the next delta may not replace them.
+    stitcher.fillStaleTiles(cells, mapWidth, mapHeight, CellColorMap.UNKNOWN);
+    return map.length;
+  }
+
+  private boolean decodePng(byte[] data, int offset, int length, byte[] map, int mapWidth, int x,
+      int y, int width, int height) {
+    decodeOptions.inBitmap = bitmap;
+    Bitmap decoded;
+    try {
+      decoded = BitmapFactory.decodeByteArray(data, offset, length, decodeOptions);
+    } catch (IllegalArgumentException e) {
+      // Tiles at the map's edge are smaller, so the bitmap can't be reused.
+      decodeOptions.inBitmap = null;
+      decoded = BitmapFactory.decodeByteArray(data, offset, length, decodeOptions);
+    }
+    decodeOptions.inBitmap = null;
+    if (decoded == null || decoded.getWidth() != width || decoded.getHeight() != height) {
+      return false;
+    }
+    bitmap = decoded;
+    if (row.length < width) {
+      row = new int[width];
+    }
+    for (int i = 0; i < height; i++) {
+      bitmap.getPixels(row, 0, width, 0, i, width, 1);
+      final int rowStart = (y + i) * mapWidth + x;
+      for (int j = 0; j < width; j++) {
+        // Gray values are the cells' bytes, so any channel will do.
+        map[rowStart + j] = (byte) row[j];
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,121 @@
+package org.ros.android.view.visualization.map_utils;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.android.view.visualization.TextureBitmap;
+
+/**
+ * Colors of occupancy grid cells, as a lookup table indexed by the cell's byte.
+ * <p/>
+ * Cells hold -1 for unknown, and 0 (free) to 100 (occupied) otherwise. Other values are colored by
+ * the threshold in three color maps, and as unknown in gradients.
+ */
+public class CellColorMap {
+	public static final int SIZE = 256;
+	public static final byte UNKNOWN = -1;
+	public static final int MAX_COST = 100;
+
+	/**
+	 * Free, occupied and unknown cells in three grays, as OccupancyGridLayer always drew them.
+	 */
+	public static final CellColorMap THREE_COLORS = threeColors(0xffffffff, 0xff111111, 0xffdddddd, 50);
+
+	/**
+	 * A gradient from free to lethal cost, for costmaps.
+	 */
+	public static final CellColorMap COST_GRADIENT = gradient(new int[] {
+			0xffffffff, 0xff3fb8f0, 0xff32c850, 0xfff0e030, 0xfff08020, 0xffd02020, 0xff700070}, 0xffdddddd);
+
+	private final int[] colors;
+	private final int[][] texels; //by format.
+
+	private CellColorMap(int[] colors) {
+		this.colors = colors;
+		final TextureBitmap.Format[] formats = TextureBitmap.Format.values();
+		texels = new int[formats.length][SIZE];
+		for (TextureBitmap.Format format : formats) {
+			for (int i = 0; i < SIZE; i++) {
+				texels[format.ordinal()][i] = format.toTexel(colors[i]);
+			}
+		}
+	}
+
+	/**
+	 * @param colors ARGB colors for each cell value from 0 to 255, i.e. of (cell & 0xff).
+	 */
+	public static CellColorMap fromArgb(int[] colors) {
+		Preconditions.checkArgument(colors.length == SIZE);
+		return new CellColorMap(colors.clone());
+	}
+
+	/**
+	 * Cells below the threshold are free, the others except unknown are occupied. Negative cells other
+	 * than unknown are free.
+	 */
+	public static CellColorMap threeColors(int free, int occupied, int unknown, int threshold) {
+		final int[] colors = new int[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			final byte cell = (byte) i;
+			if (cell == UNKNOWN) {
+				colors[i] = unknown;
+			} else {
+				colors[i] = cell < threshold ? free : occupied;
+			}
+		}
+		return new CellColorMap(colors);
+	}
+
+	/**
+	 * Interpolates the given ARGB colors evenly over the costs from 0 to 100.
+	 */
+	public static CellColorMap gradient(int[] stops, int unknown) {
+		Preconditions.checkArgument(stops.length >= 2);
+		final int[] colors = new int[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			final byte cell = (byte) i;
+			if (cell < 0 || cell > MAX_COST) {
+				colors[i] = unknown;
+				continue;
+			}
+			final float position = cell * (stops.length - 1) / (float) MAX_COST;
+			final int stop = Math.min((int) position, stops.length - 2);
+			colors[i] = interpolate(stops[stop], stops[stop + 1], position - stop);
+		}
+		return new CellColorMap(colors);
+	}
+
+	private static int interpolate(int from, int to, float t) {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			final int a = (from >>> shift) & 0xff;
+			final int b = (to >>> shift) & 0xff;
+			result |= Math.round(a + (b - a) * t) << shift;
+		}
+		return result;
+	}
+
+	/**
+	 * @return The ARGB color of a cell.
+	 */
+	public int getColor(byte cell) {
+		return colors[cell & 0xff];
+	}
+
+	/**
+	 * @return The table of texels in the given format (see {@link TextureBitmap.Format#toTexel(int)}),
+	 * indexed by (cell & 0xff). Must not be modified.
+	 */
+	public int[] getTexels(TextureBitmap.Format format) {
+		return texels[format.ordinal()];
+	}
+
+	/**
+	 * Converts count cells to ARGB colors.
+	 */
+	public void toColors(byte[] cells, int offset, int[] result, int resultOffset, int count) {
+		final int[] colors = this.colors;
+		for (int i = 0; i < count; i++) {
+			result[resultOffset + i] = colors[cells[offset + i] & 0xff];
+		}
+	}
+}
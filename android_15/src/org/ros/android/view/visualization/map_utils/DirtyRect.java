@@ -0,0 +1,61 @@
+package org.ros.android.view.visualization.map_utils;
+
+/**
+ * The bounding rectangle of the changed pixels of an image. Empty until a region is added.
+ */
+public class DirtyRect {
+	private int minX;
+	private int minY;
+	private int maxX; //exclusive.
+	private int maxY; //exclusive.
+
+	public DirtyRect() {
+		clear();
+	}
+
+	public void clear() {
+		minX = Integer.MAX_VALUE;
+		minY = Integer.MAX_VALUE;
+		maxX = Integer.MIN_VALUE;
+		maxY = Integer.MIN_VALUE;
+	}
+
+	public boolean isEmpty() {
+		return maxX <= minX || maxY <= minY;
+	}
+
+	/**
+	 * Grows the rectangle to cover the given region.
+	 */
+	public void add(int x, int y, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		minX = Math.min(minX, x);
+		minY = Math.min(minY, y);
+		maxX = Math.max(maxX, x + width);
+		maxY = Math.max(maxY, y + height);
+	}
+
+	public void add(DirtyRect other) {
+		if (!other.isEmpty()) {
+			add(other.minX, other.minY, other.getWidth(), other.getHeight());
+		}
+	}
+
+	public int getX() {
+		return minX;
+	}
+
+	public int getY() {
+		return minY;
+	}
+
+	public int getWidth() {
+		return isEmpty() ? 0 : maxX - minX;
+	}
+
+	public int getHeight() {
+		return isEmpty() ? 0 : maxY - minY;
+	}
+}
@@ -0,0 +1,50 @@
+package org.ros.android.view.visualization.map_utils;
+
+/**
+ * Halves the resolution of occupancy grids.
+ * <p/>
+ * Each cell of the result is the maximum of the 2x2 cells it covers. As unknown is -1 and free is 0,
+ * occupied cells win over free ones, and free ones over unknown ones, so thin walls survive any
+ * number of levels.
+ */
+public class GridDownsampler {
+	private GridDownsampler() {
+	}
+
+	/**
+	 * @return The size of the halved grid along an axis of the given size.
+	 */
+	public static int halve(int size) {
+		return (size + 1) / 2;
+	}
+
+	/**
+	 * Recomputes the rectangle x, y, width, height (in cells of the target) of the halved grid.
+	 */
+	public static void maxPool(byte[] source, int sourceWidth, int sourceHeight,
+	                           byte[] target, int targetWidth, int x, int y, int width, int height) {
+		for (int targetY = y; targetY < y + height; targetY++) {
+			final int sourceY = targetY * 2;
+			final boolean lastRow = sourceY + 1 >= sourceHeight;
+			for (int targetX = x; targetX < x + width; targetX++) {
+				final int sourceX = targetX * 2;
+				final int index = sourceY * sourceWidth + sourceX;
+				byte value = source[index];
+				if (sourceX + 1 < sourceWidth) {
+					value = max(value, source[index + 1]);
+					if (!lastRow) {
+						value = max(value, source[index + sourceWidth + 1]);
+					}
+				}
+				if (!lastRow) {
+					value = max(value, source[index + sourceWidth]);
+				}
+				target[targetY * targetWidth + targetX] = value;
+			}
+		}
+	}
+
+	private static byte max(byte a, byte b) {
+		return a > b ? a : b;
+	}
+}
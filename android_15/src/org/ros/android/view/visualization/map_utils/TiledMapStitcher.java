@@ -0,0 +1,263 @@
+package org.ros.android.view.visualization.map_utils;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the payloads of the tiled map transport into a whole map.
+ * <p/>
+ * The format is TiledMapFormat in compressed_map_transport, whose codecs are decoded the same way as
+ * there. TiledMapStitcherTest and the transport's TiledMapFormatTest decode the same payloads, so the
+ * two copies can't drift apart.
+ * <p/>
+ * Payloads which aren't key frames only carry the tiles that changed, so when one is lost, by the sequence
+ * numbers, the tiles it may have changed are unknown. Until the next key frame, every tile which wasn't
+ * sent since is marked stale. Not thread safe.
+ */
+public class TiledMapStitcher {
+	public static final int MAGIC = 0x544d4150; //"TMAP"
+	public static final int VERSION = 2;
+	public static final int CODEC_PNG = 0;
+	public static final int CODEC_RUN_LENGTH = 1;
+	public static final int CODEC_DEFLATE = 2;
+	public static final int FLAG_KEY_FRAME = 1;
+	public static final int HEADER_LENGTH = 4 + 1 + 1 + 1 + 5 * 4;
+	public static final int TILE_HEADER_LENGTH = 3 * 4;
+
+	/**
+	 * Decodes the tiles of a codec that needs the platform, e.g. PNG images.
+	 */
+	public interface TileDecoder {
+		/**
+		 * Decodes the tile in data[offset, offset + length) into the given rectangle of the map.
+		 *
+		 * @return false if the tile is malformed.
+		 */
+		boolean decode(byte[] data, int offset, int length, byte[] map, int mapWidth, int x, int y, int width,
+		               int height);
+	}
+
+	private final TileDecoder pngDecoder;
+
+	/**
+	 * Reset for every tile, and never ended: a payload may still be decoded while its layer shuts down, or
+	 * after it is started again.
+	 */
+	private final Inflater inflater;
+	private final byte[] extraCell = new byte[1];
+
+	private boolean synced; //all tiles are up to date as of sequence.
+	private int sequence;
+	private boolean[] stale; //per tile, row by row.
+	private int tilesWidth; //in tiles.
+	private int staleMapWidth;
+	private int staleMapHeight;
+	private int staleTileSize;
+
+	/**
+	 * @param pngDecoder Decodes PNG tiles, or null if they are dropped as malformed.
+	 */
+	public TiledMapStitcher(TileDecoder pngDecoder) {
+		this.pngDecoder = pngDecoder;
+		inflater = new Inflater();
+	}
+
+	/**
+	 * @return true if no payload was lost or malformed since the last key frame, so no tile is stale.
+	 */
+	public boolean isSynced() {
+		return synced;
+	}
+
+	/**
+	 * Decodes the tiles in data[0, length) into the map. Cells of tiles that aren't in the payload are left
+	 * as they are.
+	 *
+	 * @return false if the payload is malformed or for another map size. Tiles before the malformed one
+	 * are decoded, and all others are stale until the next key frame.
+	 */
+	public boolean stitch(byte[] data, int length, byte[] map, int mapWidth, int mapHeight) {
+		if (length < HEADER_LENGTH || readInt(data, 0) != MAGIC || data[4] != VERSION
+				|| readInt(data, 11) != mapWidth || readInt(data, 15) != mapHeight
+				|| map.length < mapWidth * mapHeight || readInt(data, 19) <= 0) {
+			loseSync();
+			return false;
+		}
+		final int codec = data[5];
+		final boolean keyFrame = (data[6] & FLAG_KEY_FRAME) != 0;
+		final int payloadSequence = readInt(data, 7);
+		final int tileSize = readInt(data, 19);
+		final int numTiles = readInt(data, 23);
+		if (mapWidth != staleMapWidth || mapHeight != staleMapHeight || tileSize != staleTileSize
+				|| stale == null) {
+			staleMapWidth = mapWidth;
+			staleMapHeight = mapHeight;
+			staleTileSize = tileSize;
+			tilesWidth = (int) (((long) mapWidth + tileSize - 1) / tileSize);
+			stale = new boolean[tilesWidth * (int) (((long) mapHeight + tileSize - 1) / tileSize)];
+			loseSync();
+		}
+		if (!keyFrame && payloadSequence != sequence + 1) {
+			//the deltas in between are lost.
+			loseSync();
+		}
+		sequence = payloadSequence;
+		int position = HEADER_LENGTH;
+		for (int i = 0; i < numTiles; i++) {
+			if (length - position < TILE_HEADER_LENGTH) {
+				loseSync();
+				return false;
+			}
+			final long x = (long) readInt(data, position) * tileSize;
+			final long y = (long) readInt(data, position + 4) * tileSize;
+			final int tileLength = readInt(data, position + 8);
+			position += TILE_HEADER_LENGTH;
+			if (x < 0 || y < 0 || x >= mapWidth || y >= mapHeight || tileLength < 0
+					|| tileLength > length - position) {
+				loseSync();
+				return false;
+			}
+			final int tileX = (int) x;
+			final int tileY = (int) y;
+			final int tileWidth = Math.min(tileSize, mapWidth - tileX);
+			final int tileHeight = Math.min(tileSize, mapHeight - tileY);
+			final boolean decoded;
+			switch (codec) {
+				case CODEC_PNG:
+					decoded = pngDecoder != null && pngDecoder.decode(data, position, tileLength, map, mapWidth,
+							tileX, tileY, tileWidth, tileHeight);
+					break;
+				case CODEC_RUN_LENGTH:
+					decoded = decodeRuns(data, position, tileLength, map, mapWidth, tileX, tileY, tileWidth,
+							tileHeight);
+					break;
+				case CODEC_DEFLATE:
+					decoded = inflate(data, position, tileLength, map, mapWidth, tileX, tileY, tileWidth,
+							tileHeight);
+					break;
+				default:
+					decoded = false;
+			}
+			if (!decoded) {
+				loseSync();
+				return false;
+			}
+			stale[tileY / tileSize * tilesWidth + tileX / tileSize] = false;
+			position += tileLength;
+		}
+		if (keyFrame) {
+			synced = true;
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the cells of the stale tiles to value, e.g. to draw them as unknown.
+	 */
+	public void fillStaleTiles(byte[] cells, int mapWidth, int mapHeight, byte value) {
+		if (synced || stale == null || mapWidth != staleMapWidth || mapHeight != staleMapHeight) {
+			return;
+		}
+		for (int i = 0; i < stale.length; i++) {
+			if (stale[i]) {
+				final int x = i % tilesWidth * staleTileSize;
+				final int y = i / tilesWidth * staleTileSize;
+				final int width = Math.min(staleTileSize, mapWidth - x);
+				final int height = Math.min(staleTileSize, mapHeight - y);
+				for (int row = y; row < y + height; row++) {
+					Arrays.fill(cells, row * mapWidth + x, row * mapWidth + x + width, value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks all tiles stale, as some may have changed in a lost or malformed payload.
+	 */
+	private void loseSync() {
+		synced = false;
+		if (stale != null) {
+			Arrays.fill(stale, true);
+		}
+	}
+
+	/**
+	 * Decodes runs of cells, each the cell's byte followed by the length of the run as an unsigned LEB128
+	 * varint.
+	 */
+	private static boolean decodeRuns(byte[] data, int offset, int length, byte[] map, int mapWidth, int x,
+	                                  int y, int width, int height) {
+		final int end = offset + length;
+		int position = offset;
+		int tileRow = 0;
+		int column = 0;
+		while (tileRow < height) {
+			if (position >= end) {
+				return false;
+			}
+			final byte value = data[position++];
+			int runLength = 0;
+			for (int shift = 0; ; shift += 7) {
+				if (position >= end || shift > 28) {
+					return false;
+				}
+				final int b = data[position++];
+				runLength |= (b & 0x7f) << shift;
+				if (b >= 0) {
+					break;
+				}
+			}
+			while (runLength > 0) {
+				if (tileRow >= height) {
+					return false;
+				}
+				final int count = Math.min(runLength, width - column);
+				final int start = (y + tileRow) * mapWidth + x + column;
+				Arrays.fill(map, start, start + count, value);
+				runLength -= count;
+				column += count;
+				if (column == width) {
+					column = 0;
+					tileRow++;
+				}
+			}
+		}
+		return position == end;
+	}
+
+	/**
+	 * Inflates zlib compressed cells, row by row.
+	 */
+	private boolean inflate(byte[] data, int offset, int length, byte[] map, int mapWidth, int x, int y,
+	                        int width, int height) {
+		inflater.reset();
+		inflater.setInput(data, offset, length);
+		try {
+			for (int row = y; row < y + height; row++) {
+				final int rowStart = row * mapWidth + x;
+				int inflated = 0;
+				while (inflated < width) {
+					final int count = inflater.inflate(map, rowStart + inflated, width - inflated);
+					if (count == 0
+							&& (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+						return false;
+					}
+					inflated += count;
+				}
+			}
+			//a tile with more cells than its rectangle isn't the tile that was meant.
+			if (!inflater.finished() && inflater.inflate(extraCell) > 0) {
+				return false;
+			}
+		} catch (DataFormatException e) {
+			return false;
+		}
+		return true;
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16
+				| (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+	}
+}
@@ -0,0 +1,108 @@
+package org.ros.android.view.visualization.pcd_utils;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Maps scalar values (e.g. intensities) to packed RGBA8 colors, through a 256-entry look up table.
+ * <p/>
+ * The table entries are packed so that a single putInt on a native order ByteBuffer writes r, g, b, a,
+ * which is the layout expected by glColorPointer(4, GL_UNSIGNED_BYTE, ...).
+ */
+public class ColorMap {
+	public static final int SIZE = 256;
+
+	public static final ColorMap GRAY = new ColorMap(grayTable());
+	public static final ColorMap JET = new ColorMap(jetTable());
+	public static final ColorMap TURBO = new ColorMap(turboTable());
+
+	private final int[] lut;
+
+	/**
+	 * @param argb 256 colors in android's 0xAARRGGBB format, for values from low to high.
+	 */
+	public static ColorMap fromArgb(int[] argb) {
+		Preconditions.checkArgument(argb.length == SIZE, "A color map must hold " + SIZE + " colors.");
+		return new ColorMap(argb);
+	}
+
+	private ColorMap(int[] argb) {
+		final boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+		lut = new int[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			final int a = (argb[i] >>> 24) & 0xff;
+			final int r = (argb[i] >>> 16) & 0xff;
+			final int g = (argb[i] >>> 8) & 0xff;
+			final int b = argb[i] & 0xff;
+			lut[i] = littleEndian ? (a << 24) | (b << 16) | (g << 8) | r : (r << 24) | (g << 16) | (b << 8) | a;
+		}
+	}
+
+	/**
+	 * Writes the colors of the first count values into colors, 4 bytes per value, using absolute puts.
+	 * Values at or below min get the first color, values at or above max get the last one.
+	 *
+	 * @param colors A native order buffer, holding at least 4 bytes per value.
+	 */
+	public void map(FloatBuffer values, int count, float min, float max, ByteBuffer colors) {
+		Preconditions.checkArgument(max > min);
+		Preconditions.checkArgument(colors.order() == ByteOrder.nativeOrder(), "Colors must be in native order.");
+		final float scale = (SIZE - 1) / (max - min);
+		for (int i = 0; i < count; i++) {
+			//NaN casts to 0, the lowest color.
+			int index = (int) ((values.get(i) - min) * scale + 0.5f);
+			if (index < 0) {
+				index = 0;
+			} else if (index >= SIZE) {
+				index = SIZE - 1;
+			}
+			colors.putInt(i * 4, lut[index]);
+		}
+	}
+
+	private static int[] grayTable() {
+		int[] argb = new int[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			argb[i] = 0xff000000 | (i << 16) | (i << 8) | i;
+		}
+		return argb;
+	}
+
+	private static int[] jetTable() {
+		int[] argb = new int[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			final float x = i / (float) (SIZE - 1);
+			argb[i] = toArgb(1.5f - Math.abs(4 * x - 3), 1.5f - Math.abs(4 * x - 2), 1.5f - Math.abs(4 * x - 1));
+		}
+		return argb;
+	}
+
+	/**
+	 * Google's Turbo colormap, from its polynomial approximation.
+	 */
+	private static int[] turboTable() {
+		int[] argb = new int[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			final float x = i / (float) (SIZE - 1);
+			final float r = 0.13572138f + x * (4.61539260f + x * (-42.66032258f + x * (132.13108234f
+					+ x * (-152.94239396f + x * 59.28637943f))));
+			final float g = 0.09140261f + x * (2.19418839f + x * (4.84296658f + x * (-14.18503333f
+					+ x * (4.27729857f + x * 2.82956604f))));
+			final float b = 0.10667330f + x * (12.64194608f + x * (-60.58204836f + x * (110.36276771f
+					+ x * (-89.90310912f + x * 27.34824973f))));
+			argb[i] = toArgb(r, g, b);
+		}
+		return argb;
+	}
+
+	private static int toArgb(float r, float g, float b) {
+		return 0xff000000 | (toByte(r) << 16) | (toByte(g) << 8) | toByte(b);
+	}
+
+	private static int toByte(float value) {
+		return Math.round(Math.min(Math.max(value, 0f), 1f) * 255);
+	}
+}
@@ -0,0 +1,164 @@
+package org.ros.android.view.visualization.pcd_utils;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Reorders a decoded point cloud so that every prefix of it is a spatially uniform subsample.
+ * <p/>
+ * The points are sorted along a Morton (Z-order) curve over the cloud's bounding box, and then taken
+ * in bit-reversed order of their position on the curve: the first 2^k points are evenly spaced along
+ * the curve, and so are spread over the whole cloud. Drawing the first n points is then a level of
+ * detail of the whole cloud, for any n.
+ * <p/>
+ * All the work arrays are reused between clouds.
+ */
+public class MortonOrder {
+	private static final int BITS_PER_AXIS = 10;
+	private static final int MAX_CELL = (1 << BITS_PER_AXIS) - 1;
+	private static final int RADIX_BITS = 10;
+	private static final int RADIX_PASSES = 3; //3 * BITS_PER_AXIS bits in a code.
+
+	private int[] codes = new int[0];
+	private int[] indexes = new int[0];
+	private int[] scratchCodes = new int[0];
+	private int[] scratchIndexes = new int[0];
+	private final int[] bucketStarts = new int[1 << RADIX_BITS];
+	private float[] scratchVertices = new float[0];
+	private float[] scratchIntensities = new float[0];
+
+	/**
+	 * Reorders the first numOfPoints points in place.
+	 *
+	 * @param vertices    x, y, z for each point.
+	 * @param intensities One intensity for each point, kept with its point. May be null.
+	 */
+	public void sort(FloatBuffer vertices, FloatBuffer intensities, int numOfPoints) {
+		if (numOfPoints < 2) {
+			return;
+		}
+		ensureCapacity(numOfPoints);
+		computeCodes(vertices, numOfPoints);
+		radixSort(numOfPoints);
+
+		for (int i = 0; i < numOfPoints * 3; i++) {
+			scratchVertices[i] = vertices.get(i);
+		}
+		if (intensities != null) {
+			for (int i = 0; i < numOfPoints; i++) {
+				scratchIntensities[i] = intensities.get(i);
+			}
+		}
+
+		//walk the sorted points in bit-reversed order, skipping the positions past the end.
+		final int bits = 32 - Integer.numberOfLeadingZeros(numOfPoints - 1);
+		final int size = 1 << bits;
+		int destination = 0;
+		for (int k = 0; k < size; k++) {
+			final int position = Integer.reverse(k) >>> (32 - bits);
+			if (position >= numOfPoints) {
+				continue;
+			}
+			final int source = indexes[position];
+			vertices.put(destination * 3, scratchVertices[source * 3]);
+			vertices.put(destination * 3 + 1, scratchVertices[source * 3 + 1]);
+			vertices.put(destination * 3 + 2, scratchVertices[source * 3 + 2]);
+			if (intensities != null) {
+				intensities.put(destination, scratchIntensities[source]);
+			}
+			destination++;
+		}
+	}
+
+	private void computeCodes(FloatBuffer vertices, int numOfPoints) {
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+		for (int i = 0; i < numOfPoints; i++) {
+			final float x = vertices.get(i * 3);
+			final float y = vertices.get(i * 3 + 1);
+			final float z = vertices.get(i * 3 + 2);
+			//comparisons with NaN are false, so NaN points don't move the bounds.
+			if (x < minX) minX = x;
+			if (x > maxX) maxX = x;
+			if (y < minY) minY = y;
+			if (y > maxY) maxY = y;
+			if (z < minZ) minZ = z;
+			if (z > maxZ) maxZ = z;
+		}
+		final float scaleX = scale(minX, maxX);
+		final float scaleY = scale(minY, maxY);
+		final float scaleZ = scale(minZ, maxZ);
+
+		for (int i = 0; i < numOfPoints; i++) {
+			final int cellX = cell((vertices.get(i * 3) - minX) * scaleX);
+			final int cellY = cell((vertices.get(i * 3 + 1) - minY) * scaleY);
+			final int cellZ = cell((vertices.get(i * 3 + 2) - minZ) * scaleZ);
+			codes[i] = spread(cellX) | (spread(cellY) << 1) | (spread(cellZ) << 2);
+			indexes[i] = i;
+		}
+	}
+
+	/**
+	 * Least significant digit radix sort of codes, carrying indexes along.
+	 */
+	private void radixSort(int numOfPoints) {
+		final int mask = (1 << RADIX_BITS) - 1;
+		for (int pass = 0; pass < RADIX_PASSES; pass++) {
+			final int shift = pass * RADIX_BITS;
+			Arrays.fill(bucketStarts, 0);
+			for (int i = 0; i < numOfPoints; i++) {
+				bucketStarts[(codes[i] >>> shift) & mask]++;
+			}
+			int start = 0;
+			for (int bucket = 0; bucket < bucketStarts.length; bucket++) {
+				final int count = bucketStarts[bucket];
+				bucketStarts[bucket] = start;
+				start += count;
+			}
+			for (int i = 0; i < numOfPoints; i++) {
+				final int target = bucketStarts[(codes[i] >>> shift) & mask]++;
+				scratchCodes[target] = codes[i];
+				scratchIndexes[target] = indexes[i];
+			}
+
+			int[] tmp = codes;
+			codes = scratchCodes;
+			scratchCodes = tmp;
+			tmp = indexes;
+			indexes = scratchIndexes;
+			scratchIndexes = tmp;
+		}
+	}
+
+	private void ensureCapacity(int numOfPoints) {
+		if (codes.length < numOfPoints) {
+			codes = new int[numOfPoints];
+			indexes = new int[numOfPoints];
+			scratchCodes = new int[numOfPoints];
+			scratchIndexes = new int[numOfPoints];
+			scratchIntensities = new float[numOfPoints];
+			scratchVertices = new float[numOfPoints * 3];
+		}
+	}
+
+	private static float scale(float min, float max) {
+		return max > min ? MAX_CELL / (max - min) : 0f;
+	}
+
+	private static int cell(float value) {
+		//NaN casts to 0.
+		final int cell = (int) value;
+		return cell < 0 ? 0 : (cell > MAX_CELL ? MAX_CELL : cell);
+	}
+
+	/**
+	 * Spreads the 10 low bits of value, so there are two zero bits between each of them.
+	 */
+	private static int spread(int value) {
+		value = (value | (value << 16)) & 0x030000FF;
+		value = (value | (value << 8)) & 0x0300F00F;
+		value = (value | (value << 4)) & 0x030C30C3;
+		value = (value | (value << 2)) & 0x09249249;
+		return value;
+	}
+}
@@ -0,0 +1,123 @@
+package org.ros.android.view.visualization.pcd_utils;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.exception.RosRuntimeException;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import sensor_msgs.PointCloud2;
+
+/**
+ * Decodes sensor_msgs/PointCloud2 messages in point-aligned chunks, in parallel.
+ * <p/>
+ * Every chunk is decoded by {@link PointCloud2Decoder} into its own slice of the destination buffers,
+ * and the per-chunk sums are reduced at the end. The calling thread decodes the first chunk itself,
+ * so the number of pool threads used per message is bounded by the number of chunks minus one.
+ * Without an executor service (or for small clouds) the cloud is decoded on the calling thread.
+ */
+public class ParallelPointCloud2Decoder {
+	/**
+	 * Clouds smaller than this are not worth splitting between threads.
+	 */
+	private static final int MIN_POINTS_PER_CHUNK = 16 * 1024;
+
+	private final PointCloud2Decoder decoder;
+	private final int maxChunks;
+	private final double[][] chunkSums;
+	private final Future<?>[] chunkFutures;
+
+	private ExecutorService executorService;
+
+	/**
+	 * Creates a decoder which uses up to one chunk per available processor.
+	 */
+	public ParallelPointCloud2Decoder() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelPointCloud2Decoder(int maxChunks) {
+		Preconditions.checkArgument(maxChunks > 0);
+		this.maxChunks = maxChunks;
+		decoder = new PointCloud2Decoder();
+		chunkSums = new double[maxChunks][PointCloud2Decoder.SUMS_SIZE];
+		chunkFutures = new Future<?>[maxChunks];
+	}
+
+	/**
+	 * Sets the executor service used for decoding chunks. May be null, to decode on the calling thread only.
+	 */
+	public void setExecutorService(ExecutorService executorService) {
+		this.executorService = executorService;
+	}
+
+	/**
+	 * Decodes the whole cloud. Not thread safe - messages should be decoded one at a time.
+	 *
+	 * @see PointCloud2Decoder#decode(PointCloud2, FloatBuffer, FloatBuffer, double[])
+	 */
+	public int decode(PointCloud2 pointCloud, final FloatBuffer vertices, final FloatBuffer intensities,
+	                  double[] sums) {
+		Preconditions.checkArgument(sums.length >= PointCloud2Decoder.SUMS_SIZE);
+		final PointCloud2Decoder.Layout layout = decoder.getLayout(pointCloud);
+		final int numOfPoints = PointCloud2Decoder.getNumOfPoints(pointCloud);
+		final ByteBuffer data = PointCloud2Decoder.getData(pointCloud, layout);
+
+		int numOfChunks = Math.min(maxChunks, numOfPoints / MIN_POINTS_PER_CHUNK);
+		if (executorService == null || numOfChunks < 2) {
+			PointCloud2Decoder.decode(data, layout, 0, numOfPoints, vertices, intensities, sums);
+			return numOfPoints;
+		}
+
+		final int pointsPerChunk = (numOfPoints + numOfChunks - 1) / numOfChunks;
+		for (int chunk = 1; chunk < numOfChunks; chunk++) {
+			final int firstPoint = chunk * pointsPerChunk;
+			final int chunkSize = Math.min(pointsPerChunk, numOfPoints - firstPoint);
+			final double[] chunkSum = chunkSums[chunk];
+			chunkFutures[chunk] = executorService.submit(new Runnable() {
+				@Override
+				public void run() {
+					PointCloud2Decoder.decode(data, layout, firstPoint, chunkSize, vertices, intensities, chunkSum);
+				}
+			});
+		}
+
+		//decode the first chunk on this thread, while the others are being decoded.
+		PointCloud2Decoder.decode(data, layout, 0, pointsPerChunk, vertices, intensities, chunkSums[0]);
+
+		try {
+			for (int chunk = 1; chunk < numOfChunks; chunk++) {
+				chunkFutures[chunk].get();
+			}
+		} catch (InterruptedException e) {
+			cancel(numOfChunks);
+			Thread.currentThread().interrupt();
+			throw new RosRuntimeException(e);
+		} catch (ExecutionException e) {
+			cancel(numOfChunks);
+			throw new RosRuntimeException(e.getCause());
+		}
+
+		for (int i = 0; i < PointCloud2Decoder.SUMS_SIZE; i++) {
+			sums[i] = 0;
+			for (int chunk = 0; chunk < numOfChunks; chunk++) {
+				sums[i] += chunkSums[chunk][i];
+			}
+		}
+		for (int chunk = 1; chunk < numOfChunks; chunk++) {
+			chunkFutures[chunk] = null;
+		}
+		return numOfPoints;
+	}
+
+	private void cancel(int numOfChunks) {
+		for (int chunk = 1; chunk < numOfChunks; chunk++) {
+			chunkFutures[chunk].cancel(true);
+			chunkFutures[chunk] = null;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.ros.android.view.visualization.pcd_utils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Decides how many points of a cloud to draw on each frame.
+ * <p/>
+ * The budget grows slowly while frames take no longer than the target frame time, and shrinks quickly
+ * when they do (i.e. when frames are dropped). Clouds farther than the reference distance get a
+ * smaller share of the budget, since they cover less of the screen. Once the view has stopped
+ * changing for a few frames, the whole cloud is drawn.
+ * <p/>
+ * Expects the points to be drawn to be ordered so that every prefix is a uniform subsample, see
+ * {@link MortonOrder}.
+ */
+public class PointBudget {
+	/**
+	 * Frames without a view change after which the whole cloud is drawn.
+	 */
+	private static final int IDLE_FRAMES = 10;
+	/**
+	 * Frames up to this much longer than the target are still considered on time - rendering is
+	 * usually synced to the display, so frames are never shorter than the target.
+	 */
+	private static final float FRAME_TIME_TOLERANCE = 1.25f;
+	private static final float GROWTH_FACTOR = 1.05f;
+	private static final float SHRINK_FACTOR = 0.8f;
+
+	private final int minPoints;
+	private final int maxPoints;
+	private final long targetFrameTimeNanos;
+	private final float referenceDistance;
+
+	private float budget;
+	private int idleFrames;
+
+	/**
+	 * @param minPoints         The budget never goes below this.
+	 * @param maxPoints         The budget never goes above this.
+	 * @param targetFps         The frame rate to keep while the view is changing.
+	 * @param referenceDistance Clouds closer than this get the whole budget.
+	 */
+	public PointBudget(int minPoints, int maxPoints, float targetFps, float referenceDistance) {
+		Preconditions.checkArgument(minPoints > 0 && maxPoints >= minPoints);
+		Preconditions.checkArgument(targetFps > 0 && referenceDistance > 0);
+		this.minPoints = minPoints;
+		this.maxPoints = maxPoints;
+		this.targetFrameTimeNanos = (long) (1e9 / targetFps);
+		this.referenceDistance = referenceDistance;
+		budget = maxPoints;
+		idleFrames = 0;
+	}
+
+	/**
+	 * Should be called once per frame.
+	 *
+	 * @param frameTimeNanos The time since the previous frame, or a non positive value if unknown.
+	 * @param viewChanged    true if the camera or the cloud moved since the previous frame.
+	 */
+	public void onFrame(long frameTimeNanos, boolean viewChanged) {
+		if (viewChanged) {
+			idleFrames = 0;
+		} else if (idleFrames < IDLE_FRAMES) {
+			idleFrames++;
+		}
+		//idle frames draw the whole cloud, their time says nothing about the budget.
+		if (isIdle() || frameTimeNanos <= 0) {
+			return;
+		}
+		if (frameTimeNanos <= targetFrameTimeNanos * FRAME_TIME_TOLERANCE) {
+			budget = Math.min(budget * GROWTH_FACTOR, maxPoints);
+		} else {
+			budget = Math.max(budget * SHRINK_FACTOR, minPoints);
+		}
+	}
+
+	/**
+	 * @return true if the view hasn't changed for a while.
+	 */
+	public boolean isIdle() {
+		return idleFrames >= IDLE_FRAMES;
+	}
+
+	/**
+	 * @param numOfPoints    The number of points in the cloud.
+	 * @param cameraDistance The distance from the camera to the cloud's center.
+	 * @return The number of points to draw, from the beginning of the cloud.
+	 */
+	public int getDrawCount(int numOfPoints, float cameraDistance) {
+		if (isIdle()) {
+			return numOfPoints;
+		}
+		float count = budget;
+		if (cameraDistance > referenceDistance) {
+			//the projected area of the cloud falls with the square of the distance.
+			final float ratio = referenceDistance / cameraDistance;
+			count *= ratio * ratio;
+		}
+		return Math.min(numOfPoints, Math.max((int) count, minPoints));
+	}
+
+	public int getBudget() {
+		return (int) budget;
+	}
+}
@@ -0,0 +1,302 @@
+package org.ros.android.view.visualization.pcd_utils;
+
+import com.google.common.base.Preconditions;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import sensor_msgs.PointCloud2;
+import sensor_msgs.PointField;
+
+/**
+ * Decodes sensor_msgs/PointCloud2 messages according to their PointField list.
+ * <p/>
+ * The field list is only inspected when the layout of the incoming clouds changes. The result is
+ * a {@link Layout} (the extraction plan), which is then used to copy x, y, z and intensity
+ * straight from the message's backing buffer, without creating any per-point objects.
+ */
+public class PointCloud2Decoder {
+	public static final String FIELD_X = "x";
+	public static final String FIELD_Y = "y";
+	public static final String FIELD_Z = "z";
+	public static final String FIELD_INTENSITY = "intensity";
+
+	/**
+	 * Indexes of the values in the sums array filled by the decode methods.
+	 */
+	public static final int SUM_X = 0;
+	public static final int SUM_Y = 1;
+	public static final int SUM_Z = 2;
+	public static final int SUM_COUNT = 3;
+	public static final int SUMS_SIZE = 4;
+
+	/**
+	 * The extraction plan for a specific PointCloud2 layout.
+	 */
+	public static class Layout {
+		private final int pointStep;
+		private final int rowStep;
+		private final int width;
+		private final boolean bigEndian;
+		private final int xOffset;
+		private final int yOffset;
+		private final int zOffset;
+		private final int xyzDatatype;
+		private final int intensityOffset; //-1 if there is no intensity field.
+		private final int intensityDatatype;
+
+		private Layout(int pointStep, int rowStep, int width, boolean bigEndian, int xOffset, int yOffset,
+		               int zOffset, int xyzDatatype, int intensityOffset, int intensityDatatype) {
+			this.pointStep = pointStep;
+			this.rowStep = rowStep;
+			this.width = width;
+			this.bigEndian = bigEndian;
+			this.xOffset = xOffset;
+			this.yOffset = yOffset;
+			this.zOffset = zOffset;
+			this.xyzDatatype = xyzDatatype;
+			this.intensityOffset = intensityOffset;
+			this.intensityDatatype = intensityDatatype;
+		}
+
+		/**
+		 * Compiles the extraction plan of the given cloud.
+		 */
+		public static Layout compile(PointCloud2 pointCloud) {
+			List<PointField> fields = pointCloud.getFields();
+			PointField x = findField(fields, FIELD_X);
+			PointField y = findField(fields, FIELD_Y);
+			PointField z = findField(fields, FIELD_Z);
+			PointField intensity = findField(fields, FIELD_INTENSITY);
+			Preconditions.checkArgument(x != null && y != null && z != null, "PointCloud2 has no x, y, z fields.");
+			Preconditions.checkArgument(x.getDatatype() == y.getDatatype() && x.getDatatype() == z.getDatatype(),
+					"x, y, z fields must share a datatype.");
+
+			final int pointStep = pointCloud.getPointStep();
+			checkField(x, pointStep);
+			checkField(y, pointStep);
+			checkField(z, pointStep);
+			if (intensity != null) {
+				checkField(intensity, pointStep);
+			}
+
+			return new Layout(pointStep, getRowStep(pointCloud), pointCloud.getWidth(), pointCloud.getIsBigendian(),
+					x.getOffset(), y.getOffset(), z.getOffset(), x.getDatatype(),
+					intensity == null ? -1 : intensity.getOffset(),
+					intensity == null ? PointField.FLOAT32 : intensity.getDatatype());
+		}
+
+		/**
+		 * @return true if this plan can be used to decode the given cloud.
+		 */
+		public boolean matches(PointCloud2 pointCloud) {
+			if (pointCloud.getPointStep() != pointStep || getRowStep(pointCloud) != rowStep
+					|| pointCloud.getWidth() != width || pointCloud.getIsBigendian() != bigEndian) {
+				return false;
+			}
+			List<PointField> fields = pointCloud.getFields();
+			return matches(findField(fields, FIELD_X), xOffset, xyzDatatype)
+					&& matches(findField(fields, FIELD_Y), yOffset, xyzDatatype)
+					&& matches(findField(fields, FIELD_Z), zOffset, xyzDatatype)
+					&& matches(findField(fields, FIELD_INTENSITY), intensityOffset, intensityDatatype);
+		}
+
+		private static boolean matches(PointField field, int offset, int datatype) {
+			if (field == null) {
+				return offset < 0;
+			}
+			return field.getOffset() == offset && field.getDatatype() == datatype;
+		}
+
+		public int getPointStep() {
+			return pointStep;
+		}
+
+		public ByteOrder getByteOrder() {
+			return bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		}
+
+		public boolean hasIntensity() {
+			return intensityOffset >= 0;
+		}
+	}
+
+	private Layout layout;
+
+	/**
+	 * @return The extraction plan for the given cloud. The previous plan is reused if the layout didn't change.
+	 */
+	public Layout getLayout(PointCloud2 pointCloud) {
+		if (layout == null || !layout.matches(pointCloud)) {
+			layout = Layout.compile(pointCloud);
+		}
+		return layout;
+	}
+
+	/**
+	 * @return The number of points in the given cloud.
+	 */
+	public static int getNumOfPoints(PointCloud2 pointCloud) {
+		final int pointStep = pointCloud.getPointStep();
+		final int width = pointCloud.getWidth();
+		if (pointStep <= 0 || width <= 0) {
+			return 0;
+		}
+		//only whole points are decoded, so a truncated last row is cut short.
+		final int rowStep = getRowStep(pointCloud);
+		final int numOfBytes = pointCloud.getData().readableBytes();
+		final int numOfRows = numOfBytes / rowStep;
+		final int lastRowPoints = Math.min(width, (numOfBytes - numOfRows * rowStep) / pointStep);
+		return (int) Math.min((long) width * pointCloud.getHeight(), (long) numOfRows * width + lastRowPoints);
+	}
+
+	/**
+	 * @return The distance in bytes between the rows of the given cloud. Rows may be padded, but a row step
+	 * that is too short for the row's points (e.g. 0 in some unorganized clouds) is taken as unpadded.
+	 */
+	public static int getRowStep(PointCloud2 pointCloud) {
+		final int packedRowStep = pointCloud.getWidth() * pointCloud.getPointStep();
+		return Math.max(pointCloud.getRowStep(), packedRowStep);
+	}
+
+	/**
+	 * @return A view of the readable bytes of the cloud's data, in the cloud's byte order.
+	 * The data is not copied, and the cloud's buffer is not consumed.
+	 */
+	public static ByteBuffer getData(PointCloud2 pointCloud, Layout layout) {
+		ChannelBuffer buffer = pointCloud.getData();
+		return buffer.toByteBuffer().slice().order(layout.getByteOrder());
+	}
+
+	/**
+	 * Decodes the whole cloud.
+	 *
+	 * @param vertices    Receives x, y, z for each point. Must hold at least 3 floats per point.
+	 * @param intensities Receives the raw intensity of each point (0 if the cloud has none). Must hold at least 1
+	 *                    float per point, or be null if intensities are not needed.
+	 * @param sums        Receives the sum of x, y, z of all finite points, and their count (see SUM_*).
+	 * @return The number of points decoded.
+	 */
+	public int decode(PointCloud2 pointCloud, FloatBuffer vertices, FloatBuffer intensities, double[] sums) {
+		final Layout layout = getLayout(pointCloud);
+		final int numOfPoints = getNumOfPoints(pointCloud);
+		decode(getData(pointCloud, layout), layout, 0, numOfPoints, vertices, intensities, sums);
+		return numOfPoints;
+	}
+
+	/**
+	 * Decodes the points [firstPoint, firstPoint + numOfPoints) of the data into the same indexes of the
+	 * destination buffers. Only absolute puts are used, so disjoint ranges may be decoded concurrently.
+	 */
+	public static void decode(ByteBuffer data, Layout layout, int firstPoint, int numOfPoints,
+	                          FloatBuffer vertices, FloatBuffer intensities, double[] sums) {
+		Preconditions.checkArgument(sums.length >= SUMS_SIZE);
+		double sumX = 0;
+		double sumY = 0;
+		double sumZ = 0;
+		int count = 0;
+
+		final int end = firstPoint + numOfPoints;
+		//points are indexed as if the rows were packed, but read from their padded rows.
+		int column = firstPoint % layout.width;
+		int pointBegin = firstPoint / layout.width * layout.rowStep + column * layout.pointStep;
+		for (int i = firstPoint; i < end; i++) {
+			final float x = read(data, pointBegin + layout.xOffset, layout.xyzDatatype);
+			final float y = read(data, pointBegin + layout.yOffset, layout.xyzDatatype);
+			final float z = read(data, pointBegin + layout.zOffset, layout.xyzDatatype);
+			final int vertexIndex = i * 3;
+			vertices.put(vertexIndex, x);
+			vertices.put(vertexIndex + 1, y);
+			vertices.put(vertexIndex + 2, z);
+
+			//NaN points of non dense clouds should not move the center of gravity.
+			final float xyz = x + y + z;
+			if (!Float.isNaN(xyz) && !Float.isInfinite(xyz)) {
+				sumX += x;
+				sumY += y;
+				sumZ += z;
+				count++;
+			}
+
+			if (intensities != null) {
+				intensities.put(i, layout.intensityOffset < 0 ? 0f :
+						read(data, pointBegin + layout.intensityOffset, layout.intensityDatatype));
+			}
+
+			column++;
+			if (column == layout.width) {
+				column = 0;
+				pointBegin += layout.rowStep - (layout.width - 1) * layout.pointStep;
+			} else {
+				pointBegin += layout.pointStep;
+			}
+		}
+
+		sums[SUM_X] = sumX;
+		sums[SUM_Y] = sumY;
+		sums[SUM_Z] = sumZ;
+		sums[SUM_COUNT] = count;
+	}
+
+	private static float read(ByteBuffer data, int index, int datatype) {
+		switch (datatype) {
+			case PointField.FLOAT32:
+				return data.getFloat(index);
+			case PointField.FLOAT64:
+				return (float) data.getDouble(index);
+			case PointField.INT8:
+				return data.get(index);
+			case PointField.UINT8:
+				return data.get(index) & 0xff;
+			case PointField.INT16:
+				return data.getShort(index);
+			case PointField.UINT16:
+				return data.getShort(index) & 0xffff;
+			case PointField.INT32:
+				return data.getInt(index);
+			case PointField.UINT32:
+				return data.getInt(index) & 0xffffffffL;
+			default:
+				throw new IllegalArgumentException("Unknown PointField datatype: " + datatype);
+		}
+	}
+
+	private static PointField findField(List<PointField> fields, String name) {
+		for (int i = 0; i < fields.size(); i++) {
+			PointField field = fields.get(i);
+			if (name.equals(field.getName())) {
+				return field;
+			}
+		}
+		return null;
+	}
+
+	private static void checkField(PointField field, int pointStep) {
+		Preconditions.checkArgument(field.getCount() >= 1, "Field " + field.getName() + " is empty.");
+		Preconditions.checkArgument(field.getOffset() + sizeOf(field.getDatatype()) <= pointStep,
+				"Field " + field.getName() + " exceeds the point step.");
+	}
+
+	private static int sizeOf(int datatype) {
+		switch (datatype) {
+			case PointField.INT8:
+			case PointField.UINT8:
+				return 1;
+			case PointField.INT16:
+			case PointField.UINT16:
+				return 2;
+			case PointField.INT32:
+			case PointField.UINT32:
+			case PointField.FLOAT32:
+				return 4;
+			case PointField.FLOAT64:
+				return 8;
+			default:
+				throw new IllegalArgumentException("Unknown PointField datatype: " + datatype);
+		}
+	}
+}
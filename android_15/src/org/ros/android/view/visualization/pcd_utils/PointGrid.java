@@ -0,0 +1,365 @@
+package org.ros.android.view.visualization.pcd_utils;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.android.view.visualization.gl_utils.Frustum;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A flat bucketed grid over a decoded point cloud, for culling, picking and box queries.
+ * <p/>
+ * The grid covers the cloud's bounding box with cells of about POINTS_PER_CELL points each. The points
+ * of every cell are listed contiguously (cellStarts / pointIndexes, as in a compressed sparse row
+ * matrix), and all the arrays are reused between clouds.
+ * <p/>
+ * When built with reordering, the points themselves are moved into cell order. Every cell is then a
+ * contiguous range of the vertex buffer, and the cells which intersect a frustum can be drawn as a few
+ * ranges with glDrawArrays.
+ */
+public class PointGrid {
+	private static final int POINTS_PER_CELL = 64;
+	private static final int MAX_CELLS_PER_AXIS = 64;
+
+	private FloatBuffer vertices;
+	private int numOfPoints;
+	private boolean ordered;
+
+	private final float[] min = new float[3];
+	private final float[] cellSize = new float[3];
+	private final int[] dimensions = new int[3];
+	private int numOfCells;
+
+	private int[] cellStarts = new int[1]; //numOfCells + 1 entries.
+	private int[] pointIndexes = new int[0];
+	private int[] pointCells = new int[0];
+	private int[] ranges = new int[0];
+	private float[] scratchVertices = new float[0];
+	private float[] scratchIntensities = new float[0];
+
+	/**
+	 * Builds the grid over the first numOfPoints points. Points with non finite coordinates are not
+	 * put in any cell. The grid keeps a reference to vertices, and reads it on queries.
+	 *
+	 * @param intensities Moved along with the points when reordering. May be null.
+	 * @param reorder     true to move the points into cell order, see {@link #isOrdered()}.
+	 */
+	public void build(FloatBuffer vertices, FloatBuffer intensities, int numOfPoints, boolean reorder) {
+		this.vertices = vertices;
+		this.numOfPoints = numOfPoints;
+		this.ordered = reorder;
+		computeCells(vertices, numOfPoints);
+		ensureCapacity(numOfPoints);
+
+		//counting sort of the points by cell.
+		for (int cell = 0; cell <= numOfCells; cell++) {
+			cellStarts[cell] = 0;
+		}
+		for (int i = 0; i < numOfPoints; i++) {
+			final int cell = cellOf(vertices.get(i * 3), vertices.get(i * 3 + 1), vertices.get(i * 3 + 2));
+			pointCells[i] = cell;
+			if (cell >= 0) {
+				cellStarts[cell + 1]++;
+			}
+		}
+		for (int cell = 0; cell < numOfCells; cell++) {
+			cellStarts[cell + 1] += cellStarts[cell];
+		}
+		//pointCells[i] is replaced by the position of point i, using cellStarts as insertion points.
+		final int numOfValidPoints = cellStarts[numOfCells];
+		int invalidPosition = numOfValidPoints;
+		for (int i = 0; i < numOfPoints; i++) {
+			final int cell = pointCells[i];
+			pointCells[i] = cell >= 0 ? cellStarts[cell]++ : invalidPosition++;
+		}
+		//the insertion points are now the cell ends, shift them back.
+		for (int cell = numOfCells; cell > 0; cell--) {
+			cellStarts[cell] = cellStarts[cell - 1];
+		}
+		cellStarts[0] = 0;
+
+		if (reorder) {
+			moveToPositions(vertices, intensities, numOfPoints);
+			for (int i = 0; i < numOfPoints; i++) {
+				pointIndexes[i] = i;
+			}
+		} else {
+			for (int i = 0; i < numOfPoints; i++) {
+				pointIndexes[pointCells[i]] = i;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the points were moved into cell order, so every cell is a contiguous range of points.
+	 */
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	public int getNumOfPoints() {
+		return numOfPoints;
+	}
+
+	public int getNumOfCells() {
+		return numOfCells;
+	}
+
+	/**
+	 * Finds the cells which intersect the frustum, and merges consecutive ones into ranges of points.
+	 * Only valid for an ordered grid.
+	 *
+	 * @return The number of ranges. See {@link #getRanges()}.
+	 */
+	public int cull(Frustum frustum) {
+		Preconditions.checkState(ordered, "Culling needs the points in cell order.");
+		int numOfRanges = 0;
+		int rangeStart = -1;
+		int rangeEnd = -1;
+		for (int cell = 0; cell < numOfCells; cell++) {
+			final int start = cellStarts[cell];
+			final int end = cellStarts[cell + 1];
+			if (start == end || !intersects(frustum, cell)) {
+				continue;
+			}
+			if (start == rangeEnd) {
+				rangeEnd = end;
+			} else {
+				if (rangeStart >= 0) {
+					ranges[numOfRanges * 2] = rangeStart;
+					ranges[numOfRanges * 2 + 1] = rangeEnd - rangeStart;
+					numOfRanges++;
+				}
+				rangeStart = start;
+				rangeEnd = end;
+			}
+		}
+		if (rangeStart >= 0) {
+			ranges[numOfRanges * 2] = rangeStart;
+			ranges[numOfRanges * 2 + 1] = rangeEnd - rangeStart;
+			numOfRanges++;
+		}
+		return numOfRanges;
+	}
+
+	/**
+	 * @return (first, count) pairs filled by the last {@link #cull(Frustum)}.
+	 */
+	public int[] getRanges() {
+		return ranges;
+	}
+
+	/**
+	 * Finds the indexes of the points inside a box.
+	 *
+	 * @param result Receives the point indexes. Points which don't fit are not reported.
+	 * @return The number of points found, which may be larger than result's length.
+	 */
+	public int queryBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, int[] result) {
+		if (numOfCells == 0) {
+			return 0;
+		}
+		final int fromX = clampCell(minX, 0), toX = clampCell(maxX, 0);
+		final int fromY = clampCell(minY, 1), toY = clampCell(maxY, 1);
+		final int fromZ = clampCell(minZ, 2), toZ = clampCell(maxZ, 2);
+		int found = 0;
+		for (int z = fromZ; z <= toZ; z++) {
+			for (int y = fromY; y <= toY; y++) {
+				for (int x = fromX; x <= toX; x++) {
+					final int cell = (z * dimensions[1] + y) * dimensions[0] + x;
+					for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+						final int point = pointIndexes[i];
+						final float px = vertices.get(point * 3);
+						final float py = vertices.get(point * 3 + 1);
+						final float pz = vertices.get(point * 3 + 2);
+						if (px >= minX && px <= maxX && py >= minY && py <= maxY && pz >= minZ && pz <= maxZ) {
+							if (found < result.length) {
+								result[found] = point;
+							}
+							found++;
+						}
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the point which appears closest to a ray, e.g. the one under a tapped screen point.
+	 *
+	 * @param origin       The ray's origin, in the cloud's frame.
+	 * @param direction    The ray's normalized direction.
+	 * @param maxTanAngle  Points farther than this angle from the ray (as its tangent) are ignored.
+	 * @return The index of the point with the smallest angle from the ray, or -1 if there is none.
+	 */
+	public int pick(float[] origin, float[] direction, float maxTanAngle) {
+		int best = -1;
+		float bestTan = maxTanAngle;
+		for (int cell = 0; cell < numOfCells; cell++) {
+			if (cellStarts[cell] == cellStarts[cell + 1] || !mayContainPick(cell, origin, direction, bestTan)) {
+				continue;
+			}
+			for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+				final int point = pointIndexes[i];
+				final float dx = vertices.get(point * 3) - origin[0];
+				final float dy = vertices.get(point * 3 + 1) - origin[1];
+				final float dz = vertices.get(point * 3 + 2) - origin[2];
+				final float along = dx * direction[0] + dy * direction[1] + dz * direction[2];
+				if (along <= 0) {
+					continue;
+				}
+				final float across = (float) Math.sqrt(Math.max(dx * dx + dy * dy + dz * dz - along * along, 0f));
+				final float tan = across / along;
+				if (tan < bestTan) {
+					bestTan = tan;
+					best = point;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Fills box with minX, minY, minZ, maxX, maxY, maxZ of a cell.
+	 */
+	public void getCellBounds(int cell, float[] box) {
+		final int x = cell % dimensions[0];
+		final int y = (cell / dimensions[0]) % dimensions[1];
+		final int z = cell / (dimensions[0] * dimensions[1]);
+		box[0] = min[0] + x * cellSize[0];
+		box[1] = min[1] + y * cellSize[1];
+		box[2] = min[2] + z * cellSize[2];
+		box[3] = box[0] + cellSize[0];
+		box[4] = box[1] + cellSize[1];
+		box[5] = box[2] + cellSize[2];
+	}
+
+	private boolean intersects(Frustum frustum, int cell) {
+		final int x = cell % dimensions[0];
+		final int y = (cell / dimensions[0]) % dimensions[1];
+		final int z = cell / (dimensions[0] * dimensions[1]);
+		final float minX = min[0] + x * cellSize[0];
+		final float minY = min[1] + y * cellSize[1];
+		final float minZ = min[2] + z * cellSize[2];
+		return frustum.intersectsBox(minX, minY, minZ, minX + cellSize[0], minY + cellSize[1], minZ + cellSize[2]);
+	}
+
+	/**
+	 * Tests the cell's bounding sphere against the cone around the ray.
+	 */
+	private boolean mayContainPick(int cell, float[] origin, float[] direction, float maxTanAngle) {
+		final int x = cell % dimensions[0];
+		final int y = (cell / dimensions[0]) % dimensions[1];
+		final int z = cell / (dimensions[0] * dimensions[1]);
+		final float dx = min[0] + (x + 0.5f) * cellSize[0] - origin[0];
+		final float dy = min[1] + (y + 0.5f) * cellSize[1] - origin[1];
+		final float dz = min[2] + (z + 0.5f) * cellSize[2] - origin[2];
+		final float radius = 0.5f * (float) Math.sqrt(cellSize[0] * cellSize[0] + cellSize[1] * cellSize[1]
+				+ cellSize[2] * cellSize[2]);
+		final float along = dx * direction[0] + dy * direction[1] + dz * direction[2];
+		if (along + radius <= 0) {
+			return false;
+		}
+		final float across = (float) Math.sqrt(Math.max(dx * dx + dy * dy + dz * dz - along * along, 0f));
+		//the cone's radius at the sphere's farthest depth, plus the sphere's radius.
+		return across <= maxTanAngle * (along + radius) + radius;
+	}
+
+	private void computeCells(FloatBuffer vertices, int numOfPoints) {
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+		int numOfValidPoints = 0;
+		for (int i = 0; i < numOfPoints; i++) {
+			final float x = vertices.get(i * 3);
+			final float y = vertices.get(i * 3 + 1);
+			final float z = vertices.get(i * 3 + 2);
+			if (!isFinite(x + y + z)) {
+				continue;
+			}
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			minZ = Math.min(minZ, z);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+			maxZ = Math.max(maxZ, z);
+			numOfValidPoints++;
+		}
+		if (numOfValidPoints == 0) {
+			numOfCells = 0;
+			return;
+		}
+
+		//cubic cells, sized for about POINTS_PER_CELL points each if the points were spread evenly.
+		final float extentX = Math.max(maxX - minX, 1e-3f);
+		final float extentY = Math.max(maxY - minY, 1e-3f);
+		final float extentZ = Math.max(maxZ - minZ, 1e-3f);
+		final float targetCells = Math.max(1f, numOfValidPoints / (float) POINTS_PER_CELL);
+		final float edge = (float) Math.cbrt(extentX * extentY * extentZ / targetCells);
+		setAxis(0, minX, extentX, edge);
+		setAxis(1, minY, extentY, edge);
+		setAxis(2, minZ, extentZ, edge);
+		numOfCells = dimensions[0] * dimensions[1] * dimensions[2];
+	}
+
+	private void setAxis(int axis, float axisMin, float extent, float edge) {
+		final int cells = Math.max(1, Math.min(MAX_CELLS_PER_AXIS, (int) Math.ceil(extent / edge)));
+		min[axis] = axisMin;
+		dimensions[axis] = cells;
+		//slightly bigger, so the maximum falls inside the last cell.
+		cellSize[axis] = extent / cells * 1.0001f;
+	}
+
+	/**
+	 * @return The cell of a point, or -1 if it is not finite.
+	 */
+	private int cellOf(float x, float y, float z) {
+		if (numOfCells == 0 || !isFinite(x + y + z)) {
+			return -1;
+		}
+		return (clampCell(z, 2) * dimensions[1] + clampCell(y, 1)) * dimensions[0] + clampCell(x, 0);
+	}
+
+	private int clampCell(float value, int axis) {
+		final int cell = (int) Math.floor((value - min[axis]) / cellSize[axis]);
+		return Math.max(0, Math.min(dimensions[axis] - 1, cell));
+	}
+
+	private void moveToPositions(FloatBuffer vertices, FloatBuffer intensities, int numOfPoints) {
+		for (int i = 0; i < numOfPoints * 3; i++) {
+			scratchVertices[i] = vertices.get(i);
+		}
+		for (int i = 0; i < numOfPoints; i++) {
+			final int position = pointCells[i];
+			vertices.put(position * 3, scratchVertices[i * 3]);
+			vertices.put(position * 3 + 1, scratchVertices[i * 3 + 1]);
+			vertices.put(position * 3 + 2, scratchVertices[i * 3 + 2]);
+		}
+		if (intensities != null) {
+			for (int i = 0; i < numOfPoints; i++) {
+				scratchIntensities[i] = intensities.get(i);
+			}
+			for (int i = 0; i < numOfPoints; i++) {
+				intensities.put(pointCells[i], scratchIntensities[i]);
+			}
+		}
+	}
+
+	private void ensureCapacity(int numOfPoints) {
+		if (cellStarts.length < numOfCells + 1) {
+			cellStarts = new int[numOfCells + 1];
+			//at most one range per cell.
+			ranges = new int[numOfCells * 2];
+		}
+		if (pointIndexes.length < numOfPoints) {
+			pointIndexes = new int[numOfPoints];
+			pointCells = new int[numOfPoints];
+			scratchIntensities = new float[numOfPoints];
+			scratchVertices = new float[numOfPoints * 3];
+		}
+	}
+
+	private static boolean isFinite(float value) {
+		return !Float.isNaN(value) && !Float.isInfinite(value);
+	}
+}
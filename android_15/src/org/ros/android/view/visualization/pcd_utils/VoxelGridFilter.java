@@ -0,0 +1,194 @@
+package org.ros.android.view.visualization.pcd_utils;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Downsamples a decoded point cloud to one point per voxel of a regular grid.
+ * <p/>
+ * Every occupied voxel is represented by the first point that falls into it, with the average
+ * intensity of all of its points. Voxels are found through an open addressing hash of their packed
+ * indexes, held in primitive arrays which are reused between clouds, so filtering doesn't allocate
+ * once the arrays are big enough.
+ * <p/>
+ * If the cloud occupies more than maxPoints voxels, the leaf size used for that cloud is doubled
+ * until it doesn't, so the output size is bounded regardless of the input density.
+ */
+public class VoxelGridFilter {
+	/**
+	 * Voxel indexes are packed into 21 bits each.
+	 */
+	private static final int INDEX_BITS = 21;
+	private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+	private static final int EMPTY = -1;
+
+	private volatile float leafSize;
+	private volatile int maxPoints;
+	private float lastLeafSize;
+
+	//hash table - packed voxel indexes, and the voxel each slot holds.
+	private long[] keys;
+	private int[] slots;
+	private int tableMask;
+
+	//per voxel - the representative point, and the intensity sum and count.
+	private int[] voxelPoints;
+	private float[] voxelIntensities;
+	private int[] voxelCounts;
+	private int numOfVoxels;
+
+	/**
+	 * @param leafSize  The voxel edge length, in the cloud's units. 0 disables filtering.
+	 * @param maxPoints The maximum number of points left after filtering.
+	 */
+	public VoxelGridFilter(float leafSize, int maxPoints) {
+		setLeafSize(leafSize);
+		setMaxPoints(maxPoints);
+		keys = new long[0];
+		slots = new int[0];
+		voxelPoints = new int[0];
+		voxelIntensities = new float[0];
+		voxelCounts = new int[0];
+	}
+
+	public void setLeafSize(float leafSize) {
+		Preconditions.checkArgument(leafSize >= 0, "Leaf size must not be negative.");
+		this.leafSize = leafSize;
+	}
+
+	public float getLeafSize() {
+		return leafSize;
+	}
+
+	public void setMaxPoints(int maxPoints) {
+		Preconditions.checkArgument(maxPoints > 0);
+		this.maxPoints = maxPoints;
+	}
+
+	public int getMaxPoints() {
+		return maxPoints;
+	}
+
+	public boolean isEnabled() {
+		return leafSize > 0;
+	}
+
+	/**
+	 * @return The leaf size actually used for the last filtered cloud, which may be a multiple of
+	 * the configured one.
+	 */
+	public float getLastLeafSize() {
+		return lastLeafSize;
+	}
+
+	/**
+	 * Filters the first numOfPoints points in place. The kept points are moved to the beginning of
+	 * the buffers, in their original order. Points with non finite coordinates are dropped.
+	 *
+	 * @param vertices    x, y, z for each point, accessed with absolute gets and puts.
+	 * @param intensities One intensity for each point, or null.
+	 * @return The number of points left.
+	 */
+	public int filter(FloatBuffer vertices, FloatBuffer intensities, int numOfPoints) {
+		float leaf = leafSize;
+		final int max = maxPoints;
+		if (leaf <= 0) {
+			lastLeafSize = 0;
+			return numOfPoints;
+		}
+		ensureCapacity(numOfPoints);
+
+		while (!buildVoxels(vertices, intensities, numOfPoints, leaf, max)) {
+			leaf *= 2;
+		}
+		lastLeafSize = leaf;
+
+		//voxels are numbered by their first point, so voxelPoints[i] >= i and increasing,
+		//and compacting front to back never overwrites a point that is still to be read.
+		for (int i = 0; i < numOfVoxels; i++) {
+			final int source = voxelPoints[i] * 3;
+			final int destination = i * 3;
+			vertices.put(destination, vertices.get(source));
+			vertices.put(destination + 1, vertices.get(source + 1));
+			vertices.put(destination + 2, vertices.get(source + 2));
+			if (intensities != null) {
+				intensities.put(i, voxelIntensities[i] / voxelCounts[i]);
+			}
+		}
+		return numOfVoxels;
+	}
+
+	/**
+	 * @return false if more than max voxels are occupied.
+	 */
+	private boolean buildVoxels(FloatBuffer vertices, FloatBuffer intensities, int numOfPoints, float leaf, int max) {
+		Arrays.fill(slots, 0, tableMask + 1, EMPTY);
+		numOfVoxels = 0;
+		final float inverseLeaf = 1f / leaf;
+
+		for (int i = 0; i < numOfPoints; i++) {
+			final float x = vertices.get(i * 3);
+			final float y = vertices.get(i * 3 + 1);
+			final float z = vertices.get(i * 3 + 2);
+			final float xyz = x + y + z;
+			if (Float.isNaN(xyz) || Float.isInfinite(xyz)) {
+				continue;
+			}
+
+			final long key = ((long) floor(x * inverseLeaf) & INDEX_MASK) << (2 * INDEX_BITS)
+					| ((long) floor(y * inverseLeaf) & INDEX_MASK) << INDEX_BITS
+					| ((long) floor(z * inverseLeaf) & INDEX_MASK);
+			final float intensity = intensities == null ? 0f : intensities.get(i);
+
+			int slot = hash(key) & tableMask;
+			while (true) {
+				final int voxel = slots[slot];
+				if (voxel == EMPTY) {
+					if (numOfVoxels == max) {
+						return false;
+					}
+					keys[slot] = key;
+					slots[slot] = numOfVoxels;
+					voxelPoints[numOfVoxels] = i;
+					voxelIntensities[numOfVoxels] = intensity;
+					voxelCounts[numOfVoxels] = 1;
+					numOfVoxels++;
+					break;
+				}
+				if (keys[slot] == key) {
+					voxelIntensities[voxel] += intensity;
+					voxelCounts[voxel]++;
+					break;
+				}
+				slot = (slot + 1) & tableMask;
+			}
+		}
+		return true;
+	}
+
+	private void ensureCapacity(int numOfPoints) {
+		if (voxelPoints.length < numOfPoints) {
+			voxelPoints = new int[numOfPoints];
+			voxelIntensities = new float[numOfPoints];
+			voxelCounts = new int[numOfPoints];
+		}
+		//keep the table at most half full.
+		final int tableSize = Math.max(16, Integer.highestOneBit(Math.max(numOfPoints, 1)) * 4);
+		if (keys.length < tableSize) {
+			keys = new long[tableSize];
+			slots = new int[tableSize];
+		}
+		tableMask = tableSize - 1;
+	}
+
+	private static int floor(float value) {
+		return (int) Math.floor(value);
+	}
+
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+}
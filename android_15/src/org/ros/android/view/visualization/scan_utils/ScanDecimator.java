@@ -0,0 +1,54 @@
+package org.ros.android.view.visualization.scan_utils;
+
+import org.ros.android.view.visualization.gl_utils.PolylineSimplifier;
+
+/**
+ * Thins out the projected points of a laser scan for drawing.
+ * <p/>
+ * Consecutive points are kept at least a minimum distance apart, except for the points that
+ * Douglas-Peucker needs to keep the outline within a tolerance. So straight walls are thinned evenly,
+ * while corners, edges of obstacles and small obstacles survive. Not thread safe.
+ */
+public class ScanDecimator {
+	private final PolylineSimplifier simplifier = new PolylineSimplifier();
+	private boolean[] keep = new boolean[0];
+
+	/**
+	 * @param points          x, y, z triples, in scan order.
+	 * @param numPoints       The number of triples.
+	 * @param minimumDistance The distance that consecutive points are kept apart.
+	 * @param tolerance       The distance that the outline may move, at most.
+	 * @param result          Receives the kept triples from offset on. May be points, with offset 0.
+	 * @return The number of points kept.
+	 */
+	public int decimate(float[] points, int numPoints, float minimumDistance, float tolerance,
+	                    float[] result, int offset) {
+		if (keep.length < numPoints) {
+			keep = new boolean[numPoints];
+		}
+		simplifier.mark(points, numPoints, tolerance, keep);
+		final float minimumDistanceSquared = minimumDistance * minimumDistance;
+		int numKept = 0;
+		float lastX = 0;
+		float lastY = 0;
+		for (int i = 0; i < numPoints; i++) {
+			final float x = points[i * 3];
+			final float y = points[i * 3 + 1];
+			if (numKept > 0 && !keep[i]) {
+				final float dx = x - lastX;
+				final float dy = y - lastY;
+				if (dx * dx + dy * dy < minimumDistanceSquared) {
+					continue;
+				}
+			}
+			final int index = offset + numKept * 3;
+			result[index] = x;
+			result[index + 1] = y;
+			result[index + 2] = points[i * 3 + 2];
+			lastX = x;
+			lastY = y;
+			numKept++;
+		}
+		return numKept;
+	}
+}
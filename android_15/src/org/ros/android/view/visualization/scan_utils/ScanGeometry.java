@@ -0,0 +1,102 @@
+package org.ros.android.view.visualization.scan_utils;
+
+/**
+ * Cosine and sine tables of the beam angles of a laser scanner.
+ * <p/>
+ * The tables hold every stride-th beam and are rebuilt only when the scan's geometry changes, which it
+ * hardly ever does, so projecting ranges needs no trigonometry. Not thread safe.
+ */
+public class ScanGeometry {
+	private float angleMin;
+	private float angleIncrement;
+	private int count = -1;
+	private int stride;
+
+	private float[] cos = new float[0];
+	private float[] sin = new float[0];
+	private int size;
+
+	/**
+	 * Rebuilds the tables if the geometry differs from the last one.
+	 *
+	 * @param angleMin       The angle of the first beam.
+	 * @param angleIncrement The angle between two beams.
+	 * @param count          The number of beams in the scan.
+	 * @param stride         Every stride-th beam is kept, starting with the first.
+	 * @return true if the tables were rebuilt.
+	 */
+	public boolean update(float angleMin, float angleIncrement, int count, int stride) {
+		if (angleMin == this.angleMin && angleIncrement == this.angleIncrement && count == this.count
+				&& stride == this.stride) {
+			return false;
+		}
+		if (count < 0 || stride <= 0) {
+			throw new IllegalArgumentException("Invalid scan geometry.");
+		}
+		this.angleMin = angleMin;
+		this.angleIncrement = angleIncrement;
+		this.count = count;
+		this.stride = stride;
+		size = (count + stride - 1) / stride;
+		if (cos.length < size) {
+			cos = new float[size];
+			sin = new float[size];
+		}
+		for (int i = 0; i < size; i++) {
+			final double angle = angleMin + (double) angleIncrement * i * stride;
+			cos[i] = (float) Math.cos(angle);
+			sin[i] = (float) Math.sin(angle);
+		}
+		return true;
+	}
+
+	/**
+	 * @return The number of beams in the tables.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * @return The cosines of the kept beams' angles, of which the first {@link #getSize()} are valid.
+	 */
+	public float[] getCos() {
+		return cos;
+	}
+
+	/**
+	 * @return The sines of the kept beams' angles, of which the first {@link #getSize()} are valid.
+	 */
+	public float[] getSin() {
+		return sin;
+	}
+
+	/**
+	 * Projects the kept beams whose range is strictly between minimumRange and maximumRange into x, y, z
+	 * triples in the scanner's frame, with z = 0.
+	 *
+	 * @param vertices Receives the triples from offset on. Must have room for {@link #getSize()} of them.
+	 * @return The number of vertices written.
+	 */
+	public int project(float[] ranges, float minimumRange, float maximumRange, float[] vertices, int offset) {
+		final float[] cos = this.cos;
+		final float[] sin = this.sin;
+		final int stride = this.stride;
+		final int numBeams = Math.min(size, (ranges.length + stride - 1) / stride);
+		int index = offset;
+		for (int i = 0; i < numBeams; i++) {
+			final float range = ranges[i * stride];
+			if (minimumRange < range && range < maximumRange) {
+				vertices[index] = range * cos[i];
+				vertices[index + 1] = range * sin[i];
+				vertices[index + 2] = 0;
+				index += 3;
+			}
+		}
+		return (index - offset) / 3;
+	}
+}
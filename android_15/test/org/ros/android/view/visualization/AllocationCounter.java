@@ -0,0 +1,64 @@
+package org.ros.android.view.visualization;
+
+import java.lang.reflect.Method;
+
+/**
+ * Counts the bytes allocated by the current thread, for tests of code which shouldn't allocate.
+ * <p/>
+ * Uses com.sun.management.ThreadMXBean through reflection, since neither it nor java.lang.management
+ * are in android.jar, and not every JVM has it.
+ */
+public class AllocationCounter {
+	private final Object threads;
+	private final Method getAllocatedBytes;
+	private final Object[] thread;
+
+	private AllocationCounter(Object threads, Method getAllocatedBytes) {
+		this.threads = threads;
+		this.getAllocatedBytes = getAllocatedBytes;
+		thread = new Object[]{Thread.currentThread().getId()};
+	}
+
+	/**
+	 * @return null if allocations can't be counted.
+	 */
+	public static AllocationCounter create() throws Exception {
+		final Object threads;
+		final Class<?> type;
+		try {
+			threads = Class.forName("java.lang.management.ManagementFactory")
+					.getMethod("getThreadMXBean").invoke(null);
+			type = Class.forName("com.sun.management.ThreadMXBean");
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+		if (!type.isInstance(threads)
+				|| !(Boolean) type.getMethod("isThreadAllocatedMemorySupported").invoke(threads)) {
+			return null;
+		}
+		type.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threads, true);
+		return new AllocationCounter(threads, type.getMethod("getThreadAllocatedBytes", long.class));
+	}
+
+	/**
+	 * Runs the task twice, once to warm up and once to count.
+	 *
+	 * @return The bytes allocated by the second run.
+	 */
+	public long count(Runnable task) throws Exception {
+		long allocated = 0;
+		for (int run = 0; run < 2; run++) {
+			final long calibration = getAllocatedBytes();
+			final long start = getAllocatedBytes();
+			task.run();
+			final long end = getAllocatedBytes();
+			//the reflective call itself may allocate, as much per call.
+			allocated = (end - start) - (start - calibration);
+		}
+		return allocated;
+	}
+
+	private long getAllocatedBytes() throws Exception {
+		return (Long) getAllocatedBytes.invoke(threads, thread);
+	}
+}
@@ -0,0 +1,135 @@
+package org.ros.android.view.visualization.gl_utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.microedition.khronos.opengles.GL11;
+
+/**
+ * Checks when {@link BufferUploadTracker} uploads, and how {@link VertexBufferObject} executes it.
+ */
+public class BufferUploadTrackerTest {
+	/**
+	 * Does the upload the tracker asks for, as VertexBufferObject does.
+	 *
+	 * @return The upload done.
+	 */
+	private static int update(BufferUploadTracker tracker, int dataBytes, int capacityBytes) {
+		final int upload = tracker.nextUpload(dataBytes, capacityBytes);
+		tracker.onUploaded(upload, dataBytes, capacityBytes);
+		return upload;
+	}
+
+	@Test
+	public void testUploadOnlyAfterSwap() {
+		final BufferUploadTracker tracker = new BufferUploadTracker();
+		assertTrue(tracker.isDirty());
+		assertEquals(BufferUploadTracker.UPLOAD_DATA, update(tracker, 100, 400));
+		assertFalse(tracker.isDirty());
+
+		//drawing the same front buffer again doesn't upload it again.
+		assertEquals(BufferUploadTracker.UPLOAD_NONE, update(tracker, 100, 400));
+		assertEquals(BufferUploadTracker.UPLOAD_NONE, update(tracker, 100, 400));
+		assertEquals(100, tracker.getUploadedBytes());
+
+		tracker.markDirty();
+		assertEquals(BufferUploadTracker.UPLOAD_SUB_DATA, update(tracker, 200, 400));
+		assertEquals(BufferUploadTracker.UPLOAD_NONE, update(tracker, 200, 400));
+		assertEquals(200, tracker.getUploadedBytes());
+	}
+
+	@Test
+	public void testSubDataUntilDataGrows() {
+		final BufferUploadTracker tracker = new BufferUploadTracker();
+		//the whole capacity is allocated, not only the data.
+		assertEquals(BufferUploadTracker.UPLOAD_DATA, update(tracker, 100, 400));
+		assertEquals(400, tracker.getAllocatedBytes());
+
+		//smaller, or as big as the allocation - only the content is replaced.
+		tracker.markDirty();
+		assertEquals(BufferUploadTracker.UPLOAD_SUB_DATA, update(tracker, 50, 400));
+		tracker.markDirty();
+		assertEquals(BufferUploadTracker.UPLOAD_SUB_DATA, update(tracker, 400, 400));
+		assertEquals(400, tracker.getAllocatedBytes());
+
+		//bigger than the allocation - reallocated at the new capacity.
+		tracker.markDirty();
+		assertEquals(BufferUploadTracker.UPLOAD_DATA, update(tracker, 500, 800));
+		assertEquals(800, tracker.getAllocatedBytes());
+		assertEquals(500, tracker.getUploadedBytes());
+	}
+
+	@Test
+	public void testUploadAfterReset() {
+		final BufferUploadTracker tracker = new BufferUploadTracker();
+		assertEquals(BufferUploadTracker.UPLOAD_DATA, update(tracker, 100, 400));
+		assertEquals(BufferUploadTracker.UPLOAD_NONE, update(tracker, 100, 400));
+
+		//the context was lost with the buffer, which has to be allocated and filled again.
+		tracker.reset();
+		assertTrue(tracker.isDirty());
+		assertEquals(-1, tracker.getAllocatedBytes());
+		assertEquals(BufferUploadTracker.UPLOAD_DATA, update(tracker, 100, 400));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCapacitySmallerThanData() {
+		new BufferUploadTracker().nextUpload(100, 50);
+	}
+
+	@Test
+	public void testVertexBufferObjectReuploadsAfterClearHandle() {
+		final List<String> calls = new ArrayList<String>();
+		final GL11 gl = (GL11) Proxy.newProxyInstance(GL11.class.getClassLoader(), new Class<?>[]{GL11.class},
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						final String name = method.getName();
+						if (name.equals("glGenBuffers") || name.equals("glBufferData")
+								|| name.equals("glBufferSubData")) {
+							calls.add(name);
+						}
+						return null;
+					}
+				});
+		final FloatBuffer data = FloatBuffer.allocate(30);
+		data.limit(12);
+		final VertexBufferObject buffer = new VertexBufferObject();
+
+		buffer.update(gl, data);
+		assertEquals(3, calls.size());
+		assertEquals("glGenBuffers", calls.get(0));
+		assertEquals("glBufferData", calls.get(1));
+		assertEquals("glBufferSubData", calls.get(2));
+		assertEquals(12 * 4, buffer.getUploadedBytes());
+
+		//not swapped, not uploaded.
+		calls.clear();
+		buffer.update(gl, data);
+		assertTrue(calls.isEmpty());
+
+		//swapped, and still fits.
+		buffer.markDirty();
+		buffer.update(gl, data);
+		assertEquals(1, calls.size());
+		assertEquals("glBufferSubData", calls.get(0));
+
+		//a new context - a new buffer, allocated and filled although the data didn't change.
+		calls.clear();
+		buffer.clearHandle();
+		buffer.update(gl, data);
+		assertEquals(3, calls.size());
+		assertEquals("glGenBuffers", calls.get(0));
+		assertEquals("glBufferData", calls.get(1));
+	}
+}
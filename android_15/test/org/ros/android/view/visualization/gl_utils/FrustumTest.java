@@ -0,0 +1,106 @@
+package org.ros.android.view.visualization.gl_utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link Frustum}'s projection, plane extraction and picking against known matrices.
+ */
+public class FrustumTest {
+	private static final float EPSILON = 1e-5f;
+	private static final float[] IDENTITY = new float[]{
+			1, 0, 0, 0,
+			0, 1, 0, 0,
+			0, 0, 1, 0,
+			0, 0, 0, 1};
+
+	private static float[] newTranslation(float x, float y, float z) {
+		final float[] m = IDENTITY.clone();
+		m[12] = x;
+		m[13] = y;
+		m[14] = z;
+		return m;
+	}
+
+	private static void assertMatrixEquals(float[] expected, float[] actual) {
+		for (int i = 0; i < 16; i++) {
+			assertEquals(expected[i], actual[i], EPSILON);
+		}
+	}
+
+	@Test
+	public void testPerspective() {
+		//a 90 degrees field of view, so f = 1 / tan(45) = 1.
+		final float[] m = new float[16];
+		Frustum.perspective(m, 90, 2, 1, 3);
+		assertMatrixEquals(new float[]{
+				0.5f, 0, 0, 0,
+				0, 1, 0, 0,
+				0, 0, -2, -1,
+				0, 0, -3, 0}, m);
+	}
+
+	@Test
+	public void testPlanes() {
+		//looking down -z, 45 degrees to every side, from 1 to 10 away.
+		final float[] projection = new float[16];
+		Frustum.perspective(projection, 90, 1, 1, 10);
+		final Frustum frustum = new Frustum();
+		frustum.set(projection, IDENTITY);
+
+		assertTrue(frustum.containsPoint(0, 0, -5));
+		assertTrue(frustum.containsPoint(4.9f, 0, -5));
+		assertTrue(frustum.containsPoint(0, -4.9f, -5));
+		assertFalse(frustum.containsPoint(5.1f, 0, -5));
+		assertFalse(frustum.containsPoint(0, 5.1f, -5));
+		assertFalse(frustum.containsPoint(0, 0, -0.9f));
+		assertFalse(frustum.containsPoint(0, 0, -10.1f));
+		assertFalse(frustum.containsPoint(0, 0, 5));
+
+		//a box intersects if any part of it is inside.
+		assertTrue(frustum.intersectsBox(4, -1, -6, 8, 1, -4));
+		assertFalse(frustum.intersectsBox(7, -1, -6, 8, 1, -4));
+		assertTrue(frustum.intersectsBox(-100, -100, -100, 100, 100, 100));
+
+		//the planes are in the model's frame.
+		frustum.set(projection, newTranslation(0, 0, -5));
+		assertTrue(frustum.containsPoint(0, 0, 0));
+		assertFalse(frustum.containsPoint(0, 0, 4.5f));
+		assertFalse(frustum.containsPoint(0, 0, -5.5f));
+	}
+
+	@Test
+	public void testGetRay() {
+		final float[] projection = new float[16];
+		Frustum.perspective(projection, 90, 1, 1, 10);
+		final Frustum frustum = new Frustum();
+		frustum.set(projection, newTranslation(0, 0, -5));
+		final float[] origin = new float[3];
+		final float[] direction = new float[3];
+
+		//the screen's center looks straight ahead, from the near plane.
+		assertTrue(frustum.getRay(50, 50, 100, 100, origin, direction));
+		assertEquals(0, origin[0], EPSILON);
+		assertEquals(0, origin[1], EPSILON);
+		assertEquals(4, origin[2], EPSILON);
+		assertEquals(0, direction[0], EPSILON);
+		assertEquals(0, direction[1], EPSILON);
+		assertEquals(-1, direction[2], EPSILON);
+
+		//the top left corner is 45 degrees to the left and up.
+		assertTrue(frustum.getRay(0, 0, 100, 100, origin, direction));
+		final float component = 1 / (float) Math.sqrt(3);
+		assertEquals(-1, origin[0], EPSILON);
+		assertEquals(1, origin[1], EPSILON);
+		assertEquals(-component, direction[0], EPSILON);
+		assertEquals(component, direction[1], EPSILON);
+		assertEquals(-component, direction[2], EPSILON);
+
+		assertFalse(frustum.getRay(0, 0, 0, 100, origin, direction));
+		frustum.set(projection, new float[16]);
+		assertFalse(frustum.getRay(50, 50, 100, 100, origin, direction));
+	}
+}
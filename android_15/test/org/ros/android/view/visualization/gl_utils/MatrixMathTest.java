@@ -0,0 +1,77 @@
+package org.ros.android.view.visualization.gl_utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link MatrixMath} against known matrices.
+ */
+public class MatrixMathTest {
+	private static final float EPSILON = 1e-5f;
+	private static final float[] IDENTITY = new float[]{
+			1, 0, 0, 0,
+			0, 1, 0, 0,
+			0, 0, 1, 0,
+			0, 0, 0, 1};
+
+	private static float[] newTranslation(float x, float y, float z) {
+		final float[] m = IDENTITY.clone();
+		m[12] = x;
+		m[13] = y;
+		m[14] = z;
+		return m;
+	}
+
+	private static void assertMatrixEquals(float[] expected, float[] actual) {
+		for (int i = 0; i < 16; i++) {
+			assertEquals(expected[i], actual[i], EPSILON);
+		}
+	}
+
+	@Test
+	public void testMultiply() {
+		final float[] scale = new float[]{
+				2, 0, 0, 0,
+				0, 3, 0, 0,
+				0, 0, 4, 0,
+				0, 0, 0, 1};
+		final float[] result = new float[16];
+
+		//translating after scaling keeps the translation as it is.
+		MatrixMath.multiply(result, newTranslation(1, 2, 3), scale);
+		final float[] expected = scale.clone();
+		expected[12] = 1;
+		expected[13] = 2;
+		expected[14] = 3;
+		assertMatrixEquals(expected, result);
+
+		//scaling after translating scales it.
+		MatrixMath.multiply(result, scale, newTranslation(1, 2, 3));
+		expected[12] = 2;
+		expected[13] = 6;
+		expected[14] = 12;
+		assertMatrixEquals(expected, result);
+	}
+
+	@Test
+	public void testInvert() {
+		final float[] projection = new float[16];
+		Frustum.perspective(projection, 60, 1.5f, 0.5f, 100);
+		final float[] modelViewProjection = new float[16];
+		MatrixMath.multiply(modelViewProjection, projection, newTranslation(1, -2, -10));
+
+		final float[] inverse = new float[16];
+		assertTrue(MatrixMath.invert(inverse, modelViewProjection));
+		final float[] product = new float[16];
+		MatrixMath.multiply(product, modelViewProjection, inverse);
+		assertMatrixEquals(IDENTITY, product);
+
+		assertTrue(MatrixMath.invert(inverse, newTranslation(1, 2, 3)));
+		assertMatrixEquals(newTranslation(-1, -2, -3), inverse);
+
+		assertFalse(MatrixMath.invert(inverse, new float[16]));
+	}
+}
@@ -0,0 +1,136 @@
+package org.ros.android.view.visualization.gl_utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the allocation-free methods of {@link ModelMatrix}, which are used on the render thread and in
+ * gesture handling. {@link ViewMatricesTest} checks that they don't allocate.
+ */
+public class ModelMatrixTest {
+	private static final float EPSILON = 1e-5f;
+
+	private static ModelMatrix newTransform(float angle, float x, float y, float z) {
+		//a rotation round z, then a translation.
+		final float cos = (float) Math.cos(Math.toRadians(angle));
+		final float sin = (float) Math.sin(Math.toRadians(angle));
+		return new ModelMatrix(new float[]{
+				cos, sin, 0, 0,
+				-sin, cos, 0, 0,
+				0, 0, 1, 0,
+				x, y, z, 1});
+	}
+
+	private static void assertMatrixEquals(float[] expected, float[] actual) {
+		for (int i = 0; i < 16; i++) {
+			assertEquals(expected[i], actual[i], EPSILON);
+		}
+	}
+
+	@Test
+	public void testMultIntoResult() {
+		final ModelMatrix a = newTransform(30, 1, 2, 3);
+		final ModelMatrix b = newTransform(-45, 4, 5, 6);
+		final float[] expected = new float[16];
+		MatrixMath.multiply(expected, a.getMat(), b.getMat());
+
+		final ModelMatrix result = new ModelMatrix();
+		a.mult(b, result);
+		assertMatrixEquals(expected, result.getMat());
+
+		//the result may be either operand.
+		final ModelMatrix left = a.clone();
+		left.mult(b, left);
+		assertMatrixEquals(expected, left.getMat());
+		final ModelMatrix right = b.clone();
+		a.mult(right, right);
+		assertMatrixEquals(expected, right.getMat());
+	}
+
+	@Test
+	public void testInvert() {
+		final ModelMatrix m = newTransform(60, -1, 2, 7);
+		final ModelMatrix inverse = new ModelMatrix();
+		assertTrue(m.invert(inverse));
+		final ModelMatrix product = new ModelMatrix();
+		m.mult(inverse, product);
+		assertMatrixEquals(new ModelMatrix().getMat(), product.getMat());
+
+		//a singular model leaves the result as it was.
+		final ModelMatrix singular = new ModelMatrix(new float[16]);
+		assertFalse(singular.invert(inverse));
+		m.mult(inverse, product);
+		assertMatrixEquals(new ModelMatrix().getMat(), product.getMat());
+	}
+
+	@Test
+	public void testSetLookAt() {
+		final ModelMatrix eye = new ModelMatrix();
+		eye.setLookAt(1, 2, 3, 1, 2, 0, 0, 1, 0);
+		final float[] point = new float[3];
+
+		//the eye is moved to the origin, looking down -z.
+		eye.mult(1, 2, 3, point, 0);
+		assertEquals(0, point[0], EPSILON);
+		assertEquals(0, point[1], EPSILON);
+		assertEquals(0, point[2], EPSILON);
+		eye.mult(1, 2, 0, point, 0);
+		assertEquals(0, point[0], EPSILON);
+		assertEquals(0, point[1], EPSILON);
+		assertEquals(-3, point[2], EPSILON);
+		eye.mult(2, 3, 3, point, 0);
+		assertEquals(1, point[0], EPSILON);
+		assertEquals(1, point[1], EPSILON);
+		assertEquals(0, point[2], EPSILON);
+
+		eye.getAxisZNormalized(point);
+		assertEquals(0, point[0], EPSILON);
+		assertEquals(0, point[1], EPSILON);
+		assertEquals(1, point[2], EPSILON);
+	}
+
+	@Test
+	public void testMultPoint() {
+		final ModelMatrix m = newTransform(90, 1, 2, 3);
+		final float[] point = new float[6];
+		m.mult(1, 0, 0, point, 3);
+		assertEquals(1, point[3], EPSILON);
+		assertEquals(3, point[4], EPSILON);
+		assertEquals(3, point[5], EPSILON);
+		m.getPosition(point);
+		assertEquals(1, point[0], EPSILON);
+		assertEquals(2, point[1], EPSILON);
+		assertEquals(3, point[2], EPSILON);
+	}
+
+	@Test
+	public void testTranslateAndRotate() {
+		final ModelMatrix m = newTransform(30, 1, 2, 3);
+		final float[] expected = new float[16];
+		MatrixMath.multiply(expected, m.getMat(), newTransform(0, 4, 5, 6).getMat());
+		final ModelMatrix translated = m.clone();
+		translated.translate(4, 5, 6);
+		assertMatrixEquals(expected, translated.getMat());
+
+		MatrixMath.multiply(expected, m.getMat(), newTransform(45, 0, 0, 0).getMat());
+		final ModelMatrix rotated = m.clone();
+		rotated.rotateZ(45);
+		assertMatrixEquals(expected, rotated.getMat());
+		//the axis needn't be normalized.
+		rotated.set(m);
+		rotated.rotate(45, 0, 0, 3);
+		assertMatrixEquals(expected, rotated.getMat());
+
+		//a rotation round x takes y to z.
+		final ModelMatrix aroundX = new ModelMatrix();
+		aroundX.rotateX(90);
+		final float[] point = new float[3];
+		aroundX.mult(0, 1, 0, point, 0);
+		assertEquals(0, point[0], EPSILON);
+		assertEquals(0, point[1], EPSILON);
+		assertEquals(1, point[2], EPSILON);
+	}
+}
@@ -0,0 +1,97 @@
+package org.ros.android.view.visualization.gl_utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks which points {@link PolylineSimplifier} keeps on small hand-made polylines.
+ */
+public class PolylineSimplifierTest {
+	private static final float EPSILON = 1e-5f;
+
+	/**
+	 * @return x, y, z triples of the given x, y pairs, with z = the point's index.
+	 */
+	private static float[] newPolyline(float... xy) {
+		final float[] points = new float[xy.length / 2 * 3];
+		for (int i = 0; i < xy.length / 2; i++) {
+			points[i * 3] = xy[i * 2];
+			points[i * 3 + 1] = xy[i * 2 + 1];
+			points[i * 3 + 2] = i;
+		}
+		return points;
+	}
+
+	@Test
+	public void testStraightLineKeepsEndpoints() {
+		final float[] points = newPolyline(0, 0, 1, 0.01f, 2, -0.01f, 3, 0, 4, 0);
+		final boolean[] keep = new boolean[5];
+		new PolylineSimplifier().mark(points, 5, 0.1f, keep);
+		assertTrue(keep[0]);
+		assertFalse(keep[1]);
+		assertFalse(keep[2]);
+		assertFalse(keep[3]);
+		assertTrue(keep[4]);
+	}
+
+	@Test
+	public void testCornerIsKept() {
+		final float[] points = newPolyline(0, 0, 1, 0, 2, 0, 2, 1, 2, 2);
+		final float[] result = new float[15];
+		assertEquals(3, new PolylineSimplifier().simplify(points, 5, 0.1f, result, 0));
+		//the z of each kept point is its index.
+		assertEquals(0, result[2], EPSILON);
+		assertEquals(2, result[3], EPSILON);
+		assertEquals(0, result[4], EPSILON);
+		assertEquals(2, result[5], EPSILON);
+		assertEquals(4, result[8], EPSILON);
+	}
+
+	@Test
+	public void testFoldBackIsKept() {
+		//the turning point lies on the line through the endpoints, but far from the segment between them.
+		final float[] points = newPolyline(0, 0, 5, 0, 10, 0, 5, 0.01f);
+		final boolean[] keep = new boolean[4];
+		new PolylineSimplifier().mark(points, 4, 0.1f, keep);
+		assertTrue(keep[0]);
+		assertFalse(keep[1]);
+		assertTrue(keep[2]);
+		assertTrue(keep[3]);
+	}
+
+	@Test
+	public void testDeviationWithinTolerance() {
+		final float[] points = newPolyline(0, 0, 1, 0.5f, 2, 0);
+		final boolean[] keep = new boolean[3];
+		final PolylineSimplifier simplifier = new PolylineSimplifier();
+		simplifier.mark(points, 3, 0.6f, keep);
+		assertFalse(keep[1]);
+		simplifier.mark(points, 3, 0.4f, keep);
+		assertTrue(keep[1]);
+	}
+
+	@Test
+	public void testFewPoints() {
+		final PolylineSimplifier simplifier = new PolylineSimplifier();
+		final float[] result = new float[3];
+		assertEquals(0, simplifier.simplify(new float[0], 0, 0.1f, result, 0));
+
+		final float[] point = newPolyline(3, 4);
+		assertEquals(1, simplifier.simplify(point, 1, 0.1f, result, 0));
+		assertEquals(3, result[0], EPSILON);
+		assertEquals(4, result[1], EPSILON);
+	}
+
+	@Test
+	public void testSimplifyInPlace() {
+		final float[] points = newPolyline(0, 0, 1, 0, 2, 0, 2, 1, 2, 2);
+		assertEquals(3, new PolylineSimplifier().simplify(points, 5, 0.1f, points, 0));
+		assertEquals(2, points[3], EPSILON);
+		assertEquals(0, points[4], EPSILON);
+		assertEquals(2, points[6], EPSILON);
+		assertEquals(2, points[7], EPSILON);
+	}
+}
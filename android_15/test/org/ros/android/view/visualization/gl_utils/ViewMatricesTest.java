@@ -0,0 +1,106 @@
+package org.ros.android.view.visualization.gl_utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.ros.android.view.visualization.AllocationCounter;
+
+/**
+ * Checks the per-frame and gesture math of {@link ViewMatrices}, and that it doesn't allocate.
+ */
+public class ViewMatricesTest {
+	private static final float EPSILON = 1e-4f;
+	private static final int ITERATIONS = 10000;
+
+	@Test
+	public void testUpdateEye() {
+		final ViewMatrices view = new ViewMatrices();
+		view.getCameraMatrix().translate(0, 0, -10);
+		view.updateEye();
+
+		//the camera looks along its z axis, at the origin.
+		final float[] point = new float[3];
+		view.getEyeMatrix().mult(0, 0, 0, point, 0);
+		assertEquals(0, point[0], EPSILON);
+		assertEquals(0, point[1], EPSILON);
+		assertEquals(-10, point[2], EPSILON);
+		assertEquals(10, view.getDistance(0, 0, 0), EPSILON);
+
+		//the model's transformation is applied before the eye's.
+		view.getModelMatrix().translate(0, 0, 5);
+		assertEquals(15, view.getDistance(0, 0, 0), EPSILON);
+		final float[] modelView = new float[16];
+		view.getModelView(modelView);
+		assertEquals(-15, modelView[14], EPSILON);
+	}
+
+	@Test
+	public void testUpdateLastMatrices() {
+		final ViewMatrices view = new ViewMatrices();
+		view.updateEye();
+		assertTrue(view.updateLastMatrices());
+		assertFalse(view.updateLastMatrices());
+
+		view.getModelMatrix().translate(1, 0, 0);
+		final float[] modelView = new float[16];
+		view.getLastModelView(modelView);
+		assertEquals(0, modelView[12], EPSILON);
+		assertTrue(view.updateLastMatrices());
+		view.getLastModelView(modelView);
+		//looking along the world's z axis, the eye's x axis is the world's -x.
+		assertEquals(-1, modelView[12], EPSILON);
+	}
+
+	@Test
+	public void testRotateModelOnEyeAxis() {
+		final ViewMatrices view = new ViewMatrices();
+		view.getCameraMatrix().translate(0, 0, -10);
+		view.getCameraMatrix().rotateY(90);
+		view.updateEye();
+
+		//the eye's z axis is the world's x axis: a rotation round it keeps the model's x axis in place,
+		//and turns its y axis to -z.
+		assertTrue(view.rotateModelOnEyeAxis(90, ViewMatrices.Z_AXIS));
+		final float[] point = new float[3];
+		view.getModelMatrix().mult(1, 0, 0, point, 0);
+		assertEquals(1, point[0], EPSILON);
+		assertEquals(0, point[1], EPSILON);
+		assertEquals(0, point[2], EPSILON);
+		view.getModelMatrix().mult(0, 1, 0, point, 0);
+		assertEquals(0, point[0], EPSILON);
+		assertEquals(0, point[1], EPSILON);
+		assertEquals(-1, point[2], EPSILON);
+
+		assertFalse(view.rotateModelOnEyeAxis(90, 3));
+	}
+
+	@Test
+	public void testNoAllocation() throws Exception {
+		final AllocationCounter allocations = AllocationCounter.create();
+		Assume.assumeTrue(allocations != null);
+		final ViewMatrices view = new ViewMatrices();
+		view.getCameraMatrix().translate(0, 0, -10);
+		final float[] modelView = new float[16];
+
+		//a frame and a gesture of the point cloud layer.
+		final long allocated = allocations.count(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < ITERATIONS; i++) {
+					view.getCameraMatrix().translate(0, 0, 0.001f);
+					view.getCameraMatrix().rotateY(0.01f);
+					view.updateEye();
+					view.updateLastMatrices();
+					view.getModelView(modelView);
+					view.getDistance(1, 2, 3);
+					view.rotateModelOnEyeAxis(1, ViewMatrices.X_AXIS);
+					view.getLastModelView(modelView);
+				}
+			}
+		});
+		assertTrue("Allocated " + allocated + " bytes.", allocated < ITERATIONS);
+	}
+}
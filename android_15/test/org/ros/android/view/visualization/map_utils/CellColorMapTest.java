@@ -0,0 +1,64 @@
+package org.ros.android.view.visualization.map_utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks the colors {@link CellColorMap} gives free, occupied, unknown and out of range cells.
+ */
+public class CellColorMapTest {
+	private static final int FREE = 0xffffffff;
+	private static final int OCCUPIED = 0xff111111;
+	private static final int UNKNOWN = 0xffdddddd;
+
+	@Test
+	public void testThreeColors() {
+		final CellColorMap colorMap = CellColorMap.THREE_COLORS;
+		assertEquals(UNKNOWN, colorMap.getColor(CellColorMap.UNKNOWN));
+		assertEquals(FREE, colorMap.getColor((byte) 0));
+		assertEquals(FREE, colorMap.getColor((byte) 49));
+		assertEquals(OCCUPIED, colorMap.getColor((byte) 50));
+		assertEquals(OCCUPIED, colorMap.getColor((byte) 100));
+		assertEquals(OCCUPIED, colorMap.getColor((byte) 127));
+		//negative cells other than unknown are free.
+		assertEquals(FREE, colorMap.getColor((byte) -2));
+	}
+
+	@Test
+	public void testGradient() {
+		final int[] stops = new int[]{0xff000000, 0xff0000ff, 0xffffffff};
+		final CellColorMap colorMap = CellColorMap.gradient(stops, UNKNOWN);
+		assertEquals(0xff000000, colorMap.getColor((byte) 0));
+		assertEquals(0xff0000ff, colorMap.getColor((byte) 50));
+		assertEquals(0xff000080, colorMap.getColor((byte) 25));
+		assertEquals(0xffffffff, colorMap.getColor((byte) 100));
+		assertEquals(UNKNOWN, colorMap.getColor((byte) 101));
+		assertEquals(UNKNOWN, colorMap.getColor(CellColorMap.UNKNOWN));
+	}
+
+	@Test
+	public void testToColors() {
+		final byte[] cells = new byte[]{7, CellColorMap.UNKNOWN, 0, 100};
+		final int[] colors = new int[4];
+		CellColorMap.THREE_COLORS.toColors(cells, 1, colors, 1, 3);
+		assertEquals(0, colors[0]);
+		assertEquals(UNKNOWN, colors[1]);
+		assertEquals(FREE, colors[2]);
+		assertEquals(OCCUPIED, colors[3]);
+	}
+
+	@Test
+	public void testFromArgbCopiesColors() {
+		final int[] argb = new int[CellColorMap.SIZE];
+		argb[0xff] = 0xff123456;
+		final CellColorMap colorMap = CellColorMap.fromArgb(argb);
+		argb[0xff] = 0;
+		assertEquals(0xff123456, colorMap.getColor(CellColorMap.UNKNOWN));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFromArgbSize() {
+		CellColorMap.fromArgb(new int[CellColorMap.SIZE - 1]);
+	}
+}
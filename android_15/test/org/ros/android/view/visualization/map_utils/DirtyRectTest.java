@@ -0,0 +1,53 @@
+package org.ros.android.view.visualization.map_utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks how {@link DirtyRect} grows and empties.
+ */
+public class DirtyRectTest {
+	private static void assertRect(int x, int y, int width, int height, DirtyRect rect) {
+		assertFalse(rect.isEmpty());
+		assertEquals(x, rect.getX());
+		assertEquals(y, rect.getY());
+		assertEquals(width, rect.getWidth());
+		assertEquals(height, rect.getHeight());
+	}
+
+	@Test
+	public void testEmpty() {
+		final DirtyRect rect = new DirtyRect();
+		assertTrue(rect.isEmpty());
+		assertEquals(0, rect.getWidth());
+		assertEquals(0, rect.getHeight());
+
+		//empty regions don't grow it.
+		rect.add(3, 4, 0, 5);
+		rect.add(3, 4, 5, -1);
+		rect.add(new DirtyRect());
+		assertTrue(rect.isEmpty());
+	}
+
+	@Test
+	public void testBoundingRectangle() {
+		final DirtyRect rect = new DirtyRect();
+		rect.add(2, 3, 1, 1);
+		assertRect(2, 3, 1, 1, rect);
+		rect.add(5, 1, 2, 1);
+		assertRect(2, 1, 5, 3, rect);
+
+		final DirtyRect other = new DirtyRect();
+		other.add(0, 8, 1, 2);
+		rect.add(other);
+		assertRect(0, 1, 7, 9, rect);
+
+		rect.clear();
+		assertTrue(rect.isEmpty());
+		rect.add(4, 4, 2, 2);
+		assertRect(4, 4, 2, 2, rect);
+	}
+}
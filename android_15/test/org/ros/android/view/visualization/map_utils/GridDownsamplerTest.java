@@ -0,0 +1,96 @@
+package org.ros.android.view.visualization.map_utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Checks {@link GridDownsampler}'s max-pooling, which decides what every coarser level of a map shows.
+ */
+public class GridDownsamplerTest {
+	private static final byte U = -1;
+
+	private static byte[] pool(byte[] source, int sourceWidth, int sourceHeight) {
+		final int width = GridDownsampler.halve(sourceWidth);
+		final int height = GridDownsampler.halve(sourceHeight);
+		final byte[] target = new byte[width * height];
+		GridDownsampler.maxPool(source, sourceWidth, sourceHeight, target, width, 0, 0, width, height);
+		return target;
+	}
+
+	@Test
+	public void testHalve() {
+		assertEquals(1, GridDownsampler.halve(1));
+		assertEquals(1, GridDownsampler.halve(2));
+		assertEquals(2, GridDownsampler.halve(3));
+		assertEquals(512, GridDownsampler.halve(1024));
+		assertEquals(513, GridDownsampler.halve(1025));
+	}
+
+	@Test
+	public void testOccupiedBeatsFreeBeatsUnknown() {
+		assertArrayEquals(new byte[]{U}, pool(new byte[]{U, U, U, U}, 2, 2));
+		assertArrayEquals(new byte[]{0}, pool(new byte[]{U, U, 0, U}, 2, 2));
+		assertArrayEquals(new byte[]{100}, pool(new byte[]{0, U, 100, 0}, 2, 2));
+		assertArrayEquals(new byte[]{50}, pool(new byte[]{0, 50, U, 20}, 2, 2));
+	}
+
+	@Test
+	public void testOddSizes() {
+		//the last column and row pool only the cells there are.
+		final byte[] source = new byte[]{
+				U, 0, 100,
+				U, U, U,
+				0, U, U};
+		assertArrayEquals(new byte[]{
+				0, 100,
+				0, U}, pool(source, 3, 3));
+
+		assertArrayEquals(new byte[]{0, 100}, pool(new byte[]{U, 0, 100}, 3, 1));
+		assertArrayEquals(new byte[]{0, U}, pool(new byte[]{U, 0, U}, 1, 3));
+	}
+
+	@Test
+	public void testRegion() {
+		final byte[] source = new byte[16];
+		Arrays.fill(source, U);
+		final byte[] target = pool(source, 4, 4);
+
+		source[0] = 100;
+		source[3 * 4 + 3] = 100;
+		//only the bottom right cell of the target is recomputed.
+		GridDownsampler.maxPool(source, 4, 4, target, 2, 1, 1, 1, 1);
+		assertArrayEquals(new byte[]{
+				U, U,
+				U, 100}, target);
+
+		GridDownsampler.maxPool(source, 4, 4, target, 2, 0, 0, 2, 1);
+		assertArrayEquals(new byte[]{
+				100, U,
+				U, 100}, target);
+	}
+
+	@Test
+	public void testThinWallSurvivesAllLevels() {
+		//a free 8 x 8 map with a wall one cell wide in column 5.
+		byte[] cells = new byte[64];
+		for (int i = 0; i < 64; i++) {
+			cells[i] = (byte) (i % 8 == 5 ? 100 : 0);
+		}
+		int size = 8;
+		int column = 5;
+		while (size > 1) {
+			cells = pool(cells, size, size);
+			size = GridDownsampler.halve(size);
+			column /= 2;
+			for (int row = 0; row < size; row++) {
+				for (int x = 0; x < size; x++) {
+					assertEquals(x == column ? 100 : 0, cells[row * size + x]);
+				}
+			}
+		}
+	}
+}
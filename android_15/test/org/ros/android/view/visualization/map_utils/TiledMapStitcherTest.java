@@ -0,0 +1,197 @@
+package org.ros.android.view.visualization.map_utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Decodes payloads written by the tiled map transport. The same payloads are in the transport's
+ * TiledMapFormatTest, so a change to the format on either side fails one of the tests.
+ */
+public class TiledMapStitcherTest {
+	private static final int WIDTH = 5;
+	private static final int HEIGHT = 3;
+
+	private static final byte[] CELLS = new byte[]{
+			-1, -1, 0, 0, 100,
+			-1, 0, 0, 100, 100,
+			0, 0, 50, 100, -1};
+
+	/**
+	 * Both tiles of CELLS, 4 cells wide, as runs, in a key frame with sequence number 1.
+	 */
+	private static final byte[] RUN_LENGTH_PAYLOAD = new byte[]{
+			84, 77, 65, 80, 2, 1, 1, 0, 0, 0, 1,
+			0, 0, 0, 5, 0, 0, 0, 3, 0, 0, 0, 4, 0, 0, 0, 2,
+			0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 16,
+			-1, 2, 0, 2, -1, 1, 0, 2, 100, 1, 0, 2, 50, 1, 100, 1,
+			0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 4,
+			100, 2, -1, 1};
+
+	/**
+	 * Both tiles of CELLS, 4 cells wide, deflated, in a key frame with sequence number 1.
+	 */
+	private static final byte[] DEFLATE_PAYLOAD = new byte[]{
+			84, 77, 65, 80, 2, 2, 1, 0, 0, 0, 1,
+			0, 0, 0, 5, 0, 0, 0, 3, 0, 0, 0, 4, 0, 0, 0, 2,
+			0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 18,
+			120, -100, -5, -1, -97, -127, 1, -120, 82, 24, 24, -116, 82, 0, 33, -87, 3, -8,
+			0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 11,
+			120, -100, 75, 73, -7, 15, 0, 2, -10, 1, -56};
+
+	/**
+	 * A payload which isn't a key frame, with only the second tile of RUN_LENGTH_PAYLOAD.
+	 */
+	private static byte[] newDelta(int sequence) {
+		final int secondTile = TiledMapStitcher.HEADER_LENGTH + TiledMapStitcher.TILE_HEADER_LENGTH + 16;
+		final byte[] payload = new byte[TiledMapStitcher.HEADER_LENGTH + RUN_LENGTH_PAYLOAD.length - secondTile];
+		System.arraycopy(RUN_LENGTH_PAYLOAD, 0, payload, 0, TiledMapStitcher.HEADER_LENGTH);
+		System.arraycopy(RUN_LENGTH_PAYLOAD, secondTile, payload, TiledMapStitcher.HEADER_LENGTH,
+				RUN_LENGTH_PAYLOAD.length - secondTile);
+		payload[6] = 0;
+		payload[10] = (byte) sequence;
+		payload[TiledMapStitcher.HEADER_LENGTH - 1] = 1;
+		return payload;
+	}
+
+	/**
+	 * @return A deflate key frame with only the second tile of CELLS, which is 1 x 3 cells, deflated from
+	 * the given cells.
+	 */
+	private static byte[] newDeflatedSecondTile(byte[] cells) {
+		final Deflater deflater = new Deflater();
+		deflater.setInput(cells);
+		deflater.finish();
+		final byte[] deflated = new byte[64];
+		final int deflatedLength = deflater.deflate(deflated);
+		deflater.end();
+		final int length = TiledMapStitcher.HEADER_LENGTH + TiledMapStitcher.TILE_HEADER_LENGTH + deflatedLength;
+		final byte[] payload = new byte[length];
+		System.arraycopy(DEFLATE_PAYLOAD, 0, payload, 0, TiledMapStitcher.HEADER_LENGTH);
+		payload[TiledMapStitcher.HEADER_LENGTH - 1] = 1;
+		payload[TiledMapStitcher.HEADER_LENGTH + 3] = 1;
+		payload[TiledMapStitcher.HEADER_LENGTH + 11] = (byte) deflatedLength;
+		System.arraycopy(deflated, 0, payload, TiledMapStitcher.HEADER_LENGTH + TiledMapStitcher.TILE_HEADER_LENGTH,
+				deflatedLength);
+		return payload;
+	}
+
+	/**
+	 * @return The map with the stitcher's stale tiles unknown.
+	 */
+	private static byte[] fillStaleTiles(TiledMapStitcher stitcher, byte[] map) {
+		final byte[] cells = map.clone();
+		stitcher.fillStaleTiles(cells, WIDTH, HEIGHT, CellColorMap.UNKNOWN);
+		return cells;
+	}
+
+	private static byte[] newUnknownMap() {
+		final byte[] map = new byte[WIDTH * HEIGHT];
+		Arrays.fill(map, CellColorMap.UNKNOWN);
+		return map;
+	}
+
+	@Test
+	public void testRunLength() {
+		final byte[] map = newUnknownMap();
+		assertTrue(new TiledMapStitcher(null).stitch(RUN_LENGTH_PAYLOAD, RUN_LENGTH_PAYLOAD.length, map,
+				WIDTH, HEIGHT));
+		assertArrayEquals(CELLS, map);
+	}
+
+	@Test
+	public void testDeflate() {
+		final TiledMapStitcher stitcher = new TiledMapStitcher(null);
+		//twice, as the inflater is reused.
+		for (int i = 0; i < 2; i++) {
+			final byte[] map = newUnknownMap();
+			assertTrue(stitcher.stitch(DEFLATE_PAYLOAD, DEFLATE_PAYLOAD.length, map, WIDTH, HEIGHT));
+			assertArrayEquals(CELLS, map);
+		}
+	}
+
+	@Test
+	public void testDeflatedCellCount() {
+		final TiledMapStitcher stitcher = new TiledMapStitcher(null);
+		final byte[] map = newUnknownMap();
+		final byte[] exact = newDeflatedSecondTile(new byte[]{100, 100, -1});
+		assertTrue(stitcher.stitch(exact, exact.length, map, WIDTH, HEIGHT));
+		assertEquals(100, map[WIDTH - 1]);
+		assertEquals(-1, map[3 * WIDTH - 1]);
+
+		//a tile with more cells than its rectangle, or fewer, is malformed.
+		final byte[] tooMany = newDeflatedSecondTile(new byte[]{100, 100, -1, 0});
+		assertFalse(stitcher.stitch(tooMany, tooMany.length, newUnknownMap(), WIDTH, HEIGHT));
+		assertFalse(stitcher.isSynced());
+		final byte[] tooFew = newDeflatedSecondTile(new byte[]{100, 100});
+		assertFalse(stitcher.stitch(tooFew, tooFew.length, newUnknownMap(), WIDTH, HEIGHT));
+	}
+
+	@Test
+	public void testMalformed() {
+		final TiledMapStitcher stitcher = new TiledMapStitcher(null);
+		//truncated.
+		assertFalse(stitcher.stitch(RUN_LENGTH_PAYLOAD, RUN_LENGTH_PAYLOAD.length - 1, newUnknownMap(), WIDTH,
+				HEIGHT));
+		assertFalse(stitcher.stitch(DEFLATE_PAYLOAD, DEFLATE_PAYLOAD.length - 1, newUnknownMap(), WIDTH,
+				HEIGHT));
+		//another map size.
+		assertFalse(stitcher.stitch(RUN_LENGTH_PAYLOAD, RUN_LENGTH_PAYLOAD.length, new byte[WIDTH * WIDTH],
+				WIDTH, WIDTH));
+		//PNG tiles without a decoder.
+		final byte[] png = RUN_LENGTH_PAYLOAD.clone();
+		png[5] = TiledMapStitcher.CODEC_PNG;
+		assertFalse(stitcher.stitch(png, png.length, newUnknownMap(), WIDTH, HEIGHT));
+	}
+
+	@Test
+	public void testLostDeltaMarksTilesStale() {
+		final TiledMapStitcher stitcher = new TiledMapStitcher(null);
+		final byte[] map = newUnknownMap();
+		assertTrue(stitcher.stitch(RUN_LENGTH_PAYLOAD, RUN_LENGTH_PAYLOAD.length, map, WIDTH, HEIGHT));
+		assertTrue(stitcher.isSynced());
+		assertTrue(stitcher.stitch(newDelta(2), newDelta(2).length, map, WIDTH, HEIGHT));
+		assertTrue(stitcher.isSynced());
+		assertArrayEquals(CELLS, fillStaleTiles(stitcher, map));
+
+		//3 is lost, so the first tile is stale, while the second one was sent since.
+		assertTrue(stitcher.stitch(newDelta(4), newDelta(4).length, map, WIDTH, HEIGHT));
+		assertFalse(stitcher.isSynced());
+		assertArrayEquals(CELLS, map);
+		final byte[] cells = fillStaleTiles(stitcher, map);
+		for (int i = 0; i < cells.length; i++) {
+			assertEquals(i % WIDTH < 4 ? CellColorMap.UNKNOWN : CELLS[i], cells[i]);
+		}
+
+		//in order again, but only a key frame brings the first tile back.
+		assertTrue(stitcher.stitch(newDelta(5), newDelta(5).length, map, WIDTH, HEIGHT));
+		assertFalse(stitcher.isSynced());
+		final byte[] keyFrame = RUN_LENGTH_PAYLOAD.clone();
+		keyFrame[10] = 5;
+		assertTrue(stitcher.stitch(keyFrame, keyFrame.length, map, WIDTH, HEIGHT));
+		assertTrue(stitcher.isSynced());
+		assertArrayEquals(CELLS, fillStaleTiles(stitcher, map));
+		assertTrue(stitcher.stitch(newDelta(6), newDelta(6).length, map, WIDTH, HEIGHT));
+		assertTrue(stitcher.isSynced());
+	}
+
+	@Test
+	public void testMalformedMarksTilesStale() {
+		final TiledMapStitcher stitcher = new TiledMapStitcher(null);
+		final byte[] map = newUnknownMap();
+		assertTrue(stitcher.stitch(RUN_LENGTH_PAYLOAD, RUN_LENGTH_PAYLOAD.length, map, WIDTH, HEIGHT));
+		assertFalse(stitcher.stitch(newDelta(2), newDelta(2).length - 1, map, WIDTH, HEIGHT));
+		assertFalse(stitcher.isSynced());
+		assertArrayEquals(newUnknownMap(), fillStaleTiles(stitcher, map));
+
+		//the first delta after it is in order, but can't tell what the malformed one changed.
+		assertTrue(stitcher.stitch(newDelta(3), newDelta(3).length, map, WIDTH, HEIGHT));
+		assertFalse(stitcher.isSynced());
+	}
+}
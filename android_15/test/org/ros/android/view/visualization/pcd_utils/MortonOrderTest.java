@@ -0,0 +1,121 @@
+package org.ros.android.view.visualization.pcd_utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Checks that {@link MortonOrder} sorts along the Morton curve, and that prefixes of its order cover the
+ * whole cloud.
+ */
+public class MortonOrderTest {
+	/**
+	 * @return The Morton code of a cell, interleaving the bits of x, y and z in that order.
+	 */
+	private static long mortonCode(int x, int y, int z) {
+		long code = 0;
+		for (int bit = 0; bit < 10; bit++) {
+			code |= (long) ((x >> bit) & 1) << (3 * bit);
+			code |= (long) ((y >> bit) & 1) << (3 * bit + 1);
+			code |= (long) ((z >> bit) & 1) << (3 * bit + 2);
+		}
+		return code;
+	}
+
+	/**
+	 * Shuffles the points, so the order depends on the sort only.
+	 */
+	private static void shuffle(FloatBuffer vertices, FloatBuffer intensities, int numOfPoints, Random random) {
+		for (int i = numOfPoints - 1; i > 0; i--) {
+			final int j = random.nextInt(i + 1);
+			for (int axis = 0; axis < 3; axis++) {
+				final float tmp = vertices.get(i * 3 + axis);
+				vertices.put(i * 3 + axis, vertices.get(j * 3 + axis));
+				vertices.put(j * 3 + axis, tmp);
+			}
+			final float tmp = intensities.get(i);
+			intensities.put(i, intensities.get(j));
+			intensities.put(j, tmp);
+		}
+	}
+
+	@Test
+	public void testSortsAlongTheCurve() {
+		//the cloud spans [0, 1023] on each axis, so every integer coordinate is its own cell.
+		final int numOfPoints = 1024;
+		final Random random = new Random(42);
+		final FloatBuffer vertices = FloatBuffer.allocate(numOfPoints * 3);
+		final FloatBuffer intensities = FloatBuffer.allocate(numOfPoints);
+		final float[] original = new float[numOfPoints * 3];
+		for (int i = 0; i < numOfPoints * 3; i++) {
+			original[i] = i < 3 ? 0 : (i < 6 ? 1023 : random.nextInt(1024));
+			vertices.put(i, original[i]);
+		}
+		for (int i = 0; i < numOfPoints; i++) {
+			intensities.put(i, i);
+		}
+
+		new MortonOrder().sort(vertices, intensities, numOfPoints);
+
+		//point k of the output is point reverse(k) along the curve.
+		long previous = -1;
+		for (int position = 0; position < numOfPoints; position++) {
+			final int k = Integer.reverse(position) >>> (32 - 10);
+			final long code = mortonCode((int) vertices.get(k * 3), (int) vertices.get(k * 3 + 1),
+					(int) vertices.get(k * 3 + 2));
+			assertTrue(code >= previous);
+			previous = code;
+		}
+
+		//the intensities are kept with their points.
+		final boolean[] seen = new boolean[numOfPoints];
+		for (int i = 0; i < numOfPoints; i++) {
+			final int source = (int) intensities.get(i);
+			assertFalse(seen[source]);
+			seen[source] = true;
+			for (int axis = 0; axis < 3; axis++) {
+				assertEquals(original[source * 3 + axis], vertices.get(i * 3 + axis), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testPrefixCoversTheCloud() {
+		//a 16 x 16 x 16 lattice, in random order.
+		final int side = 16;
+		final int numOfPoints = side * side * side;
+		final FloatBuffer vertices = FloatBuffer.allocate(numOfPoints * 3);
+		final FloatBuffer intensities = FloatBuffer.allocate(numOfPoints);
+		for (int i = 0; i < numOfPoints; i++) {
+			vertices.put(i * 3, i % side);
+			vertices.put(i * 3 + 1, (i / side) % side);
+			vertices.put(i * 3 + 2, i / (side * side));
+		}
+		shuffle(vertices, intensities, numOfPoints, new Random(7));
+
+		new MortonOrder().sort(vertices, intensities, numOfPoints);
+
+		//the first 8 points are one in each octant, and the first 64 one in each 4 x 4 x 4 block.
+		assertOnePointPerBlock(vertices, 8, side / 2);
+		assertOnePointPerBlock(vertices, 64, side / 4);
+	}
+
+	private static void assertOnePointPerBlock(FloatBuffer vertices, int numOfPoints, int blockSide) {
+		final int blocksPerAxis = 16 / blockSide;
+		final int[] counts = new int[blocksPerAxis * blocksPerAxis * blocksPerAxis];
+		for (int i = 0; i < numOfPoints; i++) {
+			final int x = (int) vertices.get(i * 3) / blockSide;
+			final int y = (int) vertices.get(i * 3 + 1) / blockSide;
+			final int z = (int) vertices.get(i * 3 + 2) / blockSide;
+			counts[(z * blocksPerAxis + y) * blocksPerAxis + x]++;
+		}
+		for (int count : counts) {
+			assertEquals(1, count);
+		}
+	}
+}
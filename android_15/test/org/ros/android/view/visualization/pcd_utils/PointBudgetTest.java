@@ -0,0 +1,105 @@
+package org.ros.android.view.visualization.pcd_utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks how {@link PointBudget} follows the frame time and the camera distance.
+ */
+public class PointBudgetTest {
+	private static final int MIN_POINTS = 1000;
+	private static final int MAX_POINTS = 100000;
+	private static final float TARGET_FPS = 50;
+	private static final long TARGET_FRAME_TIME_NANOS = 20000000;
+	private static final float REFERENCE_DISTANCE = 10;
+	private static final int NUM_OF_POINTS = 1000000;
+
+	private static PointBudget newBudget() {
+		return new PointBudget(MIN_POINTS, MAX_POINTS, TARGET_FPS, REFERENCE_DISTANCE);
+	}
+
+	@Test
+	public void testShrinksOnSlowFrames() {
+		final PointBudget budget = newBudget();
+		assertEquals(MAX_POINTS, budget.getBudget());
+
+		//a dropped frame.
+		budget.onFrame(TARGET_FRAME_TIME_NANOS * 2, true);
+		assertEquals(MAX_POINTS * 4 / 5, budget.getBudget());
+		assertEquals(MAX_POINTS * 4 / 5, budget.getDrawCount(NUM_OF_POINTS, REFERENCE_DISTANCE));
+
+		//never below the minimum.
+		for (int i = 0; i < 100; i++) {
+			budget.onFrame(TARGET_FRAME_TIME_NANOS * 2, true);
+		}
+		assertEquals(MIN_POINTS, budget.getBudget());
+	}
+
+	@Test
+	public void testGrowsOnTimelyFrames() {
+		final PointBudget budget = newBudget();
+		for (int i = 0; i < 100; i++) {
+			budget.onFrame(TARGET_FRAME_TIME_NANOS * 2, true);
+		}
+
+		//frames a little longer than the target are still on time.
+		budget.onFrame(TARGET_FRAME_TIME_NANOS * 6 / 5, true);
+		assertTrue(budget.getBudget() > MIN_POINTS);
+		final int grown = budget.getBudget();
+		budget.onFrame(TARGET_FRAME_TIME_NANOS, true);
+		assertTrue(budget.getBudget() > grown);
+
+		//never above the maximum.
+		for (int i = 0; i < 1000; i++) {
+			budget.onFrame(TARGET_FRAME_TIME_NANOS, true);
+		}
+		assertEquals(MAX_POINTS, budget.getBudget());
+
+		//an unknown frame time changes nothing.
+		budget.onFrame(0, true);
+		assertEquals(MAX_POINTS, budget.getBudget());
+	}
+
+	@Test
+	public void testFartherCloudsGetFewerPoints() {
+		final PointBudget budget = newBudget();
+		budget.onFrame(0, true);
+		assertEquals(MAX_POINTS, budget.getDrawCount(NUM_OF_POINTS, REFERENCE_DISTANCE / 2));
+		assertEquals(MAX_POINTS, budget.getDrawCount(NUM_OF_POINTS, REFERENCE_DISTANCE));
+
+		//the projected area falls with the square of the distance.
+		assertEquals(MAX_POINTS / 4, budget.getDrawCount(NUM_OF_POINTS, REFERENCE_DISTANCE * 2));
+		assertEquals(MAX_POINTS / 100, budget.getDrawCount(NUM_OF_POINTS, REFERENCE_DISTANCE * 10));
+		assertEquals(MIN_POINTS, budget.getDrawCount(NUM_OF_POINTS, REFERENCE_DISTANCE * 1000));
+
+		//never more points than the cloud has.
+		assertEquals(500, budget.getDrawCount(500, REFERENCE_DISTANCE));
+	}
+
+	@Test
+	public void testDrawsEverythingWhenIdle() {
+		final PointBudget budget = newBudget();
+		for (int i = 0; i < 100; i++) {
+			budget.onFrame(TARGET_FRAME_TIME_NANOS * 2, true);
+		}
+		for (int i = 0; i < 9; i++) {
+			budget.onFrame(TARGET_FRAME_TIME_NANOS * 2, false);
+			assertFalse(budget.isIdle());
+		}
+		budget.onFrame(TARGET_FRAME_TIME_NANOS * 2, false);
+		assertTrue(budget.isIdle());
+		assertEquals(NUM_OF_POINTS, budget.getDrawCount(NUM_OF_POINTS, REFERENCE_DISTANCE * 10));
+
+		//idle frames are slow, but don't shrink the budget.
+		budget.onFrame(TARGET_FRAME_TIME_NANOS * 10, false);
+		assertEquals(MIN_POINTS, budget.getBudget());
+
+		//moving again draws within the budget.
+		budget.onFrame(TARGET_FRAME_TIME_NANOS, true);
+		assertFalse(budget.isIdle());
+		assertTrue(budget.getDrawCount(NUM_OF_POINTS, REFERENCE_DISTANCE) < NUM_OF_POINTS);
+	}
+}
@@ -0,0 +1,290 @@
+package org.ros.android.view.visualization.pcd_utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import sensor_msgs.PointCloud2;
+import sensor_msgs.PointField;
+
+/**
+ * Checks {@link PointCloud2Decoder} on hand-made clouds. The messages are proxies which only answer the
+ * getters the decoder uses.
+ */
+public class PointCloud2DecoderTest {
+	private static final float EPSILON = 1e-5f;
+
+	private static <T> T newMessage(Class<T> type, final Map<String, Object> values) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						final String name = method.getName();
+						if (!values.containsKey(name)) {
+							throw new UnsupportedOperationException(name);
+						}
+						return values.get(name);
+					}
+				}));
+	}
+
+	private static PointField newField(String name, int offset, int datatype) {
+		final Map<String, Object> values = new HashMap<String, Object>();
+		values.put("getName", name);
+		values.put("getOffset", offset);
+		values.put("getDatatype", (byte) datatype);
+		values.put("getCount", 1);
+		return newMessage(PointField.class, values);
+	}
+
+	/**
+	 * @return x, y, z and intensity fields of the given datatypes, packed in this order.
+	 */
+	private static List<PointField> newFields(int xyzDatatype, int xyzSize, int intensityDatatype) {
+		final List<PointField> fields = new ArrayList<PointField>();
+		fields.add(newField(PointCloud2Decoder.FIELD_X, 0, xyzDatatype));
+		fields.add(newField(PointCloud2Decoder.FIELD_Y, xyzSize, xyzDatatype));
+		fields.add(newField(PointCloud2Decoder.FIELD_Z, xyzSize * 2, xyzDatatype));
+		if (intensityDatatype >= 0) {
+			fields.add(newField(PointCloud2Decoder.FIELD_INTENSITY, xyzSize * 3, intensityDatatype));
+		}
+		return fields;
+	}
+
+	private static PointCloud2 newCloud(List<PointField> fields, int width, int height, int pointStep,
+	                                    int rowStep, boolean bigEndian, ByteBuffer data) {
+		final byte[] bytes = new byte[data.limit()];
+		data.position(0);
+		data.get(bytes);
+		final Map<String, Object> values = new HashMap<String, Object>();
+		values.put("getFields", fields);
+		values.put("getWidth", width);
+		values.put("getHeight", height);
+		values.put("getPointStep", pointStep);
+		values.put("getRowStep", rowStep);
+		values.put("getIsBigendian", bigEndian);
+		values.put("getData", ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, bytes));
+		return newMessage(PointCloud2.class, values);
+	}
+
+	/**
+	 * @return A buffer holding the float32 x, y, z, intensity of point i at i * pointStep, with i * 10 + 1,
+	 * i * 10 + 2, i * 10 + 3 and i * 10 + 4 as values.
+	 */
+	private static ByteBuffer newFloatPoints(int numOfPoints, int pointStep, ByteOrder order) {
+		final ByteBuffer data = ByteBuffer.allocate(numOfPoints * pointStep).order(order);
+		for (int i = 0; i < numOfPoints; i++) {
+			for (int value = 0; value < 4; value++) {
+				data.putFloat(i * pointStep + value * 4, i * 10 + value + 1);
+			}
+		}
+		return data;
+	}
+
+	private static void assertPoint(int point, float x, float y, float z, FloatBuffer vertices) {
+		assertEquals(x, vertices.get(point * 3), EPSILON);
+		assertEquals(y, vertices.get(point * 3 + 1), EPSILON);
+		assertEquals(z, vertices.get(point * 3 + 2), EPSILON);
+	}
+
+	@Test
+	public void testPackedFloatCloud() {
+		final PointCloud2 cloud = newCloud(newFields(PointField.FLOAT32, 4, PointField.FLOAT32), 3, 1, 16, 48,
+				false, newFloatPoints(3, 16, ByteOrder.LITTLE_ENDIAN));
+		final FloatBuffer vertices = FloatBuffer.allocate(9);
+		final FloatBuffer intensities = FloatBuffer.allocate(3);
+		final double[] sums = new double[PointCloud2Decoder.SUMS_SIZE];
+
+		assertEquals(3, new PointCloud2Decoder().decode(cloud, vertices, intensities, sums));
+		for (int i = 0; i < 3; i++) {
+			assertPoint(i, i * 10 + 1, i * 10 + 2, i * 10 + 3, vertices);
+			assertEquals(i * 10 + 4, intensities.get(i), EPSILON);
+		}
+		assertEquals(3, sums[PointCloud2Decoder.SUM_COUNT], EPSILON);
+		assertEquals(1 + 11 + 21, sums[PointCloud2Decoder.SUM_X], EPSILON);
+		assertEquals(3 + 13 + 23, sums[PointCloud2Decoder.SUM_Z], EPSILON);
+	}
+
+	@Test
+	public void testNaNPointsAreNotSummed() {
+		final ByteBuffer data = newFloatPoints(2, 16, ByteOrder.LITTLE_ENDIAN);
+		data.putFloat(16, Float.NaN);
+		final PointCloud2 cloud = newCloud(newFields(PointField.FLOAT32, 4, -1), 2, 1, 16, 32, false, data);
+		final double[] sums = new double[PointCloud2Decoder.SUMS_SIZE];
+
+		//without an intensity field, intensities are 0.
+		final FloatBuffer intensities = FloatBuffer.allocate(2);
+		intensities.put(0, 5).put(1, 5);
+		assertEquals(2, new PointCloud2Decoder().decode(cloud, FloatBuffer.allocate(6), intensities, sums));
+		assertEquals(0, intensities.get(0), EPSILON);
+		assertEquals(0, intensities.get(1), EPSILON);
+		assertEquals(1, sums[PointCloud2Decoder.SUM_COUNT], EPSILON);
+		assertEquals(1, sums[PointCloud2Decoder.SUM_X], EPSILON);
+	}
+
+	@Test
+	public void testPaddedRows() {
+		//2 x 2 points of 16 bytes, each row padded by 8 bytes.
+		final int rowStep = 40;
+		final ByteBuffer data = ByteBuffer.allocate(rowStep * 2).order(ByteOrder.LITTLE_ENDIAN);
+		final ByteBuffer row = newFloatPoints(4, 16, ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 4; i++) {
+			for (int value = 0; value < 4; value++) {
+				data.putFloat(i / 2 * rowStep + i % 2 * 16 + value * 4, row.getFloat(i * 16 + value * 4));
+			}
+		}
+		final PointCloud2 cloud = newCloud(newFields(PointField.FLOAT32, 4, PointField.FLOAT32), 2, 2, 16, rowStep,
+				false, data);
+		assertEquals(rowStep, PointCloud2Decoder.getRowStep(cloud));
+		assertEquals(4, PointCloud2Decoder.getNumOfPoints(cloud));
+
+		final FloatBuffer vertices = FloatBuffer.allocate(12);
+		final FloatBuffer intensities = FloatBuffer.allocate(4);
+		assertEquals(4, new PointCloud2Decoder().decode(cloud, vertices, intensities,
+				new double[PointCloud2Decoder.SUMS_SIZE]));
+		for (int i = 0; i < 4; i++) {
+			assertPoint(i, i * 10 + 1, i * 10 + 2, i * 10 + 3, vertices);
+			assertEquals(i * 10 + 4, intensities.get(i), EPSILON);
+		}
+
+		//a range starting in the middle of a row continues on the next, padded one.
+		final FloatBuffer range = FloatBuffer.allocate(12);
+		final PointCloud2Decoder.Layout layout = new PointCloud2Decoder().getLayout(cloud);
+		PointCloud2Decoder.decode(PointCloud2Decoder.getData(cloud, layout), layout, 1, 2, range, null,
+				new double[PointCloud2Decoder.SUMS_SIZE]);
+		assertPoint(1, 11, 12, 13, range);
+		assertPoint(2, 21, 22, 23, range);
+	}
+
+	@Test
+	public void testShortRowStepIsPacked() {
+		//some unorganized clouds leave row_step at 0.
+		final PointCloud2 cloud = newCloud(newFields(PointField.FLOAT32, 4, PointField.FLOAT32), 3, 1, 16, 0,
+				false, newFloatPoints(3, 16, ByteOrder.LITTLE_ENDIAN));
+		assertEquals(48, PointCloud2Decoder.getRowStep(cloud));
+		assertEquals(3, PointCloud2Decoder.getNumOfPoints(cloud));
+	}
+
+	@Test
+	public void testTruncatedLastRow() {
+		//3 x 2 points of 16 bytes, and the second row is cut in the middle of its third point.
+		final ByteBuffer data = newFloatPoints(6, 16, ByteOrder.LITTLE_ENDIAN);
+		data.limit(5 * 16 + 8);
+		final PointCloud2 cloud = newCloud(newFields(PointField.FLOAT32, 4, PointField.FLOAT32), 3, 2, 16, 48,
+				false, data);
+		assertEquals(5, PointCloud2Decoder.getNumOfPoints(cloud));
+
+		final FloatBuffer vertices = FloatBuffer.allocate(18);
+		assertEquals(5, new PointCloud2Decoder().decode(cloud, vertices, null,
+				new double[PointCloud2Decoder.SUMS_SIZE]));
+		assertPoint(4, 41, 42, 43, vertices);
+
+		//more data than the size says is ignored.
+		final PointCloud2 longCloud = newCloud(newFields(PointField.FLOAT32, 4, PointField.FLOAT32), 3, 1, 16,
+				48, false, newFloatPoints(6, 16, ByteOrder.LITTLE_ENDIAN));
+		assertEquals(3, PointCloud2Decoder.getNumOfPoints(longCloud));
+	}
+
+	@Test
+	public void testBigEndian() {
+		final PointCloud2 cloud = newCloud(newFields(PointField.FLOAT32, 4, PointField.FLOAT32), 2, 1, 16, 32,
+				true, newFloatPoints(2, 16, ByteOrder.BIG_ENDIAN));
+		final FloatBuffer vertices = FloatBuffer.allocate(6);
+		final FloatBuffer intensities = FloatBuffer.allocate(2);
+		new PointCloud2Decoder().decode(cloud, vertices, intensities, new double[PointCloud2Decoder.SUMS_SIZE]);
+		assertPoint(0, 1, 2, 3, vertices);
+		assertPoint(1, 11, 12, 13, vertices);
+		assertEquals(14, intensities.get(1), EPSILON);
+	}
+
+	@Test
+	public void testFloat64AndUnsignedIntensity() {
+		final ByteBuffer data = ByteBuffer.allocate(2 * 32).order(ByteOrder.LITTLE_ENDIAN);
+		data.putDouble(0, 1.5).putDouble(8, -2.5).putDouble(16, 3.5).putShort(24, (short) 0xffff);
+		data.putDouble(32, 4).putDouble(40, 5).putDouble(48, 6).putShort(56, (short) 7);
+		final PointCloud2 cloud = newCloud(newFields(PointField.FLOAT64, 8, PointField.UINT16), 2, 1, 32, 64,
+				false, data);
+		final FloatBuffer vertices = FloatBuffer.allocate(6);
+		final FloatBuffer intensities = FloatBuffer.allocate(2);
+		new PointCloud2Decoder().decode(cloud, vertices, intensities, new double[PointCloud2Decoder.SUMS_SIZE]);
+		assertPoint(0, 1.5f, -2.5f, 3.5f, vertices);
+		assertPoint(1, 4, 5, 6, vertices);
+		assertEquals(65535, intensities.get(0), EPSILON);
+		assertEquals(7, intensities.get(1), EPSILON);
+	}
+
+	@Test
+	public void testIntegerDatatypes() {
+		final ByteBuffer data = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+		data.putShort(0, (short) -3).putShort(2, (short) 4).putShort(4, (short) -5);
+		final FloatBuffer vertices = FloatBuffer.allocate(3);
+		final FloatBuffer intensities = FloatBuffer.allocate(1);
+		final double[] sums = new double[PointCloud2Decoder.SUMS_SIZE];
+
+		data.put(6, (byte) -1);
+		new PointCloud2Decoder().decode(newCloud(newFields(PointField.INT16, 2, PointField.INT8), 1, 1, 16, 16,
+				false, data), vertices, intensities, sums);
+		assertPoint(0, -3, 4, -5, vertices);
+		assertEquals(-1, intensities.get(0), EPSILON);
+
+		new PointCloud2Decoder().decode(newCloud(newFields(PointField.INT16, 2, PointField.UINT8), 1, 1, 16, 16,
+				false, data), vertices, intensities, sums);
+		assertEquals(255, intensities.get(0), EPSILON);
+
+		data.putInt(6, -1);
+		new PointCloud2Decoder().decode(newCloud(newFields(PointField.INT16, 2, PointField.UINT32), 1, 1, 16, 16,
+				false, data), vertices, intensities, sums);
+		assertEquals(4294967295f, intensities.get(0), 1);
+
+		new PointCloud2Decoder().decode(newCloud(newFields(PointField.INT16, 2, PointField.INT32), 1, 1, 16, 16,
+				false, data), vertices, intensities, sums);
+		assertEquals(-1, intensities.get(0), EPSILON);
+	}
+
+	@Test
+	public void testLayoutReuse() {
+		final PointCloud2Decoder decoder = new PointCloud2Decoder();
+		final ByteBuffer data = newFloatPoints(4, 16, ByteOrder.LITTLE_ENDIAN);
+		final PointCloud2Decoder.Layout layout = decoder.getLayout(
+				newCloud(newFields(PointField.FLOAT32, 4, PointField.FLOAT32), 2, 2, 16, 32, false, data));
+
+		//another cloud of the same layout, even with other data and height.
+		assertSame(layout, decoder.getLayout(
+				newCloud(newFields(PointField.FLOAT32, 4, PointField.FLOAT32), 2, 1, 16, 32, false, data)));
+
+		assertNotSame(layout, decoder.getLayout(
+				newCloud(newFields(PointField.FLOAT32, 4, PointField.FLOAT32), 2, 2, 16, 40, false, data)));
+		assertNotSame(layout, decoder.getLayout(
+				newCloud(newFields(PointField.FLOAT32, 4, PointField.FLOAT32), 2, 2, 16, 32, true, data)));
+		assertNotSame(layout, decoder.getLayout(
+				newCloud(newFields(PointField.FLOAT32, 4, -1), 2, 2, 16, 32, false, data)));
+		assertNotSame(layout, decoder.getLayout(
+				newCloud(newFields(PointField.FLOAT32, 4, PointField.UINT32), 2, 2, 16, 32, false, data)));
+
+		final PointCloud2Decoder.Layout other = decoder.getLayout(
+				newCloud(newFields(PointField.INT16, 2, PointField.FLOAT32), 2, 2, 16, 32, false, data));
+		assertNotSame(layout, other);
+		assertSame(other, decoder.getLayout(
+				newCloud(newFields(PointField.INT16, 2, PointField.FLOAT32), 2, 2, 16, 32, false, data)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFieldBeyondPointStep() {
+		new PointCloud2Decoder().getLayout(newCloud(newFields(PointField.FLOAT64, 8, -1), 1, 1, 16, 16, false,
+				ByteBuffer.allocate(16)));
+	}
+}
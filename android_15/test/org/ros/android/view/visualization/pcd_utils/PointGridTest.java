@@ -0,0 +1,165 @@
+package org.ros.android.view.visualization.pcd_utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.ros.android.view.visualization.gl_utils.Frustum;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Checks {@link PointGrid}'s culling, box queries and picking on a synthetic cloud: a 16 x 16 x 16
+ * lattice of points one apart, which the grid splits into 4 x 4 x 4 cells of 4 x 4 x 4 points.
+ */
+public class PointGridTest {
+	private static final int SIDE = 16;
+	private static final int NUM_OF_POINTS = SIDE * SIDE * SIDE;
+	private static final float[] IDENTITY = new float[]{
+			1, 0, 0, 0,
+			0, 1, 0, 0,
+			0, 0, 1, 0,
+			0, 0, 0, 1};
+
+	private static FloatBuffer newLattice() {
+		final FloatBuffer vertices = FloatBuffer.allocate(NUM_OF_POINTS * 3);
+		for (int i = 0; i < NUM_OF_POINTS; i++) {
+			vertices.put(i % SIDE);
+			vertices.put((i / SIDE) % SIDE);
+			vertices.put(i / (SIDE * SIDE));
+		}
+		vertices.flip();
+		return vertices;
+	}
+
+	/**
+	 * @return A frustum which sees the box, as an orthographic projection.
+	 */
+	private static Frustum newBoxFrustum(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		final float[] projection = new float[16];
+		projection[0] = 2 / (maxX - minX);
+		projection[5] = 2 / (maxY - minY);
+		projection[10] = -2 / (maxZ - minZ);
+		projection[12] = -(maxX + minX) / (maxX - minX);
+		projection[13] = -(maxY + minY) / (maxY - minY);
+		projection[14] = -(maxZ + minZ) / (maxZ - minZ);
+		projection[15] = 1;
+		//the eye looks down -z, so the box's z is negated.
+		final float[] modelView = IDENTITY.clone();
+		modelView[10] = -1;
+		final Frustum frustum = new Frustum();
+		frustum.set(projection, modelView);
+		return frustum;
+	}
+
+	private static PointGrid newGrid(FloatBuffer vertices, boolean reorder) {
+		final PointGrid grid = new PointGrid();
+		grid.build(vertices, null, NUM_OF_POINTS, reorder);
+		assertEquals(64, grid.getNumOfCells());
+		return grid;
+	}
+
+	@Test
+	public void testCullWholeCloud() {
+		final PointGrid grid = newGrid(newLattice(), true);
+		assertTrue(grid.isOrdered());
+
+		//every cell is visible and adjacent to the next, so they merge into one range.
+		assertEquals(1, grid.cull(newBoxFrustum(-1, -1, -1, SIDE, SIDE, SIDE)));
+		assertEquals(0, grid.getRanges()[0]);
+		assertEquals(NUM_OF_POINTS, grid.getRanges()[1]);
+
+		assertEquals(0, grid.cull(newBoxFrustum(SIDE + 1, -1, -1, SIDE + 2, SIDE, SIDE)));
+	}
+
+	@Test
+	public void testCullExcludesCellsOutside() {
+		final FloatBuffer vertices = newLattice();
+		final PointGrid grid = newGrid(vertices, true);
+
+		//only the first column of cells, x in [0, 3], is visible. Cells are in x order first, so none
+		//of them are adjacent.
+		final int numOfRanges = grid.cull(newBoxFrustum(-0.5f, -1, -1, 3.5f, SIDE, SIDE));
+		assertEquals(16, numOfRanges);
+		assertEquals(NUM_OF_POINTS / 4, countAndCheckRanges(grid, numOfRanges, vertices, 0, 3, 0, 15));
+	}
+
+	@Test
+	public void testCullMergesAdjacentCells() {
+		final FloatBuffer vertices = newLattice();
+		final PointGrid grid = newGrid(vertices, true);
+
+		//the first row of cells, y in [0, 3], is visible. The 4 cells of each z layer are adjacent.
+		final int numOfRanges = grid.cull(newBoxFrustum(-1, -0.5f, -1, SIDE, 3.5f, SIDE));
+		assertEquals(4, numOfRanges);
+		for (int i = 0; i < numOfRanges; i++) {
+			assertEquals(NUM_OF_POINTS / 16, grid.getRanges()[i * 2 + 1]);
+		}
+		assertEquals(NUM_OF_POINTS / 4, countAndCheckRanges(grid, numOfRanges, vertices, 0, 15, 0, 3));
+	}
+
+	/**
+	 * Checks that the points in the ranges are within x and y bounds.
+	 *
+	 * @return The number of points in the ranges.
+	 */
+	private static int countAndCheckRanges(PointGrid grid, int numOfRanges, FloatBuffer vertices, float minX,
+	                                       float maxX, float minY, float maxY) {
+		final int[] ranges = grid.getRanges();
+		int count = 0;
+		for (int i = 0; i < numOfRanges; i++) {
+			for (int point = ranges[i * 2]; point < ranges[i * 2] + ranges[i * 2 + 1]; point++) {
+				final float x = vertices.get(point * 3);
+				final float y = vertices.get(point * 3 + 1);
+				assertTrue(x >= minX && x <= maxX && y >= minY && y <= maxY);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testQueryBox() {
+		final FloatBuffer vertices = newLattice();
+		final PointGrid grid = newGrid(vertices, false);
+		assertFalse(grid.isOrdered());
+
+		//the box spans cells, and only part of each.
+		final int[] result = new int[64];
+		assertEquals(64, grid.queryBox(2, 2, 2, 5.5f, 5.5f, 5.5f, result));
+		for (int point : result) {
+			final float x = vertices.get(point * 3);
+			final float y = vertices.get(point * 3 + 1);
+			final float z = vertices.get(point * 3 + 2);
+			assertTrue(x >= 2 && x <= 5 && y >= 2 && y <= 5 && z >= 2 && z <= 5);
+			//not reordered, so the indexes are of the lattice.
+			assertEquals(point, (int) (z * SIDE * SIDE + y * SIDE + x));
+		}
+
+		//points which don't fit are counted.
+		assertEquals(SIDE * SIDE, grid.queryBox(-1, -1, 0, SIDE, SIDE, 0, new int[1]));
+		assertEquals(0, grid.queryBox(0.2f, 0.2f, 0.2f, 0.8f, 0.8f, 0.8f, result));
+	}
+
+	@Test
+	public void testPick() {
+		final FloatBuffer vertices = newLattice();
+		final PointGrid grid = newGrid(vertices, true);
+
+		//a ray down -z, slightly off the line x = 5, y = 7.
+		final float[] origin = new float[]{5.05f, 7.05f, 30};
+		final float[] direction = new float[]{0, 0, -1};
+		final int point = grid.pick(origin, direction, 0.035f);
+		assertTrue(point >= 0);
+		assertEquals(5, vertices.get(point * 3), 0);
+		assertEquals(7, vertices.get(point * 3 + 1), 0);
+
+		//a ray which misses the cloud, and one pointing away from it.
+		origin[0] = 100;
+		assertEquals(-1, grid.pick(origin, direction, 0.035f));
+		origin[0] = 5;
+		direction[2] = 1;
+		assertEquals(-1, grid.pick(origin, direction, 0.035f));
+	}
+}
@@ -0,0 +1,136 @@
+package org.ros.android.view.visualization.pcd_utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.ros.android.view.visualization.AllocationCounter;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Checks {@link VoxelGridFilter} on a synthetic cloud: 4 x 4 x 4 voxels of edge 1 in [0, 4), each
+ * holding 8 points. Point sub of voxel v is point number sub * NUM_OF_VOXELS + v, so the first point of
+ * every voxel comes before all the others.
+ */
+public class VoxelGridFilterTest {
+	private static final int SIDE = 4;
+	private static final int NUM_OF_VOXELS = SIDE * SIDE * SIDE;
+	private static final int POINTS_PER_VOXEL = 8;
+	private static final int NUM_OF_POINTS = NUM_OF_VOXELS * POINTS_PER_VOXEL;
+	private static final int ITERATIONS = 1000;
+
+	private final float[] cloud = new float[NUM_OF_POINTS * 3];
+	private final float[] cloudIntensities = new float[NUM_OF_POINTS];
+	private final FloatBuffer vertices = FloatBuffer.allocate(NUM_OF_POINTS * 3);
+	private final FloatBuffer intensities = FloatBuffer.allocate(NUM_OF_POINTS);
+
+	public VoxelGridFilterTest() {
+		for (int sub = 0; sub < POINTS_PER_VOXEL; sub++) {
+			for (int voxel = 0; voxel < NUM_OF_VOXELS; voxel++) {
+				final int point = sub * NUM_OF_VOXELS + voxel;
+				//the corners of a cube of edge 0.5 in the middle of the voxel.
+				cloud[point * 3] = voxel % SIDE + 0.25f + 0.5f * (sub & 1);
+				cloud[point * 3 + 1] = (voxel / SIDE) % SIDE + 0.25f + 0.5f * ((sub >> 1) & 1);
+				cloud[point * 3 + 2] = voxel / (SIDE * SIDE) + 0.25f + 0.5f * ((sub >> 2) & 1);
+				cloudIntensities[point] = sub * 10 + voxel;
+			}
+		}
+		fill();
+	}
+
+	private void fill() {
+		for (int i = 0; i < cloud.length; i++) {
+			vertices.put(i, cloud[i]);
+		}
+		for (int i = 0; i < cloudIntensities.length; i++) {
+			intensities.put(i, cloudIntensities[i]);
+		}
+	}
+
+	@Test
+	public void testOnePointPerVoxel() {
+		final VoxelGridFilter filter = new VoxelGridFilter(1, NUM_OF_POINTS);
+		assertEquals(NUM_OF_VOXELS, filter.filter(vertices, intensities, NUM_OF_POINTS));
+		assertEquals(1, filter.getLastLeafSize(), 0);
+
+		//the first point of each voxel, in their original order.
+		for (int voxel = 0; voxel < NUM_OF_VOXELS; voxel++) {
+			for (int axis = 0; axis < 3; axis++) {
+				assertEquals(cloud[voxel * 3 + axis], vertices.get(voxel * 3 + axis), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testAveragesIntensities() {
+		final VoxelGridFilter filter = new VoxelGridFilter(1, NUM_OF_POINTS);
+		filter.filter(vertices, intensities, NUM_OF_POINTS);
+		//sub * 10 + voxel, averaged over sub in [0, 8).
+		for (int voxel = 0; voxel < NUM_OF_VOXELS; voxel++) {
+			assertEquals(35 + voxel, intensities.get(voxel), 1e-4f);
+		}
+
+		//and without intensities.
+		fill();
+		assertEquals(NUM_OF_VOXELS, filter.filter(vertices, null, NUM_OF_POINTS));
+	}
+
+	@Test
+	public void testDropsNonFinitePoints() {
+		vertices.put(0, Float.NaN);
+		vertices.put(NUM_OF_VOXELS * 3 + 4, Float.POSITIVE_INFINITY);
+		final VoxelGridFilter filter = new VoxelGridFilter(1, NUM_OF_POINTS);
+		//voxel 0 is still represented, by its second point, which now comes after the other voxels' first.
+		assertEquals(NUM_OF_VOXELS, filter.filter(vertices, intensities, NUM_OF_POINTS));
+		assertEquals(cloud[3], vertices.get(0), 0);
+		assertEquals(cloud[NUM_OF_VOXELS * 3], vertices.get((NUM_OF_VOXELS - 1) * 3), 0);
+	}
+
+	@Test
+	public void testDoublesLeafSizeUntilUnderMaximum() {
+		//64 voxels of edge 1, 8 of edge 2, and 1 of edge 4.
+		final VoxelGridFilter filter = new VoxelGridFilter(1, NUM_OF_VOXELS - 1);
+		assertEquals(8, filter.filter(vertices, intensities, NUM_OF_POINTS));
+		assertEquals(2, filter.getLastLeafSize(), 0);
+		assertEquals(1, filter.getLeafSize(), 0);
+
+		fill();
+		filter.setMaxPoints(7);
+		assertEquals(1, filter.filter(vertices, intensities, NUM_OF_POINTS));
+		assertEquals(4, filter.getLastLeafSize(), 0);
+
+		fill();
+		filter.setMaxPoints(NUM_OF_VOXELS);
+		assertEquals(NUM_OF_VOXELS, filter.filter(vertices, intensities, NUM_OF_POINTS));
+		assertEquals(1, filter.getLastLeafSize(), 0);
+	}
+
+	@Test
+	public void testDisabled() {
+		final VoxelGridFilter filter = new VoxelGridFilter(0, 1);
+		assertEquals(NUM_OF_POINTS, filter.filter(vertices, intensities, NUM_OF_POINTS));
+		assertEquals(0, filter.getLastLeafSize(), 0);
+		assertEquals(cloud[3], vertices.get(3), 0);
+	}
+
+	@Test
+	public void testNoReallocation() throws Exception {
+		final AllocationCounter allocations = AllocationCounter.create();
+		Assume.assumeTrue(allocations != null);
+		final VoxelGridFilter filter = new VoxelGridFilter(1, NUM_OF_VOXELS - 1);
+
+		//including the leaf size doubling, and smaller clouds than the first.
+		final long allocated = allocations.count(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < ITERATIONS; i++) {
+					fill();
+					filter.filter(vertices, intensities, NUM_OF_POINTS - i % 2 * NUM_OF_VOXELS);
+				}
+			}
+		});
+		assertTrue("Allocated " + allocated + " bytes.", allocated < ITERATIONS);
+	}
+}
@@ -0,0 +1,80 @@
+package org.ros.android.view.visualization.scan_utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link ScanDecimator} thins out straight runs of a scan evenly, and keeps its corners.
+ */
+public class ScanDecimatorTest {
+	private static final float EPSILON = 1e-5f;
+
+	/**
+	 * @return A straight run of numPoints points spacing apart along x, with z = the point's index.
+	 */
+	private static float[] newRun(int numPoints, float spacing) {
+		final float[] points = new float[numPoints * 3];
+		for (int i = 0; i < numPoints; i++) {
+			points[i * 3] = i * spacing;
+			points[i * 3 + 2] = i;
+		}
+		return points;
+	}
+
+	@Test
+	public void testMinimumDistance() {
+		final float[] points = newRun(11, 0.1f);
+		final float[] result = new float[33];
+		//every third point is at least 0.25 from the last kept one, and the last point is always kept.
+		assertEquals(5, new ScanDecimator().decimate(points, 11, 0.25f, 0.01f, result, 0));
+		assertEquals(0, result[2], EPSILON);
+		assertEquals(3, result[5], EPSILON);
+		assertEquals(6, result[8], EPSILON);
+		assertEquals(9, result[11], EPSILON);
+		assertEquals(10, result[14], EPSILON);
+	}
+
+	@Test
+	public void testNoMinimumDistanceKeepsAll() {
+		final float[] points = newRun(11, 0.1f);
+		assertEquals(11, new ScanDecimator().decimate(points, 11, 0, 0.01f, new float[33], 0));
+	}
+
+	@Test
+	public void testCornerIsKept() {
+		//an L of 21 points, with its corner at (1, 0).
+		final float[] points = new float[21 * 3];
+		for (int i = 0; i <= 20; i++) {
+			points[i * 3] = i <= 10 ? i * 0.1f : 1;
+			points[i * 3 + 1] = i <= 10 ? 0 : (i - 10) * 0.1f;
+			points[i * 3 + 2] = i;
+		}
+		//the spacing alone would only keep the endpoints.
+		final float[] result = new float[9];
+		assertEquals(3, new ScanDecimator().decimate(points, 21, 10, 0.05f, result, 0));
+		assertEquals(0, result[2], EPSILON);
+		assertEquals(1, result[3], EPSILON);
+		assertEquals(0, result[4], EPSILON);
+		assertEquals(20, result[8], EPSILON);
+	}
+
+	@Test
+	public void testFewPoints() {
+		final ScanDecimator decimator = new ScanDecimator();
+		final float[] result = new float[6];
+		assertEquals(0, decimator.decimate(new float[0], 0, 1, 0.01f, result, 0));
+		assertEquals(1, decimator.decimate(new float[]{1, 2, 3}, 1, 1, 0.01f, result, 3));
+		assertEquals(1, result[3], EPSILON);
+		assertEquals(2, result[4], EPSILON);
+		assertEquals(3, result[5], EPSILON);
+	}
+
+	@Test
+	public void testDecimateInPlace() {
+		final float[] points = newRun(11, 0.1f);
+		assertEquals(5, new ScanDecimator().decimate(points, 11, 0.25f, 0.01f, points, 0));
+		assertEquals(0.3f, points[3], EPSILON);
+		assertEquals(1, points[12], EPSILON);
+	}
+}
@@ -17,7 +17,6 @@
 package org.ros.android.compressed_map_transport;
 
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.ros.exception.RosRuntimeException;
 import org.ros.internal.message.MessageBuffers;
 import org.ros.message.MessageListener;
@@ -27,23 +26,15 @@ import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 import org.ros.node.topic.Subscriber;
 
-import java.awt.Image;
-import java.awt.Transparency;
-import java.awt.color.ColorSpace;
-import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.ComponentColorModel;
-import java.awt.image.DataBuffer;
-import java.awt.image.DataBufferByte;
-import java.awt.image.Raster;
-import java.awt.image.SampleModel;
-import java.awt.image.WritableRaster;
 import java.io.IOException;
-
-import javax.imageio.ImageIO;
+import java.util.Arrays;
 
 /**
  * Scales, compresses, and relays {@link nav_msgs.OccupancyGrid} messages.
+ * <p/>
+ * Maps are scaled down by max pooling, so that occupied cells survive, and
+ * sent as grayscale PNG images. See {@link TiledMapTransport} for full
+ * resolution maps.
  * 
  * @author damonkohler@google.com (Damon Kohler)
  */
@@ -55,9 +46,15 @@ public class CompressedMapTransport extends AbstractNodeMain {
   private static final GraphName TOPIC_IN = GraphName.of("map");
   private static final GraphName TOPIC_OUT = TOPIC_IN.join(IMAGE_FORMAT);
 
+  private final MapCodec codec;
+
   private Publisher<nav_msgs.OccupancyGrid> publisher;
   private Subscriber<nav_msgs.OccupancyGrid> subscriber;
 
+  public CompressedMapTransport() {
+    codec = MapCodecs.png();
+  }
+
   @Override
   public GraphName getDefaultNodeName() {
     return GraphName.of("map_transport");
@@ -79,12 +76,24 @@ public class CompressedMapTransport extends AbstractNodeMain {
   }
 
   private nav_msgs.OccupancyGrid scaleAndCompressOccupancyGrid(nav_msgs.OccupancyGrid message) {
-    BufferedImage bufferedImage = newGrayscaleBufferedImage(message);
-    BufferedImage scaledBufferedImage = scaleBufferedImage(bufferedImage);
+    int width = message.getInfo().getWidth();
+    int height = message.getInfo().getHeight();
+    byte[] cells = new byte[width * height];
+    ChannelBuffer data = message.getData();
+    int readable = Math.min(data.readableBytes(), cells.length);
+    data.getBytes(data.readerIndex(), cells, 0, readable);
+    Arrays.fill(cells, readable, cells.length, (byte) -1);
+    int factor =
+        Math.max(TiledMapFormat.getNumOfTiles(width, MAXIMUM_WIDTH),
+            TiledMapFormat.getNumOfTiles(height, MAXIMUM_HEIGHT));
+    if (factor > 1) {
+      cells = maxPool(cells, width, height, factor);
+      width = TiledMapFormat.getNumOfTiles(width, factor);
+      height = TiledMapFormat.getNumOfTiles(height, factor);
+    }
     ChannelBuffer buffer = MessageBuffers.dynamicBuffer();
-    ChannelBufferOutputStream outputStream = new ChannelBufferOutputStream(buffer);
     try {
-      ImageIO.write(scaledBufferedImage, IMAGE_FORMAT, outputStream);
+      buffer.writeBytes(codec.encode(cells, width, 0, 0, width, height));
     } catch (IOException e) {
       throw new RosRuntimeException(e);
     }
@@ -93,55 +102,33 @@ public class CompressedMapTransport extends AbstractNodeMain {
     compressedMessage.getHeader().setStamp(message.getHeader().getStamp());
     compressedMessage.getInfo().setMapLoadTime(message.getInfo().getMapLoadTime());
     compressedMessage.getInfo().setOrigin(message.getInfo().getOrigin());
-    compressedMessage.getInfo().setWidth(scaledBufferedImage.getWidth());
-    compressedMessage.getInfo().setHeight(scaledBufferedImage.getHeight());
-    float resolution =
-        message.getInfo().getResolution() * message.getInfo().getHeight()
-            / scaledBufferedImage.getHeight();
-    compressedMessage.getInfo().setResolution(resolution);
+    compressedMessage.getInfo().setWidth(width);
+    compressedMessage.getInfo().setHeight(height);
+    compressedMessage.getInfo().setResolution(message.getInfo().getResolution() * factor);
     compressedMessage.setData(buffer);
     return compressedMessage;
   }
 
-  private BufferedImage newGrayscaleBufferedImage(nav_msgs.OccupancyGrid message) {
-    int width = message.getInfo().getWidth();
-    int height = message.getInfo().getHeight();
-    ColorSpace colorSpace = ColorSpace.getInstance(ColorSpace.CS_GRAY);
-    ColorModel colorModel =
-        new ComponentColorModel(colorSpace, new int[] { 8 }, false, false, Transparency.OPAQUE,
-            DataBuffer.TYPE_BYTE);
-    SampleModel sampleModel = colorModel.createCompatibleSampleModel(width, height);
-    // There is a bug in DataBuffer that causes WritableRaster to ignore the
-    // offset. As a result, we have to make a copy of the data here so that the
-    // array is guaranteed to start with the first readable byte.
-    byte[] data = new byte[message.getData().readableBytes()];
-    message.getData().readBytes(data);
-    DataBuffer dataBuffer = new DataBufferByte(data, data.length, 0);
-    WritableRaster raster = Raster.createWritableRaster(sampleModel, dataBuffer, null);
-    BufferedImage bufferedImage = new BufferedImage(colorModel, raster, false, null);
-    return bufferedImage;
-  }
-
-  private BufferedImage scaleBufferedImage(BufferedImage bufferedImage) {
-    int height = bufferedImage.getHeight();
-    int width = bufferedImage.getWidth();
-    BufferedImage scaledBufferedImage = bufferedImage;
-    if (height > MAXIMUM_HEIGHT || width > MAXIMUM_WIDTH) {
-      // Setting the width or height to -1 causes the scaling method to maintain
-      // the image's aspect ratio.
-      int scaledHeight = -1;
-      int scaledWidth = -1;
-      if (height > width) {
-        scaledHeight = MAXIMUM_HEIGHT;
-      } else {
-        scaledWidth = MAXIMUM_WIDTH;
+  /**
+   * Shrinks a grid by an integer factor. Each cell of the result is the
+   * maximum of the cells it covers, so occupied cells win over free ones and
+   * free ones over unknown ones, and thin walls aren't blurred away.
+   */
+  private static byte[] maxPool(byte[] cells, int width, int height, int factor) {
+    int scaledWidth = TiledMapFormat.getNumOfTiles(width, factor);
+    int scaledHeight = TiledMapFormat.getNumOfTiles(height, factor);
+    byte[] scaledCells = new byte[scaledWidth * scaledHeight];
+    Arrays.fill(scaledCells, Byte.MIN_VALUE);
+    for (int y = 0; y < height; y++) {
+      int scaledRowStart = (y / factor) * scaledWidth;
+      for (int x = 0; x < width; x++) {
+        byte cell = cells[y * width + x];
+        int scaledIndex = scaledRowStart + x / factor;
+        if (cell > scaledCells[scaledIndex]) {
+          scaledCells[scaledIndex] = cell;
+        }
       }
-      Image image = bufferedImage.getScaledInstance(scaledWidth, scaledHeight, Image.SCALE_SMOOTH);
-      scaledBufferedImage =
-          new BufferedImage(image.getWidth(null), image.getHeight(null),
-              BufferedImage.TYPE_BYTE_GRAY);
-      scaledBufferedImage.getGraphics().drawImage(image, 0, 0, null);
     }
-    return scaledBufferedImage;
+    return scaledCells;
   }
 }
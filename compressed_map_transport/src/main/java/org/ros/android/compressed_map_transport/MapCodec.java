@@ -0,0 +1,35 @@
+package org.ros.android.compressed_map_transport;
+
+import java.io.IOException;
+
+/**
+ * Compresses rectangles of occupancy grids. Codecs are lossless, cells are
+ * decoded to exactly the bytes they were encoded from.
+ * <p/>
+ * Implementations must be thread safe, tiles are encoded in parallel.
+ */
+public interface MapCodec {
+
+  /**
+   * @return the identifier of the codec in the payload, see
+   *         {@link TiledMapFormat}
+   */
+  int getId();
+
+  /**
+   * Encodes the rectangle {@code x}, {@code y}, {@code width}, {@code height}
+   * of a grid that is {@code stride} cells wide.
+   */
+  byte[] encode(byte[] cells, int stride, int x, int y, int width, int height) throws IOException;
+
+  /**
+   * Decodes {@code length} bytes at {@code offset} into the rectangle
+   * {@code x}, {@code y}, {@code width}, {@code height} of a grid that is
+   * {@code stride} cells wide.
+   * 
+   * @throws IOException
+   *           if the data is malformed, or for another rectangle size
+   */
+  void decode(byte[] data, int offset, int length, byte[] cells, int stride, int x, int y,
+      int width, int height) throws IOException;
+}
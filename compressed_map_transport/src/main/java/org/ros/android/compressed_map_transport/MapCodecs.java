@@ -0,0 +1,57 @@
+package org.ros.android.compressed_map_transport;
+
+import java.io.IOException;
+
+/**
+ * The codecs of {@link TiledMapFormat}.
+ */
+public final class MapCodecs {
+
+  private static final MapCodec PNG = new PngMapCodec();
+  private static final MapCodec RUN_LENGTH = new RunLengthMapCodec();
+  private static final MapCodec DEFLATE = new DeflateMapCodec(DeflateMapCodec.DEFAULT_LEVEL);
+
+  private MapCodecs() {
+    // Utility class.
+  }
+
+  /**
+   * @return the codec that transports use unless told otherwise
+   */
+  public static MapCodec getDefault() {
+    return DEFLATE;
+  }
+
+  public static MapCodec png() {
+    return PNG;
+  }
+
+  public static MapCodec runLength() {
+    return RUN_LENGTH;
+  }
+
+  /**
+   * @see DeflateMapCodec#DeflateMapCodec(int)
+   */
+  public static MapCodec deflate(int level) {
+    return new DeflateMapCodec(level);
+  }
+
+  /**
+   * @return a codec that decodes tiles of the given codec identifier
+   * @throws IOException
+   *           if the codec is unknown
+   */
+  public static MapCodec forId(int id) throws IOException {
+    switch (id) {
+      case TiledMapFormat.CODEC_PNG:
+        return PNG;
+      case TiledMapFormat.CODEC_RUN_LENGTH:
+        return RUN_LENGTH;
+      case TiledMapFormat.CODEC_DEFLATE:
+        return DEFLATE;
+      default:
+        throw new IOException("Unknown codec " + id + ".");
+    }
+  }
+}
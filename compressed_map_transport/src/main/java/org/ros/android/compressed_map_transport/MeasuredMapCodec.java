@@ -0,0 +1,93 @@
+package org.ros.android.compressed_map_transport;
+
+import java.io.IOException;
+
+/**
+ * Measures how fast and how well another codec compresses.
+ */
+public class MeasuredMapCodec implements MapCodec {
+
+  private static final double NANOSECONDS_PER_SECOND = 1e9;
+
+  private final MapCodec codec;
+
+  private long encodedCells;
+  private long encodedBytes;
+  private long encodeNanoseconds;
+  private long decodedCells;
+  private long decodeNanoseconds;
+
+  public MeasuredMapCodec(MapCodec codec) {
+    this.codec = codec;
+  }
+
+  public MapCodec getCodec() {
+    return codec;
+  }
+
+  @Override
+  public int getId() {
+    return codec.getId();
+  }
+
+  @Override
+  public byte[] encode(byte[] cells, int stride, int x, int y, int width, int height)
+      throws IOException {
+    final long start = System.nanoTime();
+    byte[] result = codec.encode(cells, stride, x, y, width, height);
+    final long duration = System.nanoTime() - start;
+    synchronized (this) {
+      encodedCells += (long) width * height;
+      encodedBytes += result.length;
+      encodeNanoseconds += duration;
+    }
+    return result;
+  }
+
+  @Override
+  public void decode(byte[] data, int offset, int length, byte[] cells, int stride, int x, int y,
+      int width, int height) throws IOException {
+    final long start = System.nanoTime();
+    codec.decode(data, offset, length, cells, stride, x, y, width, height);
+    final long duration = System.nanoTime() - start;
+    synchronized (this) {
+      decodedCells += (long) width * height;
+      decodeNanoseconds += duration;
+    }
+  }
+
+  /**
+   * @return the cells encoded per second, per encoding thread
+   */
+  public synchronized double getEncodeThroughput() {
+    return encodeNanoseconds == 0 ? 0 : encodedCells * NANOSECONDS_PER_SECOND / encodeNanoseconds;
+  }
+
+  /**
+   * @return the cells decoded per second, per decoding thread
+   */
+  public synchronized double getDecodeThroughput() {
+    return decodeNanoseconds == 0 ? 0 : decodedCells * NANOSECONDS_PER_SECOND / decodeNanoseconds;
+  }
+
+  /**
+   * @return the number of cells per encoded byte
+   */
+  public synchronized double getCompressionRatio() {
+    return encodedBytes == 0 ? 0 : encodedCells / (double) encodedBytes;
+  }
+
+  public synchronized void reset() {
+    encodedCells = 0;
+    encodedBytes = 0;
+    encodeNanoseconds = 0;
+    decodedCells = 0;
+    decodeNanoseconds = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("codec %d: %.1f Mcells/s encoding, %.1f Mcells/s decoding, %.1f:1",
+        getId(), getEncodeThroughput() / 1e6, getDecodeThroughput() / 1e6, getCompressionRatio());
+  }
+}
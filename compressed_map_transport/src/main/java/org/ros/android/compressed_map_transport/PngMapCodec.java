@@ -0,0 +1,52 @@
+package org.ros.android.compressed_map_transport;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Encodes rectangles of occupancy grids as 8 bit grayscale PNG images, one
+ * gray value per cell. The cells' bytes are stored as they are, so unknown
+ * cells (-1) are white, free cells black and the encoding is lossless.
+ */
+public class PngMapCodec implements MapCodec {
+
+  private static final String IMAGE_FORMAT = "png";
+
+  @Override
+  public int getId() {
+    return TiledMapFormat.CODEC_PNG;
+  }
+
+  @Override
+  public byte[] encode(byte[] cells, int stride, int x, int y, int width, int height)
+      throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+    byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    for (int row = 0; row < height; row++) {
+      System.arraycopy(cells, (y + row) * stride + x, pixels, row * width, width);
+    }
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ImageIO.write(image, IMAGE_FORMAT, outputStream);
+    return outputStream.toByteArray();
+  }
+
+  @Override
+  public void decode(byte[] data, int offset, int length, byte[] cells, int stride, int x, int y,
+      int width, int height) throws IOException {
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(data, offset, length));
+    if (image == null || image.getType() != BufferedImage.TYPE_BYTE_GRAY
+        || image.getWidth() != width || image.getHeight() != height) {
+      throw new IOException("Expected a " + width + "x" + height + " grayscale image.");
+    }
+    byte[] row = new byte[width];
+    for (int i = 0; i < height; i++) {
+      image.getRaster().getDataElements(0, i, width, 1, row);
+      System.arraycopy(row, 0, cells, (y + i) * stride + x, width);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package org.ros.android.compressed_map_transport;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Encodes rectangles of occupancy grids as runs of equal cells.
+ * <p/>
+ * Each run is the cell's byte followed by the length of the run as an
+ * unsigned LEB128 varint. Runs go row by row and continue across rows. SLAM
+ * maps are mostly large areas of unknown and free cells, so this compresses
+ * them about half as well as PNG, but an order of magnitude faster.
+ */
+public class RunLengthMapCodec implements MapCodec {
+
+  @Override
+  public int getId() {
+    return TiledMapFormat.CODEC_RUN_LENGTH;
+  }
+
+  @Override
+  public byte[] encode(byte[] cells, int stride, int x, int y, int width, int height) {
+    // At worst, every run is a single cell with a one byte length.
+    byte[] result = new byte[2 * width * height];
+    int position = 0;
+    int length = 0;
+    byte value = 0;
+    for (int row = y; row < y + height; row++) {
+      final int rowStart = row * stride + x;
+      for (int i = rowStart; i < rowStart + width; i++) {
+        if (length > 0 && cells[i] == value) {
+          length++;
+          continue;
+        }
+        if (length > 0) {
+          position = writeRun(result, position, value, length);
+        }
+        value = cells[i];
+        length = 1;
+      }
+    }
+    if (length > 0) {
+      position = writeRun(result, position, value, length);
+    }
+    return Arrays.copyOf(result, position);
+  }
+
+  private static int writeRun(byte[] result, int position, byte value, int length) {
+    result[position++] = value;
+    while ((length & ~0x7f) != 0) {
+      result[position++] = (byte) (length & 0x7f | 0x80);
+      length >>>= 7;
+    }
+    result[position++] = (byte) length;
+    return position;
+  }
+
+  @Override
+  public void decode(byte[] data, int offset, int length, byte[] cells, int stride, int x, int y,
+      int width, int height) throws IOException {
+    final int end = offset + length;
+    int position = offset;
+    int row = 0;
+    int column = 0;
+    while (row < height) {
+      if (position >= end) {
+        throw new IOException("Missing runs.");
+      }
+      final byte value = data[position++];
+      int runLength = 0;
+      for (int shift = 0;; shift += 7) {
+        if (position >= end || shift > 28) {
+          throw new IOException("Malformed run length.");
+        }
+        final int b = data[position++];
+        runLength |= (b & 0x7f) << shift;
+        if (b >= 0) {
+          break;
+        }
+      }
+      while (runLength > 0) {
+        if (row >= height) {
+          throw new IOException("Runs exceed the rectangle.");
+        }
+        final int count = Math.min(runLength, width - column);
+        final int start = (y + row) * stride + x + column;
+        Arrays.fill(cells, start, start + count, value);
+        runLength -= count;
+        column += count;
+        if (column == width) {
+          column = 0;
+          row++;
+        }
+      }
+    }
+    if (position != end) {
+      throw new IOException("Trailing bytes after the runs.");
+    }
+  }
+}
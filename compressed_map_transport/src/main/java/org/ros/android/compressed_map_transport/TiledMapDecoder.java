@@ -0,0 +1,78 @@
+package org.ros.android.compressed_map_transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Stitches the tiles of tiled map messages into a grid. See
+ * {@link TiledMapFormat}.
+ */
+public class TiledMapDecoder {
+
+  private TiledMapDecoder() {
+    // Utility class.
+  }
+
+  /**
+   * Decodes the tiles of a payload into {@code cells}. Cells of tiles that
+   * aren't in the payload are left as they are.
+   * 
+   * @param cells
+   *          the grid, row by row, of the payload's map size
+   * @return the number of tiles decoded
+   * @throws IOException
+   *           if the payload is malformed, or for another map size
+   */
+  public static int decode(byte[] data, int offset, int length, byte[] cells, int width, int height)
+      throws IOException {
+    return decode(data, offset, length, cells, width, height, null);
+  }
+
+  /**
+   * Like {@link #decode(byte[], int, int, byte[], int, int)}, but decodes the
+   * tiles with the given codec, e.g. to measure it.
+   * 
+   * @param codec
+   *          the codec of the payload, or {@code null} to pick it by its
+   *          identifier
+   */
+  public static int decode(byte[] data, int offset, int length, byte[] cells, int width,
+      int height, MapCodec codec) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+    if (in.readInt() != TiledMapFormat.MAGIC || in.readByte() != TiledMapFormat.VERSION) {
+      throw new IOException("Not a tiled map.");
+    }
+    final int codecId = in.readByte();
+    // The flags and sequence number are for decoders that keep the map
+    // between payloads.
+    in.readByte();
+    in.readInt();
+    if (codec == null) {
+      codec = MapCodecs.forId(codecId);
+    } else if (codec.getId() != codecId) {
+      throw new IOException("Expected codec " + codec.getId() + " instead of " + codecId + ".");
+    }
+    if (in.readInt() != width || in.readInt() != height || cells.length < width * height) {
+      throw new IOException("The payload is for another map size.");
+    }
+    final int tileSize = in.readInt();
+    final int numTiles = in.readInt();
+    int position = offset + TiledMapFormat.HEADER_LENGTH;
+    for (int i = 0; i < numTiles; i++) {
+      final int x = in.readInt() * tileSize;
+      final int y = in.readInt() * tileSize;
+      final int tileLength = in.readInt();
+      position += 3 * 4;
+      if (x < 0 || y < 0 || x >= width || y >= height || tileLength < 0
+          || tileLength > offset + length - position) {
+        throw new IOException("Malformed tile.");
+      }
+      codec.decode(data, position, tileLength, cells, width, x, y,
+          Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+      position += tileLength;
+      in.skipBytes(tileLength);
+    }
+    return numTiles;
+  }
+}
@@ -0,0 +1,253 @@
+package org.ros.android.compressed_map_transport;
+
+import org.ros.exception.RosRuntimeException;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits occupancy grids into fixed size tiles, and encodes only the tiles
+ * that changed since the previous grid. See {@link TiledMapFormat}.
+ * <p/>
+ * Tiles are compared by a 64 bit hash of their cells, and the changed ones
+ * are encoded in parallel by a {@link MapCodec}. The last encoding of every tile is kept, so key
+ * frames with all tiles cost no encoding. Every grid with changed tiles gets
+ * the next sequence number. Not thread safe.
+ */
+public class TiledMapEncoder {
+
+  public static final int DEFAULT_TILE_SIZE = 256;
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final MapCodec codec;
+  private final int tileSize;
+  private final ExecutorService executorService;
+
+  private int width;
+  private int height;
+  private int numTilesWide;
+  private long[] hashes;
+  private byte[][] tiles;
+  private boolean[] changed;
+  private int numChanged;
+  private Future<?>[] futures;
+  private int sequence;
+
+  /**
+   * Encodes tiles with the default codec, see {@link MapCodecs#getDefault()}.
+   */
+  public TiledMapEncoder(int tileSize, ExecutorService executorService) {
+    this(MapCodecs.getDefault(), tileSize, executorService);
+  }
+
+  /**
+   * @param executorService
+   *          encodes the changed tiles, or {@code null} to encode them on the
+   *          calling thread
+   */
+  public TiledMapEncoder(MapCodec codec, int tileSize, ExecutorService executorService) {
+    if (tileSize <= 0) {
+      throw new IllegalArgumentException("Tile size must be positive.");
+    }
+    this.codec = codec;
+    this.tileSize = tileSize;
+    this.executorService = executorService;
+    hashes = new long[0];
+    tiles = new byte[0][];
+    changed = new boolean[0];
+    futures = new Future<?>[0];
+  }
+
+  public MapCodec getCodec() {
+    return codec;
+  }
+
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * @return the number of tiles of the last grid
+   */
+  public int getNumOfTiles() {
+    return tiles.length;
+  }
+
+  /**
+   * @return the number of tiles that changed with the last grid
+   */
+  public int getNumOfChangedTiles() {
+    return numChanged;
+  }
+
+  /**
+   * @return the sequence number of the last grid with changed tiles
+   */
+  public int getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Forgets the previous grid, so that all tiles of the next one are
+   * considered changed. The sequence goes on.
+   */
+  public void reset() {
+    width = 0;
+    height = 0;
+    tiles = new byte[0][];
+  }
+
+  /**
+   * Hashes the tiles of a grid, and encodes the ones that changed.
+   * 
+   * @param cells
+   *          the grid, row by row
+   * @return the number of changed tiles
+   */
+  public int update(final byte[] cells, final int width, int height) {
+    if (width < 0 || height < 0 || cells.length < width * height) {
+      throw new IllegalArgumentException("The grid is smaller than its size.");
+    }
+    if (width != this.width || height != this.height) {
+      this.width = width;
+      this.height = height;
+      numTilesWide = TiledMapFormat.getNumOfTiles(width, tileSize);
+      final int numTiles = numTilesWide * TiledMapFormat.getNumOfTiles(height, tileSize);
+      hashes = new long[numTiles];
+      tiles = new byte[numTiles][];
+      changed = new boolean[numTiles];
+      futures = new Future<?>[numTiles];
+    }
+
+    numChanged = 0;
+    for (int i = 0; i < tiles.length; i++) {
+      final long hash = hash(cells, i);
+      changed[i] = tiles[i] == null || hash != hashes[i];
+      hashes[i] = hash;
+      if (!changed[i]) {
+        continue;
+      }
+      numChanged++;
+      final int tile = i;
+      final Runnable encoder = new Runnable() {
+        @Override
+        public void run() {
+          try {
+            tiles[tile] =
+                codec.encode(cells, width, getX(tile), getY(tile), getWidth(tile), getHeight(tile));
+          } catch (IOException e) {
+            throw new RosRuntimeException(e);
+          }
+        }
+      };
+      if (executorService == null) {
+        encoder.run();
+      } else {
+        futures[i] = executorService.submit(encoder);
+      }
+    }
+    if (executorService != null) {
+      join();
+    }
+    if (numChanged > 0) {
+      sequence++;
+    }
+    return numChanged;
+  }
+
+  private void join() {
+    try {
+      for (int i = 0; i < futures.length; i++) {
+        if (futures[i] != null) {
+          futures[i].get();
+          futures[i] = null;
+        }
+      }
+    } catch (InterruptedException e) {
+      cancel();
+      Thread.currentThread().interrupt();
+      throw new RosRuntimeException(e);
+    } catch (ExecutionException e) {
+      cancel();
+      throw new RosRuntimeException(e.getCause());
+    }
+  }
+
+  private void cancel() {
+    for (int i = 0; i < futures.length; i++) {
+      if (futures[i] != null) {
+        futures[i].cancel(true);
+        futures[i] = null;
+      }
+    }
+    // Tiles that weren't encoded must not be taken for unchanged.
+    reset();
+  }
+
+  /**
+   * Writes the changed tiles of the last grid, or all of its tiles for a key
+   * frame.
+   */
+  public void write(OutputStream outputStream, boolean keyFrame) throws IOException {
+    DataOutputStream out = new DataOutputStream(outputStream);
+    out.writeInt(TiledMapFormat.MAGIC);
+    out.writeByte(TiledMapFormat.VERSION);
+    out.writeByte(codec.getId());
+    out.writeByte(keyFrame ? TiledMapFormat.FLAG_KEY_FRAME : 0);
+    out.writeInt(sequence);
+    out.writeInt(width);
+    out.writeInt(height);
+    out.writeInt(tileSize);
+    out.writeInt(keyFrame ? tiles.length : numChanged);
+    for (int i = 0; i < tiles.length; i++) {
+      if (keyFrame || changed[i]) {
+        out.writeInt(i % numTilesWide);
+        out.writeInt(i / numTilesWide);
+        out.writeInt(tiles[i].length);
+        out.write(tiles[i]);
+      }
+    }
+    out.flush();
+  }
+
+  private int getX(int tile) {
+    return (tile % numTilesWide) * tileSize;
+  }
+
+  private int getY(int tile) {
+    return (tile / numTilesWide) * tileSize;
+  }
+
+  private int getWidth(int tile) {
+    return Math.min(tileSize, width - getX(tile));
+  }
+
+  private int getHeight(int tile) {
+    return Math.min(tileSize, height - getY(tile));
+  }
+
+  /**
+   * FNV-1a over the tile's cells, row by row.
+   */
+  private long hash(byte[] cells, int tile) {
+    final int x = getX(tile);
+    final int y = getY(tile);
+    final int tileWidth = getWidth(tile);
+    final int tileHeight = getHeight(tile);
+    long hash = FNV_OFFSET_BASIS;
+    for (int row = y; row < y + tileHeight; row++) {
+      final int rowStart = row * width + x;
+      for (int i = rowStart; i < rowStart + tileWidth; i++) {
+        hash ^= cells[i] & 0xff;
+        hash *= FNV_PRIME;
+      }
+    }
+    return hash;
+  }
+}
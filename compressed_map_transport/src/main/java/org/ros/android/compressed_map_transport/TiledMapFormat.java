@@ -0,0 +1,76 @@
+package org.ros.android.compressed_map_transport;
+
+/**
+ * The payload of tiled {@link nav_msgs.OccupancyGrid} messages.
+ * <p/>
+ * The message's info describes the whole map. Its data holds, in big endian
+ * order:
+ * <ul>
+ * <li>int: {@link #MAGIC}</li>
+ * <li>byte: {@link #VERSION}</li>
+ * <li>byte: the codec of the tiles, one of the {@code CODEC_} constants</li>
+ * <li>byte: flags, {@link #FLAG_KEY_FRAME} for key frames</li>
+ * <li>int: the sequence number of the grid</li>
+ * <li>int: map width, int: map height, in cells</li>
+ * <li>int: tile size, in cells</li>
+ * <li>int: the number of tiles that follow</li>
+ * <li>for each tile, int: column, int: row, int: length, and length bytes of
+ * the encoded tile</li>
+ * </ul>
+ * Tiles are square, except those in the last column and row, which end at
+ * the map's edge. A message only carries the tiles that changed since the
+ * previous message, unless it is a key frame.
+ * <p/>
+ * Every grid with changed tiles gets the next sequence number, and key frames
+ * repeat the number of the grid they hold. A decoder that sees a number other
+ * than the next one has missed tiles, which may be stale until the next key
+ * frame. Transports send key frames periodically, so it doesn't wait long.
+ * <p/>
+ * Decoders pick the codec by its identifier, see {@link MapCodecs#forId(int)},
+ * so transports may switch codecs at any time.
+ * <p/>
+ * Android clients decode the format with their own copy, TiledMapStitcher in
+ * android_15. Any change here must be made there too, see
+ * TiledMapFormatTest.
+ */
+public final class TiledMapFormat {
+
+  public static final int MAGIC = 0x544d4150; // "TMAP"
+  public static final int VERSION = 2;
+
+  /**
+   * The message carries all tiles of the map.
+   */
+  public static final int FLAG_KEY_FRAME = 1;
+
+  /**
+   * The length of the header before the first tile, in bytes.
+   */
+  public static final int HEADER_LENGTH = 4 + 1 + 1 + 1 + 5 * 4;
+
+  /**
+   * See {@link PngMapCodec}.
+   */
+  public static final int CODEC_PNG = 0;
+
+  /**
+   * See {@link RunLengthMapCodec}.
+   */
+  public static final int CODEC_RUN_LENGTH = 1;
+
+  /**
+   * See {@link DeflateMapCodec}.
+   */
+  public static final int CODEC_DEFLATE = 2;
+
+  private TiledMapFormat() {
+    // Constants only.
+  }
+
+  /**
+   * @return the number of tiles needed to cover {@code size} cells
+   */
+  public static int getNumOfTiles(int size, int tileSize) {
+    return (size + tileSize - 1) / tileSize;
+  }
+}
@@ -0,0 +1,202 @@
+package org.ros.android.compressed_map_transport;
+
+import org.apache.commons.logging.Log;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.ros.exception.RosRuntimeException;
+import org.ros.internal.message.MessageBuffers;
+import org.ros.internal.node.topic.SubscriberIdentifier;
+import org.ros.message.MessageListener;
+import org.ros.namespace.GraphName;
+import org.ros.node.AbstractNodeMain;
+import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
+import org.ros.node.topic.DefaultPublisherListener;
+import org.ros.node.topic.Publisher;
+import org.ros.node.topic.Subscriber;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relays {@link nav_msgs.OccupancyGrid} messages at full resolution, as
+ * tiles. Only the tiles that changed are sent, see {@link TiledMapFormat}.
+ * New subscribers get a key frame with all tiles. So do all subscribers,
+ * every few changes and a few seconds after changes, so that ones that missed
+ * a message catch up.
+ * <p/>
+ * How fast and how well the tiles are compressed is logged at debug level.
+ */
+public class TiledMapTransport extends AbstractNodeMain {
+
+  private static final GraphName TOPIC_IN = GraphName.of("map");
+  private static final GraphName TOPIC_OUT = TOPIC_IN.join("tiles");
+
+  /**
+   * The number of changes after which a key frame is sent instead.
+   */
+  private static final int KEY_FRAME_INTERVAL = 20;
+
+  /**
+   * Seconds after which changes are followed by a key frame, in case no more
+   * changes come.
+   */
+  private static final long KEY_FRAME_PERIOD = 5;
+
+  private final Object mutex;
+  private final MeasuredMapCodec codec;
+
+  private ExecutorService executorService;
+  private TiledMapEncoder encoder;
+  private Log log;
+  private Publisher<nav_msgs.OccupancyGrid> publisher;
+  private Subscriber<nav_msgs.OccupancyGrid> subscriber;
+  private ScheduledFuture<?> keyFrameTimer;
+  private byte[] cells;
+
+  /**
+   * The number of messages without all tiles since the last key frame.
+   */
+  private int numDeltas;
+
+  /**
+   * The last map, whose info goes into key frames.
+   */
+  private nav_msgs.OccupancyGrid lastMessage;
+
+  public TiledMapTransport() {
+    this(MapCodecs.getDefault());
+  }
+
+  /**
+   * @param codec
+   *          encodes the tiles, see {@link MapCodecs}
+   */
+  public TiledMapTransport(MapCodec codec) {
+    mutex = new Object();
+    this.codec = new MeasuredMapCodec(codec);
+    cells = new byte[0];
+  }
+
+  @Override
+  public GraphName getDefaultNodeName() {
+    return GraphName.of("tiled_map_transport");
+  }
+
+  @Override
+  public void onStart(ConnectedNode connectedNode) {
+    executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    encoder = new TiledMapEncoder(codec, TiledMapEncoder.DEFAULT_TILE_SIZE, executorService);
+    log = connectedNode.getLog();
+    publisher = connectedNode.newPublisher(TOPIC_OUT, nav_msgs.OccupancyGrid._TYPE);
+    publisher.setLatchMode(true);
+    publisher.addListener(new DefaultPublisherListener<nav_msgs.OccupancyGrid>() {
+      @Override
+      public void onNewSubscriber(Publisher<nav_msgs.OccupancyGrid> publisher,
+          SubscriberIdentifier subscriberIdentifier) {
+        publishKeyFrame();
+      }
+    });
+    keyFrameTimer = connectedNode.getScheduledExecutorService().scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (mutex) {
+          if (numDeltas > 0) {
+            publishKeyFrame();
+          }
+        }
+      }
+    }, KEY_FRAME_PERIOD, KEY_FRAME_PERIOD, TimeUnit.SECONDS);
+    subscriber = connectedNode.newSubscriber(TOPIC_IN, nav_msgs.OccupancyGrid._TYPE);
+    subscriber.addMessageListener(new MessageListener<nav_msgs.OccupancyGrid>() {
+      @Override
+      public void onNewMessage(nav_msgs.OccupancyGrid message) {
+        if (message.getInfo().getWidth() > 0 && message.getInfo().getHeight() > 0) {
+          update(message);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void onShutdown(Node node) {
+    if (keyFrameTimer != null) {
+      keyFrameTimer.cancel(false);
+    }
+    if (executorService != null) {
+      executorService.shutdownNow();
+    }
+  }
+
+  private void update(nav_msgs.OccupancyGrid message) {
+    final int width = message.getInfo().getWidth();
+    final int height = message.getInfo().getHeight();
+    synchronized (mutex) {
+      if (cells.length != width * height) {
+        cells = new byte[width * height];
+      }
+      ChannelBuffer data = message.getData();
+      int readable = Math.min(data.readableBytes(), cells.length);
+      data.getBytes(data.readerIndex(), cells, 0, readable);
+      Arrays.fill(cells, readable, cells.length, (byte) -1);
+      if (lastMessage != null && !isSamePlacement(lastMessage.getInfo(), message.getInfo())) {
+        // The tiles may not have changed, but where they are drawn has.
+        encoder.reset();
+      }
+      lastMessage = message;
+      if (encoder.update(cells, width, height) > 0) {
+        // Key frames cost no encoding, and after a resize all tiles changed
+        // anyway.
+        publish(message, numDeltas + 1 >= KEY_FRAME_INTERVAL
+            || encoder.getNumOfChangedTiles() == encoder.getNumOfTiles());
+        if (log.isDebugEnabled()) {
+          log.debug(encoder.getNumOfChangedTiles() + " of " + encoder.getNumOfTiles()
+              + " tiles changed, " + codec);
+        }
+      }
+    }
+  }
+
+  private void publishKeyFrame() {
+    synchronized (mutex) {
+      if (lastMessage != null) {
+        publish(lastMessage, true);
+      }
+    }
+  }
+
+  private void publish(nav_msgs.OccupancyGrid message, boolean keyFrame) {
+    ChannelBuffer buffer = MessageBuffers.dynamicBuffer();
+    try {
+      encoder.write(new ChannelBufferOutputStream(buffer), keyFrame);
+    } catch (IOException e) {
+      throw new RosRuntimeException(e);
+    }
+    nav_msgs.OccupancyGrid tiledMessage = publisher.newMessage();
+    tiledMessage.getHeader().setFrameId(message.getHeader().getFrameId());
+    tiledMessage.getHeader().setStamp(message.getHeader().getStamp());
+    tiledMessage.getInfo().setMapLoadTime(message.getInfo().getMapLoadTime());
+    tiledMessage.getInfo().setOrigin(message.getInfo().getOrigin());
+    tiledMessage.getInfo().setWidth(message.getInfo().getWidth());
+    tiledMessage.getInfo().setHeight(message.getInfo().getHeight());
+    tiledMessage.getInfo().setResolution(message.getInfo().getResolution());
+    tiledMessage.setData(buffer);
+    publisher.publish(tiledMessage);
+    numDeltas = keyFrame ? 0 : numDeltas + 1;
+  }
+
+  private static boolean isSamePlacement(nav_msgs.MapMetaData a, nav_msgs.MapMetaData b) {
+    geometry_msgs.Point positionA = a.getOrigin().getPosition();
+    geometry_msgs.Point positionB = b.getOrigin().getPosition();
+    geometry_msgs.Quaternion orientationA = a.getOrigin().getOrientation();
+    geometry_msgs.Quaternion orientationB = b.getOrigin().getOrientation();
+    return a.getResolution() == b.getResolution() && positionA.getX() == positionB.getX()
+        && positionA.getY() == positionB.getY() && positionA.getZ() == positionB.getZ()
+        && orientationA.getX() == orientationB.getX() && orientationA.getY() == orientationB.getY()
+        && orientationA.getZ() == orientationB.getZ() && orientationA.getW() == orientationB.getW();
+  }
+}
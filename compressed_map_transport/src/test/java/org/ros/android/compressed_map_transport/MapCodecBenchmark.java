@@ -0,0 +1,91 @@
+package org.ros.android.compressed_map_transport;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Compares the codecs on synthetic SLAM maps: mostly unknown, with free rooms
+ * and corridors bounded by one cell thick walls, and some noise from
+ * individual scans. Not a test, run its main method on the test classpath.
+ */
+public class MapCodecBenchmark {
+
+  private static final int WARM_UP_ITERATIONS = 5;
+  private static final int ITERATIONS = 20;
+  private static final int TILE_SIZE = TiledMapEncoder.DEFAULT_TILE_SIZE;
+
+  /**
+   * Draws a building of rooms into an unknown grid.
+   */
+  static byte[] newSlamMap(int width, int height, long seed) {
+    Random random = new Random(seed);
+    byte[] cells = new byte[width * height];
+    Arrays.fill(cells, (byte) -1);
+    for (int i = 0; i < width * height / 20000; i++) {
+      final int roomWidth = 20 + random.nextInt(100);
+      final int roomHeight = 20 + random.nextInt(100);
+      final int x = width / 8 + random.nextInt(width * 3 / 4 - roomWidth);
+      final int y = height / 8 + random.nextInt(height * 3 / 4 - roomHeight);
+      for (int row = y; row < y + roomHeight; row++) {
+        final boolean wall = row == y || row == y + roomHeight - 1;
+        for (int column = x; column < x + roomWidth; column++) {
+          final int index = row * width + column;
+          if (wall || column == x || column == x + roomWidth - 1) {
+            cells[index] = 100;
+          } else if (cells[index] != 100) {
+            cells[index] = random.nextInt(200) == 0 ? (byte) 100 : 0;
+          }
+        }
+      }
+    }
+    return cells;
+  }
+
+  private static void run(MapCodec codec, byte[] cells, int width, int height) throws IOException {
+    MeasuredMapCodec measuredCodec = new MeasuredMapCodec(codec);
+    TiledMapEncoder encoder = new TiledMapEncoder(measuredCodec, TILE_SIZE, null);
+    ByteArrayOutputStreamWithoutCopy outputStream = new ByteArrayOutputStreamWithoutCopy();
+    byte[] decoded = new byte[cells.length];
+    for (int i = 0; i < WARM_UP_ITERATIONS + ITERATIONS; i++) {
+      if (i == WARM_UP_ITERATIONS) {
+        measuredCodec.reset();
+      }
+      encoder.reset();
+      encoder.update(cells, width, height);
+      outputStream.reset();
+      encoder.write(outputStream, true);
+      TiledMapDecoder.decode(outputStream.getBuffer(), 0, outputStream.size(), decoded, width,
+          height, measuredCodec);
+    }
+    if (!Arrays.equals(cells, decoded)) {
+      throw new IllegalStateException("Codec " + codec.getId() + " isn't lossless.");
+    }
+    String name = codec.getClass().getSimpleName();
+    if (codec instanceof DeflateMapCodec) {
+      name += " " + ((DeflateMapCodec) codec).getLevel();
+    }
+    System.out.println(String.format("%-19s %dx%d: %8d bytes, %s", name, width, height,
+        outputStream.size(), measuredCodec));
+  }
+
+  public static void main(String[] args) throws IOException {
+    final MapCodec[] codecs =
+        new MapCodec[] { MapCodecs.png(), MapCodecs.runLength(),
+            MapCodecs.deflate(Deflater.BEST_SPEED), MapCodecs.deflate(DeflateMapCodec.DEFAULT_LEVEL),
+            MapCodecs.deflate(Deflater.BEST_COMPRESSION) };
+    for (int size : new int[] { 1024, 4096 }) {
+      byte[] cells = newSlamMap(size, size, size);
+      for (MapCodec codec : codecs) {
+        run(codec, cells, size, size);
+      }
+    }
+  }
+
+  private static class ByteArrayOutputStreamWithoutCopy extends java.io.ByteArrayOutputStream {
+    public byte[] getBuffer() {
+      return buf;
+    }
+  }
+}
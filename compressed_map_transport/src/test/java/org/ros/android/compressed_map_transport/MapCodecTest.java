@@ -0,0 +1,124 @@
+package org.ros.android.compressed_map_transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+public class MapCodecTest {
+
+  private static final int WIDTH = 300;
+  private static final int HEIGHT = 200;
+
+  private static final MapCodec[] CODECS = new MapCodec[] { MapCodecs.png(),
+      MapCodecs.runLength(), MapCodecs.deflate(Deflater.BEST_SPEED),
+      MapCodecs.deflate(Deflater.BEST_COMPRESSION) };
+
+  /**
+   * A grid of unknown, free and occupied cells, with costs and long runs.
+   */
+  private static byte[] newGrid(long seed) {
+    Random random = new Random(seed);
+    byte[] cells = new byte[WIDTH * HEIGHT];
+    for (int i = 0; i < cells.length; i++) {
+      if (i % WIDTH < WIDTH / 4) {
+        cells[i] = -1;
+      } else if (random.nextInt(10) == 0) {
+        cells[i] = (byte) random.nextInt(101);
+      }
+    }
+    // A run longer than a varint byte can hold.
+    Arrays.fill(cells, 50 * WIDTH, 52 * WIDTH, (byte) 100);
+    return cells;
+  }
+
+  private static byte[] newUnknownGrid() {
+    byte[] cells = new byte[WIDTH * HEIGHT];
+    Arrays.fill(cells, (byte) -1);
+    return cells;
+  }
+
+  private static void assertRectangleEquals(byte[] expected, byte[] actual, int x, int y,
+      int width, int height) {
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int column = 0; column < WIDTH; column++) {
+        final boolean inside =
+            column >= x && column < x + width && row >= y && row < y + height;
+        final int i = row * WIDTH + column;
+        assertEquals(inside ? expected[i] : -1, actual[i]);
+      }
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] expected = newGrid(0);
+    for (MapCodec codec : CODECS) {
+      byte[] data = codec.encode(expected, WIDTH, 0, 0, WIDTH, HEIGHT);
+      byte[] actual = newUnknownGrid();
+      codec.decode(data, 0, data.length, actual, WIDTH, 0, 0, WIDTH, HEIGHT);
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testRectangleRoundTrip() throws IOException {
+    byte[] expected = newGrid(1);
+    for (MapCodec codec : CODECS) {
+      byte[] data = codec.encode(expected, WIDTH, 70, 45, 123, 67);
+      // Decoding at an offset into a larger array.
+      byte[] padded = new byte[data.length + 10];
+      System.arraycopy(data, 0, padded, 7, data.length);
+      byte[] actual = newUnknownGrid();
+      codec.decode(padded, 7, data.length, actual, WIDTH, 70, 45, 123, 67);
+      assertRectangleEquals(expected, actual, 70, 45, 123, 67);
+    }
+  }
+
+  @Test
+  public void testForId() throws IOException {
+    for (MapCodec codec : CODECS) {
+      assertEquals(codec.getId(), MapCodecs.forId(codec.getId()).getId());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownId() throws IOException {
+    MapCodecs.forId(42);
+  }
+
+  @Test
+  public void testTruncatedDataIsRejected() {
+    byte[] cells = newGrid(2);
+    for (MapCodec codec : CODECS) {
+      try {
+        byte[] data = codec.encode(cells, WIDTH, 0, 0, WIDTH, HEIGHT);
+        codec.decode(data, 0, data.length / 2, newUnknownGrid(), WIDTH, 0, 0, WIDTH, HEIGHT);
+      } catch (IOException e) {
+        continue;
+      }
+      throw new AssertionError("Codec " + codec.getId() + " accepted truncated data.");
+    }
+  }
+
+  @Test
+  public void testMeasuredCodec() throws IOException {
+    MeasuredMapCodec codec = new MeasuredMapCodec(MapCodecs.runLength());
+    byte[] cells = new byte[WIDTH * HEIGHT];
+    byte[] data = codec.encode(cells, WIDTH, 0, 0, WIDTH, HEIGHT);
+    codec.decode(data, 0, data.length, cells, WIDTH, 0, 0, WIDTH, HEIGHT);
+    // One run of 60000 free cells is a byte for the cell and 3 for the length.
+    assertEquals(4, data.length);
+    assertEquals(WIDTH * HEIGHT / 4.0, codec.getCompressionRatio(), 1e-9);
+    assertTrue(codec.getEncodeThroughput() > 0);
+    assertTrue(codec.getDecodeThroughput() > 0);
+    codec.reset();
+    assertEquals(0, codec.getCompressionRatio(), 0);
+  }
+}
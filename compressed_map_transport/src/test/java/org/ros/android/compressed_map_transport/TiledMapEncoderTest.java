@@ -0,0 +1,166 @@
+package org.ros.android.compressed_map_transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TiledMapEncoderTest {
+
+  private static final int WIDTH = 300;
+  private static final int HEIGHT = 200;
+  private static final int TILE_SIZE = 64;
+
+  /**
+   * A grid of unknown, free and occupied cells, with some structure so that
+   * it compresses like a map.
+   */
+  private static byte[] newGrid(int width, int height, long seed) {
+    Random random = new Random(seed);
+    byte[] cells = new byte[width * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        if (x < width / 4) {
+          cells[y * width + x] = -1;
+        } else if (random.nextInt(20) == 0) {
+          cells[y * width + x] = 100;
+        }
+      }
+    }
+    return cells;
+  }
+
+  private static byte[] write(TiledMapEncoder encoder, boolean keyFrame) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    encoder.write(outputStream, keyFrame);
+    return outputStream.toByteArray();
+  }
+
+  private static byte[] newUnknownGrid(int width, int height) {
+    byte[] cells = new byte[width * height];
+    Arrays.fill(cells, (byte) -1);
+    return cells;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] expected = newGrid(WIDTH, HEIGHT, 0);
+    TiledMapEncoder encoder = new TiledMapEncoder(TILE_SIZE, null);
+    // 5 columns and 4 rows, the last ones partial.
+    assertEquals(20, encoder.update(expected, WIDTH, HEIGHT));
+    byte[] payload = write(encoder, false);
+    byte[] actual = newUnknownGrid(WIDTH, HEIGHT);
+    assertEquals(20, TiledMapDecoder.decode(payload, 0, payload.length, actual, WIDTH, HEIGHT));
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void testDecoderPicksTheEncodersCodec() throws IOException {
+    byte[] expected = newGrid(WIDTH, HEIGHT, 0);
+    for (MapCodec codec : new MapCodec[] { MapCodecs.png(), MapCodecs.runLength(),
+        MapCodecs.deflate(9) }) {
+      TiledMapEncoder encoder = new TiledMapEncoder(codec, TILE_SIZE, null);
+      encoder.update(expected, WIDTH, HEIGHT);
+      byte[] payload = write(encoder, false);
+      byte[] actual = newUnknownGrid(WIDTH, HEIGHT);
+      TiledMapDecoder.decode(payload, 0, payload.length, actual, WIDTH, HEIGHT);
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testOnlyChangedTilesAreEncoded() throws IOException {
+    byte[] cells = newGrid(WIDTH, HEIGHT, 0);
+    TiledMapEncoder encoder = new TiledMapEncoder(TILE_SIZE, null);
+    encoder.update(cells, WIDTH, HEIGHT);
+    byte[] stitched = newUnknownGrid(WIDTH, HEIGHT);
+    byte[] payload = write(encoder, false);
+    TiledMapDecoder.decode(payload, 0, payload.length, stitched, WIDTH, HEIGHT);
+
+    assertEquals(0, encoder.update(cells, WIDTH, HEIGHT));
+    cells[150 * WIDTH + 299] = 100;
+    cells[10 * WIDTH + 10] = 0;
+    assertEquals(2, encoder.update(cells, WIDTH, HEIGHT));
+    payload = write(encoder, false);
+    assertEquals(2, TiledMapDecoder.decode(payload, 0, payload.length, stitched, WIDTH, HEIGHT));
+    assertArrayEquals(cells, stitched);
+  }
+
+  @Test
+  public void testKeyFrameHasAllTiles() throws IOException {
+    byte[] cells = newGrid(WIDTH, HEIGHT, 1);
+    TiledMapEncoder encoder = new TiledMapEncoder(TILE_SIZE, null);
+    encoder.update(cells, WIDTH, HEIGHT);
+    encoder.update(cells, WIDTH, HEIGHT);
+    byte[] payload = write(encoder, true);
+    byte[] stitched = newUnknownGrid(WIDTH, HEIGHT);
+    assertEquals(20, TiledMapDecoder.decode(payload, 0, payload.length, stitched, WIDTH, HEIGHT));
+    assertArrayEquals(cells, stitched);
+  }
+
+  @Test
+  public void testSequenceCountsGridsWithChanges() throws IOException {
+    byte[] cells = newGrid(WIDTH, HEIGHT, 1);
+    TiledMapEncoder encoder = new TiledMapEncoder(TILE_SIZE, null);
+    assertEquals(0, encoder.getSequence());
+    encoder.update(cells, WIDTH, HEIGHT);
+    assertEquals(1, encoder.getSequence());
+    // Nothing changed, so nothing is sent.
+    encoder.update(cells, WIDTH, HEIGHT);
+    assertEquals(1, encoder.getSequence());
+    cells[0] = 100;
+    encoder.update(cells, WIDTH, HEIGHT);
+    assertEquals(2, encoder.getSequence());
+    // A reset sends all tiles, but clients may still be synced.
+    encoder.reset();
+    encoder.update(cells, WIDTH, HEIGHT);
+    assertEquals(3, encoder.getSequence());
+
+    // Key frames repeat the sequence number of the grid.
+    byte[] payload = write(encoder, true);
+    assertEquals(TiledMapFormat.FLAG_KEY_FRAME, payload[6]);
+    assertEquals(3, payload[10]);
+    payload = write(encoder, false);
+    assertEquals(0, payload[6]);
+    assertEquals(3, payload[10]);
+  }
+
+  @Test
+  public void testParallelEncodingMatchesSerialEncoding() throws IOException {
+    byte[] cells = newGrid(WIDTH, HEIGHT, 2);
+    ExecutorService executorService = Executors.newFixedThreadPool(4);
+    try {
+      TiledMapEncoder serialEncoder = new TiledMapEncoder(TILE_SIZE, null);
+      TiledMapEncoder parallelEncoder = new TiledMapEncoder(TILE_SIZE, executorService);
+      serialEncoder.update(cells, WIDTH, HEIGHT);
+      parallelEncoder.update(cells, WIDTH, HEIGHT);
+      assertArrayEquals(write(serialEncoder, true), write(parallelEncoder, true));
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testResizeEncodesAllTiles() {
+    TiledMapEncoder encoder = new TiledMapEncoder(TILE_SIZE, null);
+    encoder.update(newGrid(WIDTH, HEIGHT, 3), WIDTH, HEIGHT);
+    assertEquals(4, encoder.update(newGrid(128, 128, 3), 128, 128));
+    encoder.reset();
+    assertEquals(4, encoder.update(newGrid(128, 128, 3), 128, 128));
+  }
+
+  @Test(expected = IOException.class)
+  public void testPayloadForAnotherSizeIsRejected() throws IOException {
+    TiledMapEncoder encoder = new TiledMapEncoder(TILE_SIZE, null);
+    encoder.update(newGrid(WIDTH, HEIGHT, 4), WIDTH, HEIGHT);
+    byte[] payload = write(encoder, true);
+    TiledMapDecoder.decode(payload, 0, payload.length, new byte[100 * 100], 100, 100);
+  }
+}
@@ -0,0 +1,83 @@
+package org.ros.android.compressed_map_transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pins the format to known payloads. The same payloads are decoded by
+ * TiledMapStitcherTest in android_15, which has its own copy of the decoders,
+ * so a change to the format on either side fails one of the tests.
+ */
+public class TiledMapFormatTest {
+
+  private static final int WIDTH = 5;
+  private static final int HEIGHT = 3;
+  private static final int TILE_SIZE = 4;
+
+  private static final byte[] CELLS = new byte[] {
+      -1, -1, 0, 0, 100,
+      -1, 0, 0, 100, 100,
+      0, 0, 50, 100, -1 };
+
+  /**
+   * Both tiles of {@link #CELLS} as runs, in a key frame with sequence
+   * number 1.
+   */
+  private static final byte[] RUN_LENGTH_PAYLOAD = new byte[] {
+      84, 77, 65, 80, 2, 1, 1, 0, 0, 0, 1,
+      0, 0, 0, 5, 0, 0, 0, 3, 0, 0, 0, 4, 0, 0, 0, 2,
+      0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 16,
+      -1, 2, 0, 2, -1, 1, 0, 2, 100, 1, 0, 2, 50, 1, 100, 1,
+      0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 4,
+      100, 2, -1, 1 };
+
+  /**
+   * Both tiles of {@link #CELLS}, deflated, in a key frame with sequence
+   * number 1.
+   */
+  private static final byte[] DEFLATE_PAYLOAD = new byte[] {
+      84, 77, 65, 80, 2, 2, 1, 0, 0, 0, 1,
+      0, 0, 0, 5, 0, 0, 0, 3, 0, 0, 0, 4, 0, 0, 0, 2,
+      0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 18,
+      120, -100, -5, -1, -97, -127, 1, -120, 82, 24, 24, -116, 82, 0, 33, -87, 3, -8,
+      0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 11,
+      120, -100, 75, 73, -7, 15, 0, 2, -10, 1, -56 };
+
+  private static byte[] decode(byte[] payload) throws IOException {
+    byte[] cells = new byte[WIDTH * HEIGHT];
+    Arrays.fill(cells, (byte) -1);
+    assertEquals(2, TiledMapDecoder.decode(payload, 0, payload.length, cells, WIDTH, HEIGHT));
+    return cells;
+  }
+
+  private static byte[] encode(MapCodec codec) throws IOException {
+    TiledMapEncoder encoder = new TiledMapEncoder(codec, TILE_SIZE, null);
+    encoder.update(CELLS, WIDTH, HEIGHT);
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    encoder.write(outputStream, true);
+    return outputStream.toByteArray();
+  }
+
+  @Test
+  public void testRunLength() throws IOException {
+    assertArrayEquals(RUN_LENGTH_PAYLOAD, encode(MapCodecs.runLength()));
+    assertArrayEquals(CELLS, decode(RUN_LENGTH_PAYLOAD));
+  }
+
+  @Test
+  public void testDeflate() throws IOException {
+    // Deflated bytes may differ between zlib versions, so only the header is
+    // compared.
+    byte[] payload = encode(MapCodecs.getDefault());
+    assertArrayEquals(Arrays.copyOf(DEFLATE_PAYLOAD, TiledMapFormat.HEADER_LENGTH),
+        Arrays.copyOf(payload, TiledMapFormat.HEADER_LENGTH));
+    assertArrayEquals(CELLS, decode(payload));
+    assertArrayEquals(CELLS, decode(DEFLATE_PAYLOAD));
+  }
+}